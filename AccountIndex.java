@@ -0,0 +1,144 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * AccountIndex class which keeps secondary indexes over account metadata so that operational
+ * questions can be answered without scanning every account: a sorted index of creation times
+ * for "which accounts were created between these times", and for every checklist item a pair of
+ * compressed bitmaps for "which accounts have this item complete / incomplete".
+ *
+ * Every indexed account gets a dense integer ordinal that the bitmaps store.  The indexes are
+ * kept current as an AccountListener; an account is indexed from its live state the first time
+ * it is seen, and later sightings through the initial scan are ignored, so a scan racing with
+ * account changes never overwrites a newer state with an older one
+ *
+ * Bugs: None
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class AccountIndex implements AccountListener {
+
+    /**
+     * Created subclass which is one entry of the creation-time index
+     */
+    private static final class Created {
+
+        private final long time;
+        private final int ordinal;
+
+        /**
+         * Created constructor method
+         * @param time Long creation time in epoch milliseconds
+         * @param ordinal Integer ordinal of the account
+         */
+        private Created( long time, int ordinal ) {
+            this.time = time;
+            this.ordinal = ordinal;
+        }
+    }
+
+    private static final Comparator< Created > BY_TIME =
+        Comparator.comparingLong( ( Created entry ) -> entry.time ).thenComparingInt( entry -> entry.ordinal );
+
+    // Ordinal of every indexed username, and the username of every ordinal
+    private final Map< String, Integer > ordinals = new HashMap<>();
+    private final List< String > names = new ArrayList<>();
+
+    private final ConcurrentSkipListSet< Created > createdIndex = new ConcurrentSkipListSet<>( BY_TIME );
+
+    // For every checklist item, the accounts with it incomplete [0] and complete [1]
+    private final Map< String, OrdinalBitmap[] > checklistIndex = new HashMap<>();
+
+    /**
+     * Indexes an account from its current state unless it is already indexed
+     * @param user User to be indexed
+     */
+    public synchronized void index( User user ) {
+        if ( ordinals.containsKey( user.getName() ) ) { return; }
+        int ordinal = names.size();
+        ordinals.put( user.getName(), ordinal );
+        names.add( user.getName() );
+        createdIndex.add( new Created( user.getInformation().getTimeCreatedMillis(), ordinal ) );
+        for ( Map.Entry< String, Boolean > item : user.getInformation().getChecklist().entrySet() ) {
+            bitmaps( item.getKey() )[ item.getValue() ? 1 : 0 ].add( ordinal );
+        }
+    }
+
+    /**
+     * Private helper method which returns the bitmaps of a checklist item, creating them on first use
+     * @param key String, checklist item
+     * @return OrdinalBitmap array, incomplete accounts then complete accounts
+     */
+    private OrdinalBitmap[] bitmaps( String key ) {
+        return checklistIndex.computeIfAbsent( key, item -> new OrdinalBitmap[]{ new OrdinalBitmap(), new OrdinalBitmap() } );
+    }
+
+    public void userCreated( User user ) {
+        index( user );
+    }
+
+    public void securityQuestionAdded( User user, String question, long salt, long hash ) {}
+
+    public synchronized void checklistUpdated( User user, String key, boolean complete ) {
+        Integer ordinal = ordinals.get( user.getName() );
+        if ( ordinal == null ) { index( user ); return; }
+        OrdinalBitmap[] bitmaps = bitmaps( key );
+        bitmaps[ complete ? 0 : 1 ].remove( ordinal );
+        bitmaps[ complete ? 1 : 0 ].add( ordinal );
+    }
+
+    /**
+     * Returns the accounts created in a time range, oldest first
+     * @param fromMillis Long start of the range in epoch milliseconds, inclusive
+     * @param toMillis Long end of the range in epoch milliseconds, exclusive
+     * @param limit Integer largest number of usernames to return
+     * @return List of upper case usernames
+     */
+    public List< String > createdBetween( long fromMillis, long toMillis, int limit ) {
+        List< String > result = new ArrayList<>();
+        if ( fromMillis >= toMillis ) { return result; }
+        for ( Created entry : createdIndex.subSet( new Created( fromMillis, Integer.MIN_VALUE ), new Created( toMillis, Integer.MIN_VALUE ) ) ) {
+            if ( result.size() >= limit ) { break; }
+            result.add( name( entry.ordinal ) );
+        }
+        return result;
+    }
+
+    /**
+     * Returns the accounts whose checklist item is in a state, in the order they were indexed
+     * @param key String, checklist item
+     * @param complete True for accounts that completed the item, false for those that have not
+     * @param limit Integer largest number of usernames to return
+     * @return List of upper case usernames
+     */
+    public synchronized List< String > withChecklistItem( String key, boolean complete, int limit ) {
+        List< String > result = new ArrayList<>();
+        OrdinalBitmap[] bitmaps = checklistIndex.get( key );
+        if ( bitmaps == null ) { return result; }
+        if ( limit <= 0 ) { return result; }
+        bitmaps[ complete ? 1 : 0 ].forEach( ordinal -> {
+            result.add( names.get( ordinal ) );
+            return result.size() < limit; } );
+        return result;
+    }
+
+    /**
+     * Counts the accounts whose checklist item is in a state without visiting them
+     * @param key String, checklist item
+     * @param complete True to count accounts that completed the item, false for those that have not
+     * @return Integer number of accounts
+     */
+    public synchronized int countWithChecklistItem( String key, boolean complete ) {
+        OrdinalBitmap[] bitmaps = checklistIndex.get( key );
+        return ( bitmaps == null ) ? 0 : bitmaps[ complete ? 1 : 0 ].cardinality();
+    }
+
+    /**
+     * Private helper method which returns the username of an ordinal
+     * @param ordinal Integer ordinal of an indexed account
+     * @return String, upper case username
+     */
+    private synchronized String name( int ordinal ) {
+        return names.get( ordinal );
+    }
+}
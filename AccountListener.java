@@ -0,0 +1,35 @@
+/**
+ * AccountListener interface which is notified of every change made to the accounts stored in a
+ * UserList, so that other systems (i.e. persistence) can follow along without the account
+ * classes knowing about them
+ *
+ * Bugs: None
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public interface AccountListener {
+
+    /**
+     * Called once a new User has been stored in the UserList
+     * @param user User that was created
+     */
+    void userCreated( User user );
+
+    /**
+     * Called once a security question and its answer have been added to an account.  Only the
+     * salted hash of the answer is ever kept
+     * @param user User whose account was changed
+     * @param question String, security question that was added
+     * @param salt Long salt the answer was hashed with
+     * @param hash Long salted hash of the answer
+     */
+    void securityQuestionAdded( User user, String question, long salt, long hash );
+
+    /**
+     * Called once an item in an account's checklist has changed
+     * @param user User whose checklist was changed
+     * @param key String, checklist item that was changed
+     * @param complete True if the item is now complete, false if otherwise
+     */
+    void checklistUpdated( User user, String key, boolean complete );
+}
@@ -0,0 +1,400 @@
+import java.util.List;
+import java.util.Map;
+
+/**
+ * AccountService class which is the programmatic interface to the SystemHandler package.  Every
+ * operation the terminal offers (creating an account, logging in with a password or a security
+ * answer, setting security answers, reading the checklist and the session clock) is available
+ * here as a plain method call that never reads from or prints to a Console, so the system can be
+ * embedded in other services or driven at full speed.  The terminal menus are a thin client that
+ * only collects input for, and prints the results of, these calls.
+ *
+ * Operations on a logged in account take the AccountSession returned by a successful log in, and
+ * fail with an IllegalStateException once that session has expired or been logged out.  A service
+ * over a replica is read-only: it logs in and looks up accounts but refuses to change them
+ *
+ * Bugs: None
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class AccountService {
+
+    /**
+     * Thrown when a log in is attempted too often for its username or from its client, before
+     * the password or security answer is compared
+     */
+    public static class ThrottledException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * No-arg constructor method
+         */
+        public ThrottledException() {
+            super( "Too many log in attempts. Please wait and try again." );
+        }
+    }
+
+    private final UserList userList;
+    private volatile AuditLog auditLog;
+    private volatile boolean readOnly = false;
+
+    /**
+     * AccountService constructor method
+     * @param userList UserList holding the accounts this service operates on
+     */
+    public AccountService( UserList userList ) {
+        this.userList = userList;
+    }
+
+    /**
+     * Getter method which returns the accounts this service operates on
+     * @return UserList of this service
+     */
+    public UserList getUserList() {
+        return this.userList;
+    }
+
+    /**
+     * Setter method which starts recording log ins and security challenge outcomes in an audit log.
+     * Account changes are recorded by registering the audit log as an AccountListener
+     * @param auditLog AuditLog to publish to, or null to stop auditing
+     */
+    public void setAuditLog( AuditLog auditLog ) {
+        this.auditLog = auditLog;
+    }
+
+    /**
+     * Setter method which stops this service from changing accounts, i.e. when its accounts are
+     * replicated from a ReplicationLeader.  Sessions it opens afterwards are read-only too
+     * @param readOnly True to refuse every change, false to allow them
+     */
+    public void setReadOnly( boolean readOnly ) {
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Getter method which returns whether this service refuses to change accounts
+     * @return True if read-only, false if otherwise
+     */
+    public boolean isReadOnly() {
+        return this.readOnly;
+    }
+
+    /**
+     * Private helper method which publishes an event if auditing is on
+     * @param event AuditLog.Event that happened
+     * @param name String, username the event concerns
+     * @param detail String with more about the event, or null
+     */
+    private void audit( AuditLog.Event event, String name, String detail ) {
+        AuditLog audit = this.auditLog;
+        if ( audit != null ) { audit.publish( event, name, detail, 0 ); }
+    }
+
+    /**
+     * Getter method that determines whether an account exists
+     * @param name String, username in any case
+     * @return True if an account exists under that name, false if otherwise
+     */
+    public boolean accountExists( String name ) {
+        return name != null && userList.doesUserExist( name );
+    }
+
+    /**
+     * Creates a new account.  The existence check and the insertion are one atomic step, so two
+     * callers racing on the same username cannot both succeed
+     * @param name String, desired username in any case
+     * @param password String, desired password
+     * @return True if the account was created, false if the name is taken, either value is missing
+     * or the service is read-only
+     */
+    public boolean createAccount( String name, String password ) {
+        return name != null && createAccount( UserKey.of( name ), password );
+    }
+
+    /**
+     * Private helper method which creates a new account under a canonical key
+     * @param key UserKey, desired username
+     * @param password String, desired password
+     * @return True if the account was created, false if the name is taken, the password is missing
+     * or the service is read-only
+     */
+    private boolean createAccount( UserKey key, String password ) {
+        if ( readOnly ) { return false; }
+        long start = Metrics.start();
+        // doesUserExist is only a fast rejection; addUser has the final say if two callers race
+        boolean created = password != null && !userList.doesUserExist( key ) && userList.addUser( newUser( key, password ) );
+        Metrics.increment( created ? Metrics.ACCOUNTS_CREATED : Metrics.ACCOUNTS_REJECTED );
+        Metrics.record( Metrics.ACCOUNT_CREATION, start );
+        return created;
+    }
+
+    /**
+     * Private helper method which builds a new account, created now by the UserList's clock
+     * @param key UserKey, username
+     * @param password String, password
+     * @return User not yet added to the UserList
+     */
+    private User newUser( UserKey key, String password ) {
+        return new User( key, password, userList.getClock() );
+    }
+
+    /**
+     * Creates a new account and logs straight into it
+     * @param name String, desired username in any case
+     * @param password String, desired password
+     * @return AccountSession of the new account, or null if the account could not be created
+     */
+    public AccountSession register( String name, String password ) {
+        if ( name == null ) { return null; }
+        UserKey key = UserKey.of( name );
+        if ( !createAccount( key, password ) ) { return null; }
+        User user = userList.retrieveUser( key );
+        Metrics.increment( Metrics.LOGINS_SUCCEEDED );
+        audit( AuditLog.Event.LOGIN_SUCCEEDED, user.getName(), null );
+        return open( user );
+    }
+
+    /**
+     * Checks a password against an account without logging in
+     * @param name String, username in any case
+     * @param password String, attempted password
+     * @return True if the account exists and the password matches, false if otherwise
+     */
+    public boolean checkPassword( String name, String password ) {
+        return name != null && checkPassword( UserKey.of( name ), password ) != null;
+    }
+
+    /**
+     * Private helper method which checks a password against the account under a canonical key
+     * @param key UserKey, username
+     * @param password String, attempted password
+     * @return User whose password matched, or null if there is no such account or it did not match
+     */
+    private User checkPassword( UserKey key, String password ) {
+        long start = Metrics.start();
+        User user = userList.retrieveUser( key );
+        if ( user != null && !user.getPassword().equals( password ) ) { user = null; }
+        Metrics.record( Metrics.PASSWORD_CHECK, start );
+        return user;
+    }
+
+    /**
+     * Logs in with a password, opening a session for the account if the password matches.
+     * Attempts made too often for the username or by the client are rejected unchecked
+     * @param name String, username in any case
+     * @param password String, attempted password
+     * @param client Object identifying who is attempting the log in, i.e. their Console
+     * @return AccountSession of the new log in, or null if the username or password is wrong
+     * @throws ThrottledException if too many attempts were made recently
+     */
+    public AccountSession authenticate( String name, String password, Object client ) {
+        if ( name == null ) { return null; }
+        UserKey key = UserKey.of( name );
+        throttle( key, client, null );
+        User user = checkPassword( key, password );
+        if ( user == null ) {
+            Metrics.increment( Metrics.LOGINS_FAILED );
+            audit( AuditLog.Event.LOGIN_FAILED, key.value(), null );
+            return null; }
+        Metrics.increment( Metrics.LOGINS_SUCCEEDED );
+        audit( AuditLog.Event.LOGIN_SUCCEEDED, key.value(), null );
+        return open( user );
+    }
+
+    /**
+     * Starts a log in by security answer, which asks the account's security questions in a
+     * random order drawn for this challenge alone
+     * @param name String, username in any case
+     * @return SecurityChallenge whose questions are to be answered, or null if the account does not
+     * exist or has not finished setting up its security questions
+     */
+    public SecurityChallenge securityChallenge( String name ) {
+        User user = ( name == null ) ? null : userList.retrieveUser( name );
+        return ( user == null ) ? null : user.getInformation().newSecurityChallenge();
+    }
+
+    /**
+     * Logs in by answering one of an account's security questions, i.e. after a forgotten password.
+     * Every answer counts as a log in attempt, so answers given too often for the username or by
+     * the client are rejected unchecked.  A correct answer still kept under a legacy hash is rehashed
+     * @param name String, username in any case
+     * @param question String, question asked by a SecurityChallenge of the account
+     * @param answer String, attempted answer in any case
+     * @param client Object identifying who is attempting the log in, i.e. their Console
+     * @return AccountSession of the new log in, or null if the answer is wrong
+     * @throws ThrottledException if too many attempts were made recently
+     */
+    public AccountSession authenticateWithSecurityAnswer( String name, String question, String answer, Object client ) {
+        if ( name == null ) { return null; }
+        UserKey key = UserKey.of( name );
+        throttle( key, client, question );
+        User user = userList.retrieveUser( key );
+        if ( user == null ) { return null; }
+        if ( !user.getInformation().checkSecurityAnswer( question, answer ) ) {
+            audit( AuditLog.Event.CHALLENGE_FAILED, user.getName(), question );
+            return null; }
+        audit( AuditLog.Event.CHALLENGE_PASSED, user.getName(), question );
+        if ( !readOnly ) { user.getInformation().upgradeSecurityAnswer( question, answer ); }
+        return open( user );
+    }
+
+    /**
+     * Private helper method which charges a log in attempt to its username and client, before
+     * any credential is compared
+     * @param key UserKey, username being logged into
+     * @param client Object identifying who is attempting the log in, or null
+     * @param question String, security question being answered, or null for a password
+     * @throws ThrottledException if too many attempts were made recently
+     */
+    private void throttle( UserKey key, Object client, String question ) {
+        if ( userList.getLoginThrottle().tryAcquire( key.value(), client ) ) { return; }
+        Metrics.increment( Metrics.LOGINS_THROTTLED );
+        audit( AuditLog.Event.LOGIN_THROTTLED, key.value(), question );
+        throw new ThrottledException();
+    }
+
+    /**
+     * Private helper method which opens a session for an account that just logged in
+     * @param user User that logged in
+     * @return AccountSession of the log in, read-only if this service is
+     */
+    private AccountSession open( User user ) {
+        AccountSession session = userList.getSessionManager().open( user );
+        session.setReadOnly( readOnly );
+        return session;
+    }
+
+    /**
+     * Returns one page of the usernames that start with a prefix, in sorted order, i.e. for
+     * autocompleting a username or listing every account a page at a time
+     * @param prefix String, prefix in any case, empty for every account
+     * @param after String, last username of the previous page, or null for the first page
+     * @param limit Integer largest number of usernames to return
+     * @return List of upper case usernames
+     */
+    public List< String > findAccounts( String prefix, String after, int limit ) {
+        return userList.findUsers( prefix, after, limit );
+    }
+
+    /**
+     * Counts the accounts whose usernames start with a prefix
+     * @param prefix String, prefix in any case, empty for every account
+     * @return Integer number of matching accounts
+     */
+    public int countAccounts( String prefix ) {
+        return userList.countUsers( prefix );
+    }
+
+    /**
+     * Returns the accounts created in a time range, oldest first, i.e. every account created last week
+     * @param fromMillis Long start of the range in epoch milliseconds, inclusive
+     * @param toMillis Long end of the range in epoch milliseconds, exclusive
+     * @param limit Integer largest number of usernames to return
+     * @return List of upper case usernames
+     */
+    public List< String > findAccountsCreatedBetween( long fromMillis, long toMillis, int limit ) {
+        return userList.findUsersCreatedBetween( fromMillis, toMillis, limit );
+    }
+
+    /**
+     * Returns the accounts whose checklist item is complete or incomplete, i.e. every account
+     * that still has to add its security questions
+     * @param item String, checklist item
+     * @param complete True for accounts that completed the item, false for those that have not
+     * @param limit Integer largest number of usernames to return
+     * @return List of upper case usernames
+     */
+    public List< String > findAccountsWithChecklistItem( String item, boolean complete, int limit ) {
+        return userList.findUsersWithChecklistItem( item, complete, limit );
+    }
+
+    /**
+     * Counts the accounts whose checklist item is complete or incomplete
+     * @param item String, checklist item
+     * @param complete True to count accounts that completed the item, false for those that have not
+     * @return Integer number of accounts
+     */
+    public int countAccountsWithChecklistItem( String item, boolean complete ) {
+        return userList.countUsersWithChecklistItem( item, complete );
+    }
+
+    /**
+     * Getter method which returns the questions an account can choose answers for
+     * @return Read-only list of security questions
+     */
+    public List< String > getSecurityQuestionChoices() {
+        return InformationHandler.getSecurityQuestionChoices();
+    }
+
+    /**
+     * Stores the logged in account's answer to one security question.  Once enough questions are
+     * answered, the account's security question checklist item is complete
+     * @param session AccountSession of the logged in account
+     * @param question String, one of getSecurityQuestionChoices
+     * @param answer String, answer in any case
+     * @return True if the answer was stored, false if the question is unknown, already answered,
+     * the account already answered every question it needs or the session is read-only
+     */
+    public boolean setSecurityAnswer( AccountSession session, String question, String answer ) {
+        User user = requireActive( session );
+        return !session.isReadOnly() && user.getInformation().addSecurityAnswer( question, answer );
+    }
+
+    /**
+     * Getter method which returns the logged in account's checklist
+     * @param session AccountSession of the logged in account
+     * @return Read-only map of checklist items to whether they are complete
+     */
+    public Map< String, Boolean > getChecklist( AccountSession session ) {
+        return requireActive( session ).getInformation().getChecklist();
+    }
+
+    /**
+     * Getter method which returns how many checklist items of the logged in account need action
+     * @param session AccountSession of the logged in account
+     * @return Integer number of incomplete items
+     */
+    public int getIncompleteItems( AccountSession session ) {
+        return requireActive( session ).getInformation().getNumOfIncompleteItems();
+    }
+
+    /**
+     * Getter method which returns how long ago the session's clock was started, i.e. at log in
+     * @param session AccountSession of the logged in account
+     * @return Long number of whole seconds
+     */
+    public long getSecondsLoggedIn( AccountSession session ) {
+        requireActive( session );
+        return ( session.getClock().monotonicMillis() - session.getLoginTime() ) / 1000;
+    }
+
+    /**
+     * Restarts the session's clock
+     * @param session AccountSession of the logged in account
+     */
+    public void resetLoginTime( AccountSession session ) {
+        requireActive( session );
+        session.setLoginTime( session.getClock().monotonicMillis() );
+    }
+
+    /**
+     * Ends a session
+     * @param session AccountSession to be logged out
+     */
+    public void logOut( AccountSession session ) {
+        userList.getSessionManager().close( session );
+    }
+
+    /**
+     * Private helper method which records activity on a session that is about to be used
+     * @param session AccountSession passed in by the caller
+     * @return User of the session
+     * @throws IllegalStateException if the session expired or was logged out
+     */
+    private User requireActive( AccountSession session ) {
+        if ( !userList.getSessionManager().touch( session ) ) { throw new IllegalStateException( "Session expired." ); }
+        return session.getUser();
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * AccountSession class which represents one successful log in.  Identified by an opaque token,
+ * it records when the log in happened and when the session was last used, and is ended either
+ * by logging out or by the SessionManager once it has been idle for too long.  Both times are
+ * monotonic milliseconds from the clock the session was opened with, so they only mean something
+ * relative to each other and to that clock
+ *
+ * Bugs: None
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class AccountSession {
+
+    private static final ThreadLocal< AccountSession > CURRENT = new ThreadLocal<>();
+
+    private final String token;
+    private final User user;
+    private final SystemTime clock;
+    private volatile long loginTime;
+    private volatile long lastActivity;
+    private volatile boolean active = true;
+
+    // Set on replicas, whose accounts only change through replication
+    private volatile boolean readOnly = false;
+
+    // Idle check currently scheduled for this session
+    volatile TimerWheel.Timeout idleCheck;
+
+    /**
+     * AccountSession constructor method, the user logged in now
+     * @param token String, opaque identifier of the session
+     * @param user User that logged in
+     * @param clock SystemTime that the session is timed by
+     */
+    public AccountSession( String token, User user, SystemTime clock ) {
+        long now = clock.monotonicMillis();
+        this.token = token;
+        this.user = user;
+        this.clock = clock;
+        this.loginTime = now;
+        this.lastActivity = now;
+    }
+
+    /**
+     * Getter method which returns the session bound to the calling thread
+     * @return AccountSession of the logged in user, or null if nobody is logged in on this thread
+     */
+    public static AccountSession current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Binds a session to the calling thread for as long as its user is logged in
+     * @param session AccountSession of the user that logged in
+     */
+    public static void bind( AccountSession session ) {
+        CURRENT.set( session );
+    }
+
+    /**
+     * Removes the session bound to the calling thread once its user logged out
+     */
+    public static void unbind() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Getter method which returns the session's token
+     * @return String, opaque session identifier
+     */
+    public String getToken() {
+        return this.token;
+    }
+
+    /**
+     * Getter method which returns the logged in user
+     * @return User of this session
+     */
+    public User getUser() {
+        return this.user;
+    }
+
+    /**
+     * Getter method which returns the clock the session is timed by
+     * @return SystemTime of the SessionManager that opened the session
+     */
+    public SystemTime getClock() {
+        return this.clock;
+    }
+
+    /**
+     * Getter method which returns when the user logged in
+     * @return Long monotonic time in milliseconds
+     */
+    public long getLoginTime() {
+        return this.loginTime;
+    }
+
+    /**
+     * Setter method which restarts the session's login clock
+     * @param now Long current monotonic time in milliseconds
+     */
+    public void setLoginTime( long now ) {
+        this.loginTime = now;
+    }
+
+    /**
+     * Getter method which returns when the session was last used
+     * @return Long monotonic time in milliseconds
+     */
+    public long getLastActivity() {
+        return this.lastActivity;
+    }
+
+    /**
+     * Records that the session was just used
+     * @param now Long current monotonic time in milliseconds
+     */
+    public void touch( long now ) {
+        this.lastActivity = now;
+    }
+
+    /**
+     * Getter method which returns whether the session can still be used
+     * @return True if the session has neither been closed nor expired, false if otherwise
+     */
+    public boolean isActive() {
+        return this.active;
+    }
+
+    /**
+     * Getter method which returns whether the account may be changed through this session
+     * @return True if the account can only be read, false if otherwise
+     */
+    public boolean isReadOnly() {
+        return this.readOnly;
+    }
+
+    /**
+     * Setter method which makes the account read-only for this session, i.e. on a replica
+     * @param readOnly True if the account can only be read, false if otherwise
+     */
+    public void setReadOnly( boolean readOnly ) {
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Ends the session
+     */
+    void end() {
+        this.active = false;
+    }
+}
@@ -0,0 +1,157 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * AsyncAccountService class which runs the credential checking operations of an AccountService
+ * on a bounded pool of worker threads and hands back CompletableFutures.  The pool never grows
+ * past its fixed number of threads and only a fixed number of operations may wait for one, so a
+ * burst of log ins queues up to that bound and everything beyond it is turned away at once with
+ * a future that has already failed.  Callers treat such a failure as a signal to back off,
+ * rather than having threads or memory pile up behind the burst
+ *
+ * Bugs: None
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class AsyncAccountService implements AutoCloseable {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private final AccountService service;
+    private final ThreadPoolExecutor workers;
+
+    /**
+     * AsyncAccountService constructor method with one worker per available processor and the
+     * default queue capacity
+     * @param service AccountService whose operations are run asynchronously
+     */
+    public AsyncAccountService( AccountService service ) {
+        this( service, Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY );
+    }
+
+    /**
+     * AsyncAccountService constructor method
+     * @param service AccountService whose operations are run asynchronously
+     * @param threads Integer number of worker threads, credential checks are CPU bound so
+     * more than one per processor gains nothing
+     * @param queueCapacity Integer number of operations that may wait for a worker before
+     * further operations are rejected
+     */
+    public AsyncAccountService( AccountService service, int threads, int queueCapacity ) {
+        this.service = service;
+        AtomicInteger count = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor( threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>( queueCapacity ), runnable -> {
+                Thread thread = new Thread( runnable, "account-worker-" + count.incrementAndGet() );
+                thread.setDaemon( true );
+                return thread; },
+            new ThreadPoolExecutor.AbortPolicy() );
+    }
+
+    /**
+     * Getter method which returns the synchronous service behind this one
+     * @return AccountService that runs the operations
+     */
+    public AccountService getService() {
+        return this.service;
+    }
+
+    /**
+     * Getter method which returns how many operations are waiting for a worker
+     * @return Integer number of queued operations
+     */
+    public int getQueuedOperations() {
+        return workers.getQueue().size();
+    }
+
+    /**
+     * Getter method which returns how many more operations can be queued before new ones are rejected
+     * @return Integer remaining queue capacity
+     */
+    public int getRemainingCapacity() {
+        return workers.getQueue().remainingCapacity();
+    }
+
+    /**
+     * Private helper method which runs an operation on the worker pool, or fails it straight
+     * away if the pool's queue is full
+     * @param operation Supplier running the synchronous operation
+     * @return CompletableFuture completed with the operation's result, or failed with a
+     * RejectedExecutionException if the service is overloaded
+     */
+    private < T > CompletableFuture< T > submit( Supplier< T > operation ) {
+        try {
+            return CompletableFuture.supplyAsync( operation, workers );
+        } catch ( RejectedExecutionException e ) {
+            Metrics.increment( Metrics.OPERATIONS_REJECTED );
+            return CompletableFuture.failedFuture( new RejectedExecutionException( "Account service overloaded, try again later.", e ) );
+        }
+    }
+
+    /**
+     * Creates a new account asynchronously
+     * @param name String, desired username in any case
+     * @param password String, desired password
+     * @return CompletableFuture of AccountService.createAccount's result
+     */
+    public CompletableFuture< Boolean > createAccount( String name, String password ) {
+        return submit( () -> service.createAccount( name, password ) );
+    }
+
+    /**
+     * Creates a new account and logs into it asynchronously
+     * @param name String, desired username in any case
+     * @param password String, desired password
+     * @return CompletableFuture of AccountService.register's result
+     */
+    public CompletableFuture< AccountSession > register( String name, String password ) {
+        return submit( () -> service.register( name, password ) );
+    }
+
+    /**
+     * Checks a password asynchronously without logging in
+     * @param name String, username in any case
+     * @param password String, attempted password
+     * @return CompletableFuture of AccountService.checkPassword's result
+     */
+    public CompletableFuture< Boolean > checkPassword( String name, String password ) {
+        return submit( () -> service.checkPassword( name, password ) );
+    }
+
+    /**
+     * Logs in with a password asynchronously
+     * @param name String, username in any case
+     * @param password String, attempted password
+     * @param client Object identifying who is attempting the log in, or null
+     * @return CompletableFuture of AccountService.authenticate's result, failed with an
+     * AccountService.ThrottledException if too many attempts were made recently
+     */
+    public CompletableFuture< AccountSession > authenticate( String name, String password, Object client ) {
+        return submit( () -> service.authenticate( name, password, client ) );
+    }
+
+    /**
+     * Logs in by answering a security question asynchronously
+     * @param name String, username in any case
+     * @param question String, question asked by a SecurityChallenge of the account
+     * @param answer String, attempted answer in any case
+     * @param client Object identifying who is attempting the log in, or null
+     * @return CompletableFuture of AccountService.authenticateWithSecurityAnswer's result, failed
+     * with an AccountService.ThrottledException if too many attempts were made recently
+     */
+    public CompletableFuture< AccountSession > authenticateWithSecurityAnswer( String name, String question, String answer, Object client ) {
+        return submit( () -> service.authenticateWithSecurityAnswer( name, question, answer, client ) );
+    }
+
+    /**
+     * Stops accepting operations and lets the queued ones finish
+     */
+    public void close() {
+        workers.shutdown();
+    }
+}
@@ -0,0 +1,261 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AuditLog class which keeps a structured trail of account creations, log ins, security challenge
+ * outcomes and account changes, written as JSON Lines to size-rotated files in a directory.
+ *
+ * Events go through a preallocated ring buffer in the style of a Disruptor.  A publisher claims
+ * the next sequence number with one compare-and-set, writes the event into the slot's primitive
+ * and reference arrays, and marks the slot as published; nothing is allocated and no lock is
+ * taken.  A single background thread drains published slots in order and writes them out in
+ * batches.  When the drain falls so far behind that the ring is full, new events are dropped and
+ * counted rather than making a log in wait
+ *
+ * Bugs: Events still in the ring when the process is killed are lost
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class AuditLog implements AccountListener {
+
+    /**
+     * Event enum which lists every kind of audited event
+     */
+    public enum Event {
+        ACCOUNT_CREATED, LOGIN_SUCCEEDED, LOGIN_FAILED, LOGIN_THROTTLED,
+        CHALLENGE_PASSED, CHALLENGE_FAILED, SECURITY_QUESTION_ADDED, CHECKLIST_UPDATED;
+
+        // Written into every line, built once so that draining does not format enum names
+        private final String label = name().toLowerCase();
+    }
+
+    private static final int RING_SIZE = 1 << 16;
+    private static final int MASK = RING_SIZE - 1;
+    private static final long MAX_FILE_BYTES = 16L << 20;
+    private static final int MAX_FILES = 8;
+    private static final long IDLE_PARK_NANOS = 5_000_000;
+    private static final String FILE_PREFIX = "audit-";
+    private static final String FILE_SUFFIX = ".jsonl";
+
+    // One slot per index, written by the publisher that claimed it and read by the drain thread
+    private final long[] times = new long[ RING_SIZE ];
+    private final Event[] events = new Event[ RING_SIZE ];
+    private final String[] users = new String[ RING_SIZE ];
+    private final String[] details = new String[ RING_SIZE ];
+    private final long[] values = new long[ RING_SIZE ];
+
+    // Sequence last published into each slot, so the drain thread can tell a finished slot apart
+    private final AtomicLongArray published = new AtomicLongArray( RING_SIZE );
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long drained;
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final File directory;
+    private final Thread drainer;
+    private final StringBuilder line = new StringBuilder( 256 );
+    private volatile boolean running = true;
+    private Writer writer;
+    private long fileNumber;
+    private long fileBytes;
+
+    /**
+     * Private constructor method, audit logs are started through open()
+     * @param directory Directory the rotated files are written to
+     */
+    private AuditLog( File directory ) {
+        this.directory = directory;
+        for ( int i = 0; i < RING_SIZE; i++ ) published.set( i, -1 );
+        this.drainer = new Thread( this::drainLoop, "audit-drain" );
+        this.drainer.setDaemon( true );
+    }
+
+    /**
+     * Starts an audit log that appends to a new file after the newest one already in a directory
+     * @param directory Directory holding the audit files, created if missing
+     * @return AuditLog that is accepting events
+     * @throws IOException if the directory or the first file cannot be created
+     */
+    public static AuditLog open( File directory ) throws IOException {
+        if ( !directory.isDirectory() && !directory.mkdirs() ) { throw new IOException( "Cannot create " + directory ); }
+        AuditLog audit = new AuditLog( directory );
+        long[] existing = audit.listFiles();
+        audit.openFile( ( existing.length == 0 ) ? 0 : existing[ existing.length - 1 ] + 1 );
+        audit.drainer.start();
+        return audit;
+    }
+
+    /**
+     * Records one event without blocking or allocating
+     * @param event Event that happened
+     * @param user String, upper case username the event concerns, or null
+     * @param detail String with more about the event (i.e. the checklist item), or null
+     * @param value Long value of the event (i.e. 1 if a checklist item was completed), or 0
+     * @return True if the event was recorded, false if the ring was full and it was dropped
+     */
+    public boolean publish( Event event, String user, String detail, long value ) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if ( sequence - drained >= RING_SIZE ) {
+                dropped.incrementAndGet();
+                Metrics.increment( Metrics.AUDIT_EVENTS_DROPPED );
+                return false; }
+        } while ( !claimed.compareAndSet( sequence, sequence + 1 ) );
+        int slot = (int)( sequence & MASK );
+        times[ slot ] = SystemTime.get().currentTimeMillis();
+        events[ slot ] = event;
+        users[ slot ] = user;
+        details[ slot ] = detail;
+        values[ slot ] = value;
+        // Ordered after the writes above, the drain thread never sees a half-written slot
+        published.lazySet( slot, sequence );
+        return true;
+    }
+
+    /**
+     * Getter method which returns how many events were dropped because the ring was full
+     * @return Long number of dropped events
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public void userCreated( User user ) {
+        publish( Event.ACCOUNT_CREATED, user.getName(), null, 0 );
+    }
+
+    public void securityQuestionAdded( User user, String question, long salt, long hash ) {
+        // Answers are credentials, so only the question is audited
+        publish( Event.SECURITY_QUESTION_ADDED, user.getName(), question, 0 );
+    }
+
+    public void checklistUpdated( User user, String key, boolean complete ) {
+        publish( Event.CHECKLIST_UPDATED, user.getName(), key, complete ? 1 : 0 );
+    }
+
+    /**
+     * Private helper method run by the drain thread, writing batches of published events until
+     * the log is closed and the ring is empty
+     */
+    private void drainLoop() {
+        try {
+            while ( true ) {
+                boolean stopping = !running;
+                if ( drainBatch() == 0 ) {
+                    writer.flush();
+                    if ( stopping ) { break; }
+                    LockSupport.parkNanos( IDLE_PARK_NANOS );
+                }
+            }
+            writer.close();
+        } catch ( IOException e ) {
+            System.err.println( new FormatHelper().basicMessage( "AUDIT ERROR", "Audit log stopped: " + e.getMessage() ) );
+            running = false;
+        }
+    }
+
+    /**
+     * Private helper method which writes every event published in order since the last batch
+     * @return Integer number of events written
+     * @throws IOException if the file cannot be written or rotated
+     */
+    private int drainBatch() throws IOException {
+        long sequence = drained;
+        int count = 0;
+        while ( count < RING_SIZE ) {
+            int slot = (int)( sequence & MASK );
+            if ( published.get( slot ) != sequence ) { break; }
+            writeEvent( slot );
+            users[ slot ] = null;
+            details[ slot ] = null;
+            sequence++;
+            count++;
+        }
+        // Frees the slots for publishers only once they have been read
+        drained = sequence;
+        return count;
+    }
+
+    /**
+     * Private helper method which writes the event in one slot as a JSON line, rotating to a
+     * new file once the current one is full
+     * @param slot Integer ring index of the event
+     * @throws IOException if the file cannot be written or rotated
+     */
+    private void writeEvent( int slot ) throws IOException {
+        line.setLength( 0 );
+        line.append( "{\"time\":" ).append( times[ slot ] ).append( ",\"event\":\"" ).append( events[ slot ].label ).append( '"' );
+        if ( users[ slot ] != null ) { appendString( line.append( ",\"user\":" ), users[ slot ] ); }
+        if ( details[ slot ] != null ) { appendString( line.append( ",\"detail\":" ), details[ slot ] ); }
+        if ( values[ slot ] != 0 ) { line.append( ",\"value\":" ).append( values[ slot ] ); }
+        line.append( "}\n" );
+        writer.append( line );
+        fileBytes += line.length();
+        if ( fileBytes >= MAX_FILE_BYTES ) { writer.close(); openFile( fileNumber + 1 ); }
+    }
+
+    /**
+     * Private helper method which appends a JSON string literal
+     * @param out StringBuilder being written to
+     * @param value String to be quoted and escaped
+     */
+    private static void appendString( StringBuilder out, String value ) {
+        out.append( '"' );
+        for ( int i = 0; i < value.length(); i++ ) {
+            char c = value.charAt( i );
+            if ( c == '"' || c == '\\' ) { out.append( '\\' ).append( c ); }
+            else if ( c < 0x20 ) { out.append( String.format( "\\u%04x", (int)c ) ); }
+            else { out.append( c ); }
+        }
+        out.append( '"' );
+    }
+
+    /**
+     * Private helper method which returns the numbers of the audit files in the directory
+     * @return Long array of file numbers in ascending order
+     */
+    private long[] listFiles() {
+        String[] names = directory.list( ( dir, name ) -> name.startsWith( FILE_PREFIX ) && name.endsWith( FILE_SUFFIX ) );
+        if ( names == null ) { return new long[ 0 ]; }
+        long[] numbers = new long[ names.length ];
+        int count = 0;
+        for ( String name : names ) {
+            try { numbers[ count++ ] = Long.parseLong( name.substring( FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length() ) ); }
+            catch ( NumberFormatException e ) { count--; }
+        }
+        numbers = Arrays.copyOf( numbers, count );
+        Arrays.sort( numbers );
+        return numbers;
+    }
+
+    /**
+     * Private helper method which starts writing to a new file and removes the oldest files
+     * beyond the number kept
+     * @param number Long number of the new file
+     * @throws IOException if the file cannot be created
+     */
+    private void openFile( long number ) throws IOException {
+        File file = new File( directory, String.format( "%s%06d%s", FILE_PREFIX, number, FILE_SUFFIX ) );
+        writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file, true ), StandardCharsets.UTF_8 ), 1 << 16 );
+        fileNumber = number;
+        fileBytes = file.length();
+        long[] existing = listFiles();
+        for ( int i = 0; i < existing.length - MAX_FILES; i++ ) {
+            new File( directory, String.format( "%s%06d%s", FILE_PREFIX, existing[i], FILE_SUFFIX ) ).delete();
+        }
+    }
+
+    /**
+     * Stops the drain thread once every published event has been written
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark( drainer );
+        try { drainer.join(); }
+        catch ( InterruptedException e ) { Thread.currentThread().interrupt(); }
+    }
+}
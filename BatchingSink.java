@@ -0,0 +1,176 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BatchingSink class which buffers the output of one session in memory and writes it to the
+ * session's stream from a background thread.  Lines accumulate until the session asks for a
+ * flush (i.e. right before it waits for input) or the buffer grows past a batch, and are then
+ * written and flushed to the stream as one batch, so a whole menu costs a single write.
+ *
+ * A session thread only appends to its buffer and never waits on its terminal or socket, unless
+ * the other end has stopped reading and a full megabyte of output is already waiting for it.
+ * Drains run on virtual threads where the JVM has them, and otherwise on a bounded pool; once
+ * every pooled thread is busy, a session drains its own batch, which slows only that session.
+ * Closing waits a few seconds at most for the last output to be written; a client that stopped
+ * reading has its stream closed after that, which fails the write it is blocking
+ *
+ * Bugs: None
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class BatchingSink implements OutputSink {
+
+    private static final int BATCH_CHARS = 8192;
+    private static final int MAX_PENDING_CHARS = 1 << 20;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    // Platform threads kept for drains at most, when virtual threads are unavailable
+    private static final int MAX_DRAINERS = 64;
+    private static final long DRAINER_IDLE_SECONDS = 60;
+
+    // Each drain may block on a slow client, so drains run apart from the sessions
+    private static final ExecutorService DRAINERS = newDrainExecutor();
+
+    // Longest close() waits for output to be written before giving up on the client
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+    // Closes the streams of clients that did not take their last output in time
+    private static final TimerWheel CLOSE_TIMEOUTS = new TimerWheel( "output-close-timeout", 100, 64 );
+
+    private final OutputStream out;
+    private final Writer writer;
+    private final StringBuilder pending = new StringBuilder();
+    private boolean draining;
+    private boolean closed;
+
+    /**
+     * Private helper method which creates the executor that runs drains: one virtual thread per
+     * drain on JVMs that have them, otherwise a pool of at most MAX_DRAINERS daemon threads that
+     * runs a drain on the submitting thread once all of them are busy
+     * @return ExecutorService for drains
+     */
+    private static ExecutorService newDrainExecutor() {
+        try {
+            return (ExecutorService)Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+        } catch ( ReflectiveOperationException e ) {
+            return new ThreadPoolExecutor( 0, MAX_DRAINERS, DRAINER_IDLE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread( runnable, "output-drain" );
+                    thread.setDaemon( true );
+                    return thread; },
+                new ThreadPoolExecutor.CallerRunsPolicy() );
+        }
+    }
+
+    /**
+     * BatchingSink constructor method
+     * @param out OutputStream that batches are written to
+     */
+    public BatchingSink( OutputStream out ) {
+        this.out = out;
+        this.writer = new OutputStreamWriter( out, StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * Appends one line to the buffer, starting a drain once a full batch is waiting
+     * @param line String to be printed, without its line terminator
+     */
+    public synchronized void writeLine( String line ) {
+        if ( closed ) { return; }
+        pending.append( line ).append( LINE_SEPARATOR );
+        if ( pending.length() >= BATCH_CHARS ) { startDrain(); }
+        // Back pressure only once a client has stopped reading altogether
+        while ( pending.length() > MAX_PENDING_CHARS && !closed ) {
+            try { wait(); }
+            catch ( InterruptedException e ) { Thread.currentThread().interrupt(); return; }
+        }
+    }
+
+    /**
+     * Starts a drain of everything buffered so far and returns without waiting for it
+     */
+    public synchronized void flush() {
+        if ( pending.length() > 0 ) { startDrain(); }
+    }
+
+    /**
+     * Waits for a running drain to finish, then writes whatever is still buffered on the calling
+     * thread.  If that takes longer than CLOSE_TIMEOUT_MILLIS the stream is closed, which ends
+     * both writes.  Lines handed over afterwards are discarded
+     */
+    public void close() {
+        TimerWheel.Timeout timeout = CLOSE_TIMEOUTS.schedule( this::abandon, CLOSE_TIMEOUT_MILLIS );
+        try {
+            String batch;
+            synchronized ( this ) {
+                while ( draining ) {
+                    try { wait(); }
+                    catch ( InterruptedException e ) { Thread.currentThread().interrupt(); break; }
+                }
+                if ( closed ) { return; }
+                closed = true;
+                batch = pending.toString();
+                pending.setLength( 0 );
+                notifyAll();
+            }
+            writer.write( batch );
+            writer.flush();
+        } catch ( IOException e ) {
+            // The other end is gone, so there is nobody left to deliver the output to
+        } finally {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * Private helper method run once close() has waited too long for a client that stopped
+     * reading.  Closing the stream fails the write that is blocked on it, which ends the drain
+     */
+    private void abandon() {
+        try { out.close(); }
+        catch ( IOException e ) { /* already closed */ }
+    }
+
+    /**
+     * Private helper method which schedules a drain unless one is already running, which keeps
+     * batches in order.  Must be called while holding the sink's lock, which also makes a drain
+     * run by the calling thread safe
+     */
+    private void startDrain() {
+        if ( draining || closed ) { return; }
+        draining = true;
+        DRAINERS.execute( this::drain );
+    }
+
+    /**
+     * Private helper method which writes batches to the stream until the buffer is empty
+     */
+    private void drain() {
+        while ( true ) {
+            String batch;
+            synchronized ( this ) {
+                if ( pending.length() == 0 || closed ) { draining = false; notifyAll(); return; }
+                batch = pending.toString();
+                pending.setLength( 0 );
+                notifyAll();
+            }
+            try {
+                writer.write( batch );
+                writer.flush();
+            } catch ( IOException e ) {
+                synchronized ( this ) {
+                    closed = true;
+                    pending.setLength( 0 );
+                    draining = false;
+                    notifyAll();
+                }
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,365 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmark class which measures SystemHandler package hot paths from the command line and
+ * writes one JSON object per result, so that runs can be compared to catch regressions.
+ *
+ *   java Benchmark suite [--users 1000,100000] [--threads 1,4] [--out results.jsonl]
+ *       times account creation, log in, password checks, mixed-case lookups, command dispatch,
+ *       checklist counting and message formatting for every user-base size and thread count
+ *   java Benchmark contention [--users 1000,100000] [--threads 1,2,4,8]
+ *       times concurrent lookups, account creations and a mix of both as the thread count grows,
+ *       by default in powers of two up to twice the number of cores, reporting each throughput and
+ *       its speedup over the first thread count; then races every thread to create the same
+ *       names and reports how many duplicate accounts got through, which must be 0
+ *   java Benchmark startup [users]
+ *       compares mapped snapshot startup against decoding every account up front
+ *   java Benchmark footprint [users]
+ *       measures the heap retained per idle account
+ *
+ * Each suite benchmark runs for a warmup period, then counts completed operations across all
+ * threads for a fixed measurement period.  Terminal output of the measured code is discarded
+ *
+ * Bugs: None
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class Benchmark {
+
+    private static final long WARMUP_MILLIS = 1000;
+    private static final long MEASURE_MILLIS = 2000;
+
+    /**
+     * Operation interface which is one invocation of the code being measured
+     */
+    private interface Operation {
+
+        /**
+         * Runs the measured code once
+         * @param thread Integer index of the calling benchmark thread
+         * @param iteration Long number of operations this thread completed so far
+         * @return Object result, consumed so the JIT cannot discard the work
+         */
+        Object invoke( int thread, long iteration );
+    }
+
+    private static final FormatHelper formatHelper = new FormatHelper();
+
+    // Results are folded into this field so that measured work always has an observable effect
+    private static volatile int blackhole;
+
+    private static PrintStream results = System.out;
+
+    /**
+     * Main method which runs the benchmark named by the first argument
+     * @param args Benchmark name followed by its parameters
+     * @throws IOException if a benchmark cannot write its temporary files or results
+     */
+    public static void main( String[] args ) throws IOException {
+        String name = ( args.length > 0 ) ? args[0] : "suite";
+        int[] users = { 1_000, 100_000 }, threads = null;
+        for ( int i = 1; i < args.length - 1; i++ ) {
+            if ( args[i].equals( "--users" ) ) { users = parseList( args[++i] ); }
+            else if ( args[i].equals( "--threads" ) ) { threads = parseList( args[++i] ); }
+            else if ( args[i].equals( "--out" ) ) {
+                results = new PrintStream( new FileOutputStream( args[++i], true ), true, StandardCharsets.UTF_8 ); }
+        }
+        int size = ( args.length > 1 && args[1].matches( "\\d+" ) ) ? Integer.parseInt( args[1] ) : 1_000_000;
+
+        // Measured code prints to its session console, which is discarded here
+        Console.bind( new Console( InputStream.nullInputStream(), OutputSink.NULL ) );
+        if ( name.equals( "suite" ) ) { suite( users, ( threads != null ) ? threads : new int[] { 1, 4 } ); }
+        else if ( name.equals( "contention" ) ) { contention( users, ( threads != null ) ? threads : coreCounts() ); }
+        else if ( name.equals( "startup" ) ) { startup( size ); }
+        else if ( name.equals( "footprint" ) ) { footprint( size ); }
+        else { System.err.println( formatHelper.basicMessage( "ERROR", "Unknown benchmark " + name + "." ) ); }
+        results.flush();
+    }
+
+    /**
+     * Private helper method which parses a comma separated list of integers
+     * @param list String such as "1,4,16"
+     * @return Integer array of the values
+     */
+    private static int[] parseList( String list ) {
+        String[] parts = list.split( "," );
+        int[] values = new int[ parts.length ];
+        for ( int i = 0; i < parts.length; i++ ) values[i] = Integer.parseInt( parts[i].trim() );
+        return values;
+    }
+
+    /**
+     * Private helper method which lists thread counts in powers of two, from one thread up to
+     * twice the number of cores, so that the last runs show what happens past saturation
+     * @return Integer array such as 1, 2, 4, 8, 16 on an 8 core machine
+     */
+    private static int[] coreCounts() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int steps = 32 - Integer.numberOfLeadingZeros( cores * 2 );
+        int[] counts = new int[ steps ];
+        for ( int i = 0; i < steps; i++ ) counts[i] = 1 << i;
+        return counts;
+    }
+
+    /**
+     * Private helper method which writes one result as a JSON object on its own line
+     * @param benchmark String, name of the measurement
+     * @param users Integer size of the user base
+     * @param threads Integer number of threads, 0 for single-shot measurements
+     * @param metric String, unit of value
+     * @param value Double measured value
+     */
+    private static void report( String benchmark, int users, int threads, String metric, double value ) {
+        results.println( String.format( Locale.ROOT,
+            "{\"benchmark\":\"%s\",\"users\":%d,\"threads\":%d,\"metric\":\"%s\",\"value\":%.3f,\"timestamp\":%d}",
+            benchmark, users, threads, metric, value, System.currentTimeMillis() ) );
+    }
+
+    /**
+     * Private helper method which builds a UserList of generated accounts
+     * @param users Integer number of accounts
+     * @return UserList holding USER0 through USER(users - 1), with passwords password0 onwards
+     */
+    private static UserList populate( int users ) {
+        UserList userList = new UserList();
+        for ( int i = 0; i < users; i++ ) userList.addUser( new User( "user" + i, "password" + i ) );
+        return userList;
+    }
+
+    /**
+     * Runs every hot-path benchmark for each user-base size and thread count
+     * @param sizes Integer array of user-base sizes
+     * @param threadCounts Integer array of thread counts
+     */
+    private static void suite( int[] sizes, int[] threadCounts ) {
+        for ( int users : sizes ) {
+            UserList userList = populate( users );
+            AccountService service = new AccountService( userList );
+            // Measures the log in path itself rather than how quickly attempts are turned away
+            userList.getLoginThrottle().setEnabled( false );
+            String[] mixedCase = new String[ users ], passwords = new String[ users ];
+            for ( int i = 0; i < users; i++ ) {
+                mixedCase[i] = ( i % 2 == 0 ) ? "User" + i : "uSeR" + i;
+                passwords[i] = "password" + i;
+            }
+            User user = userList.retrieveUser( "user0" );
+            for ( int threads : threadCounts ) {
+                run( "AccountService.createAccount", users, threads, ( t, i ) ->
+                    service.createAccount( "new" + users + "-" + threads + "-" + t + "-" + i, "password" ) );
+                run( "AccountService.authenticate", users, threads, ( t, i ) -> {
+                    int n = (int)( ( i * 31 + t ) % users );
+                    AccountSession session = service.authenticate( mixedCase[n], passwords[n], null );
+                    service.logOut( session );
+                    return session; } );
+                run( "AccountService.checkPassword", users, threads, ( t, i ) -> {
+                    int n = (int)( ( i * 31 + t ) % users );
+                    return service.checkPassword( mixedCase[n], passwords[n] ); } );
+                run( "UserList.retrieveUser", users, threads, ( t, i ) ->
+                    userList.retrieveUser( mixedCase[ (int)( ( i * 31 + t ) % users ) ] ) );
+                run( "User.processUserInput", users, threads, ( t, i ) -> {
+                    user.processUserInput( "SET BEGINNING TIME" );
+                    return user; } );
+                run( "InformationHandler.getNumOfIncompleteItems", users, threads, ( t, i ) ->
+                    user.getInformation().getNumOfIncompleteItems() );
+                run( "FormatHelper.basicMessage", users, threads, ( t, i ) ->
+                    formatHelper.basicMessage( "SYSTEM", "Log in successful." ) );
+            }
+            userList.close();
+        }
+    }
+
+    /**
+     * Runs lookups, account creations and a mix of nine lookups to every creation on more and
+     * more threads sharing one UserList, and reports how throughput scales with the thread count.
+     * Then checks that creating an account stays atomic under the same contention
+     * @param sizes Integer array of user-base sizes
+     * @param threadCounts Integer array of thread counts, the first being the baseline for speedups
+     */
+    private static void contention( int[] sizes, int[] threadCounts ) {
+        for ( int users : sizes ) {
+            UserList userList = populate( users );
+            AccountService service = new AccountService( userList );
+            String[] mixedCase = new String[ users ];
+            for ( int i = 0; i < users; i++ ) mixedCase[i] = ( i % 2 == 0 ) ? "User" + i : "uSeR" + i;
+            String[] benchmarks = { "contention.retrieveUser", "contention.createAccount", "contention.mixed" };
+            double[] baseline = new double[ benchmarks.length ];
+            for ( int threads : threadCounts ) {
+                Operation[] operations = {
+                    ( t, i ) -> userList.retrieveUser( mixedCase[ (int)( ( i * 31 + t ) % users ) ] ),
+                    ( t, i ) -> service.createAccount( "new" + users + "-" + threads + "-" + t + "-" + i, "password" ),
+                    ( t, i ) -> ( i % 10 == 0 )
+                        ? service.createAccount( "mix" + users + "-" + threads + "-" + t + "-" + i, "password" )
+                        : userList.retrieveUser( mixedCase[ (int)( ( i * 31 + t ) % users ) ] ) };
+                for ( int b = 0; b < benchmarks.length; b++ ) {
+                    double throughput = run( benchmarks[b], users, threads, operations[b] );
+                    if ( threads == threadCounts[0] ) { baseline[b] = throughput; }
+                    report( benchmarks[b] + ".speedup", users, threads, "times_baseline", throughput / baseline[b] );
+                }
+                race( service, users, threads );
+            }
+            userList.close();
+        }
+    }
+
+    /**
+     * Private helper method which has every thread try to create the same accounts at the same
+     * time, and reports how many more were created than there were names
+     * @param service AccountService whose UserList is raced on
+     * @param users Integer size of the user base
+     * @param threads Integer number of racing threads
+     */
+    private static void race( AccountService service, int users, int threads ) {
+        int names = 10_000;
+        AtomicInteger created = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch( 1 ), done = new CountDownLatch( threads );
+        for ( int t = 0; t < threads; t++ ) {
+            Thread racer = new Thread( () -> {
+                try {
+                    start.await();
+                    for ( int i = 0; i < names; i++ ) {
+                        if ( service.createAccount( "race" + users + "-" + threads + "-" + i, "password" ) ) { created.incrementAndGet(); }
+                    }
+                } catch ( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                } } );
+            racer.setDaemon( true );
+            racer.start();
+        }
+        start.countDown();
+        try { done.await(); }
+        catch ( InterruptedException e ) { Thread.currentThread().interrupt(); return; }
+        int duplicates = created.get() - names;
+        report( "contention.race", users, threads, "duplicate_accounts", duplicates );
+        if ( duplicates != 0 ) {
+            System.err.println( formatHelper.basicMessage( "ERROR", duplicates + " duplicate account(s) were created." ) );
+        }
+    }
+
+    /**
+     * Private helper method which runs an operation on several threads at once, first for the
+     * warmup period and then for the measurement period, and reports the measured throughput
+     * @param benchmark String, name of the measured method
+     * @param users Integer size of the user base
+     * @param threads Integer number of threads invoking the operation concurrently
+     * @param operation Operation being measured
+     * @return Double operations per second, or 0 if interrupted
+     */
+    private static double run( String benchmark, int users, int threads, Operation operation ) {
+        AtomicBoolean measuring = new AtomicBoolean(), stop = new AtomicBoolean();
+        long[] counts = new long[ threads * 8 ];
+        CountDownLatch done = new CountDownLatch( threads );
+        for ( int t = 0; t < threads; t++ ) {
+            int thread = t;
+            Thread worker = new Thread( () -> {
+                Console.bind( new Console( InputStream.nullInputStream(), OutputSink.NULL ) );
+                int sink = 0;
+                long iteration = 0, measured = 0;
+                while ( !stop.get() ) {
+                    Object result = operation.invoke( thread, iteration++ );
+                    sink ^= ( result == null ) ? 0 : result.hashCode();
+                    if ( measuring.get() ) { measured++; }
+                }
+                // Spread over separate cache lines so that threads do not slow each other down
+                counts[ thread * 8 ] = measured;
+                blackhole ^= sink;
+                done.countDown(); } );
+            worker.setDaemon( true );
+            worker.start();
+        }
+        try {
+            Thread.sleep( WARMUP_MILLIS );
+            long start = System.nanoTime();
+            measuring.set( true );
+            Thread.sleep( MEASURE_MILLIS );
+            measuring.set( false );
+            long elapsed = System.nanoTime() - start;
+            stop.set( true );
+            done.await();
+            long total = 0;
+            for ( int t = 0; t < threads; t++ ) total += counts[ t * 8 ];
+            double throughput = total / ( elapsed / 1e9 );
+            report( benchmark, users, threads, "ops_per_second", throughput );
+            return throughput;
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+    }
+
+    /**
+     * Private helper method which returns the heap in use after repeated full collections
+     * @return Long number of bytes in use
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for ( int i = 0; i < 5; i++ ) {
+            System.gc();
+            try { Thread.sleep( 100 ); } catch ( InterruptedException e ) { Thread.currentThread().interrupt(); }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Creates idle accounts in a UserList and reports the heap they retain, minus the
+     * names and passwords that every account has to store anyway
+     * @param users Integer number of accounts to create
+     */
+    private static void footprint( int users ) {
+        String[] names = new String[ users ], passwords = new String[ users ];
+        for ( int i = 0; i < users; i++ ) { names[i] = "USER" + i; passwords[i] = "password" + i; }
+        long before = usedHeap();
+        UserList userList = new UserList();
+        for ( int i = 0; i < users; i++ ) userList.addUser( new User( names[i], passwords[i] ) );
+        long after = usedHeap();
+        report( "footprint", users, 0, "bytes_per_account", ( after - before ) / (double)users );
+        // Keeps the accounts reachable until after the measurement
+        if ( userList.size() != users ) { throw new IllegalStateException(); }
+    }
+
+    /**
+     * Writes a snapshot of generated accounts, then times opening it the mapped way (open and
+     * look up one account) against the naive way (decode every account into the UserList)
+     * @param users Integer number of accounts in the snapshot
+     * @throws IOException if the snapshot cannot be written
+     */
+    private static void startup( int users ) throws IOException {
+        File file = File.createTempFile( "systemhandler", ".snapshot" );
+        file.deleteOnExit();
+        UserList source = new UserList();
+        // The answer is hashed once, as hashing is deliberately slow and not what is measured
+        String question = "what city were you born in?";
+        long salt = SecurityQuestionCatalog.newSalt();
+        long hash = SecurityQuestionCatalog.hash( SecurityQuestionCatalog.idOf( question ), salt, "city" );
+        for ( int i = 0; i < users; i++ ) {
+            User user = new User( "user" + i, "password" + i );
+            user.getInformation().restoreSecurityAnswer( question, salt, hash );
+            source.addUser( user );
+        }
+        SnapshotFile.write( file, 0, source );
+        source = null;
+        System.gc();
+
+        String probe = "user" + ( users / 2 );
+        long start = System.nanoTime();
+        UserList mapped = new UserList();
+        mapped.setBaseline( SnapshotFile.open( file ) );
+        mapped.retrieveUser( probe );
+        report( "startup.mapped", users, 0, "milliseconds", ( System.nanoTime() - start ) / 1e6 );
+
+        start = System.nanoTime();
+        UserList naive = new UserList();
+        naive.setBaseline( SnapshotFile.open( file ) );
+        naive.getUsers();
+        naive.retrieveUser( probe );
+        report( "startup.naive", users, 0, "milliseconds", ( System.nanoTime() - start ) / 1e6 );
+    }
+}
@@ -0,0 +1,201 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * BulkTransfer class which imports and exports accounts as CSV without going through the
+ * terminal prompts.  Both directions stream: an import only holds one window of rows in memory
+ * at a time, parsing and validating the window in parallel before inserting it, and an export
+ * writes each account as soon as it is read.
+ *
+ * Import rows are "name,password"; export rows are "name,time_created" followed by one column
+ * per checklist item.  Fields may be double-quoted, with "" standing for a quote
+ *
+ * Bugs: Quoted fields cannot span lines
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class BulkTransfer {
+
+    private static final int WINDOW_SIZE = 8192;
+    private static final int MAX_NAME_LENGTH = 64;
+
+    // Inserts mostly wait on journal fsyncs, so far more of them run at once than there are cores
+    private static final int INSERT_THREADS = 64;
+
+    private final FormatHelper formatHelper = new FormatHelper();
+    private final UserList userList;
+
+    /**
+     * BulkTransfer constructor method
+     * @param userList UserList that accounts are imported into and exported from
+     */
+    public BulkTransfer( UserList userList ) {
+        this.userList = userList;
+    }
+
+    /**
+     * Imports every row of a CSV file, reporting the outcome and row rate on the terminal
+     * @param file File holding "name,password" rows, optionally starting with a header row
+     * @throws IOException if the file cannot be read
+     */
+    public void importCsv( File file ) throws IOException {
+        LongAdder imported = new LongAdder(), duplicates = new LongAdder(), rejected = new LongAdder();
+        long rows = 0, start = System.nanoTime();
+        ExecutorService inserters = Executors.newFixedThreadPool( INSERT_THREADS );
+        try ( BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), StandardCharsets.UTF_8 ), 1 << 16 ) ) {
+            List< String > window = new ArrayList<>( WINDOW_SIZE );
+            String line = reader.readLine();
+            // A first row that names its columns is a header, not an account
+            if ( line != null && line.trim().equalsIgnoreCase( "name,password" ) ) { line = reader.readLine(); }
+            while ( line != null ) {
+                window.add( line );
+                rows++;
+                if ( window.size() == WINDOW_SIZE ) { importWindow( window, inserters, imported, duplicates, rejected ); window.clear(); }
+                line = reader.readLine();
+            }
+            importWindow( window, inserters, imported, duplicates, rejected );
+        } finally {
+            inserters.shutdown();
+        }
+        report( "IMPORT", String.format( "%d rows: %d imported, %d already existed, %d rejected.",
+            rows, imported.sum(), duplicates.sum(), rejected.sum() ), rows, start );
+    }
+
+    /**
+     * Private helper method which parses and validates a window of rows in parallel, then inserts
+     * the valid accounts.  Inserts are spread over many threads so that concurrent journal
+     * appends are group-committed together instead of each waiting for its own fsync
+     * @param window List of raw CSV rows
+     * @param inserters ExecutorService that runs the inserts
+     * @param imported LongAdder counting accounts that were created
+     * @param duplicates LongAdder counting rows whose username already existed
+     * @param rejected LongAdder counting rows that failed validation
+     */
+    private void importWindow( List< String > window, ExecutorService inserters,
+                               LongAdder imported, LongAdder duplicates, LongAdder rejected ) {
+        User[] users = new User[ window.size() ];
+        IntStream.range( 0, users.length ).parallel().forEach( i -> users[i] = parseAccount( window.get( i ) ) );
+        List< Future< ? > > inserts = new ArrayList<>( INSERT_THREADS );
+        for ( int t = 0; t < INSERT_THREADS; t++ ) {
+            int first = t;
+            inserts.add( inserters.submit( () -> {
+                for ( int i = first; i < users.length; i += INSERT_THREADS ) {
+                    if ( users[i] == null ) { rejected.increment(); }
+                    else if ( userList.addUser( users[i] ) ) { imported.increment(); }
+                    else { duplicates.increment(); }
+                } } ) );
+        }
+        try {
+            for ( Future< ? > insert : inserts ) insert.get();
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException( "Import interrupted." );
+        } catch ( ExecutionException e ) {
+            throw new IllegalStateException( "Import failed: " + e.getCause(), e.getCause() );
+        }
+    }
+
+    /**
+     * Private helper method which turns one CSV row into a new User if the row is valid
+     * @param line String, raw "name,password" row
+     * @return User to be inserted, or null if the row is malformed or the name or password is invalid
+     */
+    private User parseAccount( String line ) {
+        List< String > fields = parseCsv( line );
+        if ( fields == null || fields.size() != 2 ) { return null; }
+        String name = fields.get( 0 ).trim(), password = fields.get( 1 );
+        if ( name.isEmpty() || name.length() > MAX_NAME_LENGTH || password.isEmpty() ) { return null; }
+        for ( int i = 0; i < name.length(); i++ ) {
+            if ( Character.isISOControl( name.charAt( i ) ) ) { return null; }
+        }
+        return new User( UserKey.of( name ), password, userList.getClock() );
+    }
+
+    /**
+     * Private helper method which splits a CSV row into its fields
+     * @param line String, raw CSV row
+     * @return List of unquoted fields, or null if a quoted field is never closed
+     */
+    private static List< String > parseCsv( String line ) {
+        List< String > fields = new ArrayList<>( 2 );
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for ( int i = 0; i < line.length(); i++ ) {
+            char c = line.charAt( i );
+            if ( quoted ) {
+                if ( c != '"' ) { field.append( c ); }
+                else if ( i + 1 < line.length() && line.charAt( i + 1 ) == '"' ) { field.append( '"' ); i++; }
+                else { quoted = false; }
+            }
+            else if ( c == '"' ) { quoted = true; }
+            else if ( c == ',' ) { fields.add( field.toString() ); field.setLength( 0 ); }
+            else { field.append( c ); }
+        }
+        if ( quoted ) { return null; }
+        fields.add( field.toString() );
+        return fields;
+    }
+
+    /**
+     * Private helper method which quotes a field for CSV output if it needs quoting
+     * @param value String field
+     * @return String that reads back as value
+     */
+    private static String quote( String value ) {
+        if ( value.indexOf( ',' ) < 0 && value.indexOf( '"' ) < 0 ) { return value; }
+        return '"' + value.replace( "\"", "\"\"" ) + '"';
+    }
+
+    /**
+     * Exports every account as CSV, reporting the final row rate on the terminal.  Passwords
+     * and security answers are never exported
+     * @param file File to be written, replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public void exportCsv( File file ) throws IOException {
+        long start = System.nanoTime();
+        LongAdder rows = new LongAdder();
+        try ( BufferedWriter writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), StandardCharsets.UTF_8 ), 1 << 16 ) ) {
+            List< String > items = new ArrayList<>( new User().getInformation().getChecklist().keySet() );
+            StringBuilder header = new StringBuilder( "name,time_created" );
+            for ( String item : items ) header.append( ',' ).append( quote( item ) );
+            writer.write( header.append( '\n' ).toString() );
+            StringBuilder row = new StringBuilder();
+            try {
+                userList.forEachUser( user -> {
+                    row.setLength( 0 );
+                    row.append( quote( user.getName() ) ).append( ',' ).append( user.getTimeCreated() );
+                    Map< String, Boolean > checklist = user.getInformation().getChecklist();
+                    for ( String item : items ) row.append( ',' ).append( Boolean.TRUE.equals( checklist.get( item ) ) );
+                    try { writer.write( row.append( '\n' ).toString() ); }
+                    catch ( IOException e ) { throw new UncheckedIOException( e ); }
+                    rows.increment(); } );
+            } catch ( UncheckedIOException e ) {
+                throw e.getCause();
+            }
+        }
+        report( "EXPORT", String.format( "%d accounts written to %s.", rows.sum(), file ), rows.sum(), start );
+    }
+
+    /**
+     * Private helper method which prints the outcome and row rate of a transfer
+     * @param system String, name of the transfer
+     * @param outcome String, summary of the transfer
+     * @param rows Long number of rows processed
+     * @param start Long System.nanoTime() when the transfer started
+     */
+    private void report( String system, String outcome, long rows, long start ) {
+        double seconds = Math.max( 1e-9, ( System.nanoTime() - start ) / 1e9 );
+        Console.current().println( formatHelper.basicMessage( system,
+            String.format( "%s %.2f seconds, %.0f rows per second.", outcome, seconds, rows / seconds ) ) );
+    }
+}
@@ -0,0 +1,108 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ChecklistRegistry class which holds the definitions of the checklist tasks every account has to
+ * complete (i.e. adding security questions).  The definitions are shared by every account, and
+ * each task is given a bit position, so an account only has to remember which bits it completed.
+ * A task registered later is simply incomplete for every existing account, without visiting them
+ *
+ * Bugs: At most 64 tasks can be registered, as an account's completed tasks are kept in one long
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class ChecklistRegistry {
+
+    /**
+     * Task subclass which is one registered checklist task
+     */
+    public static final class Task {
+
+        private final String key;
+        private final int bit;
+
+        /**
+         * Task constructor method
+         * @param key String, name of the task shown to users
+         * @param bit Integer bit position of the task in every account's completed set
+         */
+        private Task( String key, int bit ) {
+            this.key = key;
+            this.bit = bit;
+        }
+
+        /**
+         * Getter method which returns the name of the task
+         * @return String, task name
+         */
+        public String getKey() {
+            return this.key;
+        }
+
+        /**
+         * Getter method which returns the mask of the task in an account's completed set
+         * @return Long with only the task's bit set
+         */
+        public long getMask() {
+            return 1L << this.bit;
+        }
+    }
+
+    private static final int MAX_TASKS = Long.SIZE;
+
+    // Tasks in registration order, replaced whole so that readers never lock
+    private static volatile Task[] tasks = new Task[ 0 ];
+    private static final Map< String, Task > byKey = new ConcurrentHashMap<>();
+
+    /**
+     * Private constructor method, the registry is only used through its static methods
+     */
+    private ChecklistRegistry() {}
+
+    /**
+     * Registers a checklist task, or returns it if a task with that name is already registered
+     * @param key String, name of the task shown to users
+     * @return Task registered under that name
+     * @throws IllegalStateException if the registry already holds the most tasks it can
+     */
+    public static Task register( String key ) {
+        Task task = byKey.get( key );
+        if ( task != null ) { return task; }
+        synchronized ( byKey ) {
+            task = byKey.get( key );
+            if ( task != null ) { return task; }
+            if ( tasks.length == MAX_TASKS ) { throw new IllegalStateException( "Checklist is full." ); }
+            task = new Task( key, tasks.length );
+            Task[] grown = Arrays.copyOf( tasks, tasks.length + 1 );
+            grown[ task.bit ] = task;
+            byKey.put( key, task );
+            tasks = grown;
+            return task;
+        }
+    }
+
+    /**
+     * Finds a registered checklist task by name
+     * @param key String, name of the task
+     * @return Task registered under that name, or null if there is none
+     */
+    public static Task lookup( String key ) {
+        return byKey.get( key );
+    }
+
+    /**
+     * Getter method which returns how many tasks are registered
+     * @return Integer number of tasks
+     */
+    public static int size() {
+        return tasks.length;
+    }
+
+    /**
+     * Getter method which returns every registered task
+     * @return Read-only list of tasks in registration order
+     */
+    public static List< Task > getTasks() {
+        return List.of( tasks );
+    }
+}
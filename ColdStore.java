@@ -0,0 +1,346 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * ColdStore class which is a file-based key/value store for accounts paged out of memory.
+ * Accounts are appended to one file as snapshot records; writing an account again appends a new
+ * record and leaves the old one as garbage, which is reclaimed by rewriting the file once it
+ * outweighs the live records.
+ *
+ * The only thing kept in memory per account is one slot of an open-addressing table, the
+ * record's offset, the hash of its name and a byte of visit marks, so looking an account up
+ * costs one probe of the table and one read of the name from the file when the hash matches.
+ * Up to eight visits of every account can be in progress at once; each marks the slots it has
+ * passed, so a visit that has to start over because the table grew skips what it already saw
+ *
+ * Not thread safe, callers guard it with their own lock.  The file is scratch space that is
+ * deleted on close: the journal and snapshot remain the durable copy of every account
+ *
+ * Bugs: None
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class ColdStore implements Closeable {
+
+    // Garbage is only reclaimed once there is this much of it and more of it than live records
+    private static final long COMPACT_MIN_GARBAGE = 16L << 20;
+
+    private final File file;
+    private FileChannel channel;
+    private long end;
+    private long garbage;
+
+    // Offset plus one of every record, 0 marks an empty slot, and the hash of its name
+    private long[] offsets = new long[ 16 ];
+    private int[] hashes = new int[ 16 ];
+    private int count;
+
+    // One bit per visit in progress for every slot, set once that visit has passed the slot,
+    // and which of the eight bits are taken by a visit
+    private byte[] marks = new byte[ 16 ];
+    private int visits;
+
+    /**
+     * Private constructor method, cold stores are created through create()
+     * @param file File the records are written to
+     * @param channel FileChannel open on file
+     */
+    private ColdStore( File file, FileChannel channel ) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    /**
+     * Creates an empty cold store, replacing whatever the file held
+     * @param file File the records are written to
+     * @return ColdStore holding no accounts
+     * @throws IOException if the file cannot be created
+     */
+    public static ColdStore create( File file ) throws IOException {
+        FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING );
+        file.deleteOnExit();
+        return new ColdStore( file, channel );
+    }
+
+    /**
+     * Getter method which returns how many accounts are stored
+     * @return Integer number of accounts
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * Getter method which returns the number of slots in the table.  Slots are renumbered
+     * whenever this changes, so a visit in slot order has to start over
+     * @return Integer number of slots
+     */
+    public int getTableSize() {
+        return this.offsets.length;
+    }
+
+    /**
+     * Getter method which returns the size of the file, garbage included
+     * @return Long number of bytes
+     */
+    public long getFileBytes() {
+        return this.end;
+    }
+
+    /**
+     * Returns whether an account is stored
+     * @param name String, upper case username
+     * @return True if the account is stored, false if otherwise
+     * @throws IOException if the file cannot be read
+     */
+    public boolean contains( String name ) throws IOException {
+        byte[] bytes = name.getBytes( StandardCharsets.UTF_8 );
+        return find( bytes, SnapshotFile.hash( bytes ) ) >= 0;
+    }
+
+    /**
+     * Decodes a stored account.  Every call returns a new User object
+     * @param name String, upper case username
+     * @return User holding the stored account, or null if there is none
+     * @throws IOException if the file cannot be read
+     */
+    public User read( String name ) throws IOException {
+        byte[] bytes = name.getBytes( StandardCharsets.UTF_8 );
+        int slot = find( bytes, SnapshotFile.hash( bytes ) );
+        return ( slot < 0 ) ? null : SnapshotFile.decode( readRecord( channel, offsets[ slot ] - 1 ) );
+    }
+
+    /**
+     * Stores the current state of an account, replacing any earlier state of it
+     * @param user User to be stored
+     * @throws IOException if the file cannot be written
+     */
+    public void put( User user ) throws IOException {
+        byte[] bytes = user.getName().getBytes( StandardCharsets.UTF_8 );
+        int hash = SnapshotFile.hash( bytes );
+        byte[] record = SnapshotFile.encode( user );
+        writeFully( ByteBuffer.wrap( record ), end );
+        int slot = find( bytes, hash );
+        if ( slot >= 0 ) {
+            garbage += readFully( channel, ByteBuffer.allocate( 4 ), offsets[ slot ] - 1 ).getInt( 0 );
+        } else {
+            slot = -slot - 1;
+            hashes[ slot ] = hash;
+            count++;
+        }
+        offsets[ slot ] = end + 1;
+        end += record.length;
+        if ( count * 2 > offsets.length ) { grow(); }
+        if ( garbage > COMPACT_MIN_GARBAGE && garbage > end - garbage ) { compact(); }
+    }
+
+    /**
+     * Starts a visit of every stored account, which takes one of the eight visit marks
+     * @return Integer mark of the visit, or -1 if eight visits are already in progress
+     */
+    public int startVisit() {
+        int free = ~visits & 0xff;
+        if ( free == 0 ) { return -1; }
+        int mark = Integer.numberOfTrailingZeros( free );
+        visits |= 1 << mark;
+        byte clear = (byte)~( 1 << mark );
+        for ( int slot = 0; slot < marks.length; slot++ ) marks[ slot ] &= clear;
+        return mark;
+    }
+
+    /**
+     * Ends a visit, freeing its mark for another
+     * @param mark Integer mark returned by startVisit
+     */
+    public void endVisit( int mark ) {
+        visits &= ~( 1 << mark );
+    }
+
+    /**
+     * Decodes up to limit stored accounts a visit has not seen yet, in table order, starting
+     * from a slot of the table
+     * @param from Integer slot to start from, 0 for the first call and after the table grew
+     * @param limit Integer largest number of accounts to decode
+     * @param mark Integer mark of the visit, from startVisit
+     * @param action Consumer that receives each decoded User
+     * @return Integer slot to continue from, or -1 once every slot was visited
+     * @throws IOException if the file cannot be read
+     */
+    public int forEach( int from, int limit, int mark, Consumer< User > action ) throws IOException {
+        int slot = from;
+        for ( int visited = 0; slot < offsets.length && visited < limit; slot++ ) {
+            if ( !pass( slot, mark ) ) { continue; }
+            action.accept( SnapshotFile.decode( readRecord( channel, offsets[ slot ] - 1 ) ) );
+            visited++;
+        }
+        return ( slot < offsets.length ) ? slot : -1;
+    }
+
+    /**
+     * Reads up to limit stored usernames a visit has not seen yet, in table order, starting
+     * from a slot of the table
+     * @param from Integer slot to start from, 0 for the first call and after the table grew
+     * @param limit Integer largest number of names to read
+     * @param mark Integer mark of the visit, from startVisit
+     * @param action Consumer that receives each upper case username
+     * @return Integer slot to continue from, or -1 once every slot was visited
+     * @throws IOException if the file cannot be read
+     */
+    public int forEachName( int from, int limit, int mark, Consumer< String > action ) throws IOException {
+        int slot = from;
+        for ( int visited = 0; slot < offsets.length && visited < limit; slot++ ) {
+            if ( !pass( slot, mark ) ) { continue; }
+            long offset = offsets[ slot ] - 1;
+            int length = readFully( channel, ByteBuffer.allocate( 2 ), offset + 4 ).getShort( 0 ) & 0xffff;
+            action.accept( new String( readFully( channel, ByteBuffer.allocate( length ), offset + 6 ).array(), StandardCharsets.UTF_8 ) );
+            visited++;
+        }
+        return ( slot < offsets.length ) ? slot : -1;
+    }
+
+    /**
+     * Private helper method which marks a slot as passed by a visit
+     * @param slot Integer slot of the table
+     * @param mark Integer mark of the visit
+     * @return True if the slot holds an account the visit has not seen yet, false if otherwise
+     */
+    private boolean pass( int slot, int mark ) {
+        if ( offsets[ slot ] == 0 || ( marks[ slot ] & ( 1 << mark ) ) != 0 ) { return false; }
+        marks[ slot ] |= (byte)( 1 << mark );
+        return true;
+    }
+
+    /**
+     * Private helper method which finds the slot of a name
+     * @param bytes Byte array, UTF-8 bytes of the upper case username
+     * @param hash Integer hash of bytes
+     * @return Integer slot of the name, or -(empty slot) - 1 if it is not stored
+     * @throws IOException if the file cannot be read
+     */
+    private int find( byte[] bytes, int hash ) throws IOException {
+        int mask = offsets.length - 1;
+        int slot = hash & mask;
+        for ( ; offsets[ slot ] != 0; slot = ( slot + 1 ) & mask ) {
+            if ( hashes[ slot ] == hash && nameEquals( offsets[ slot ] - 1, bytes ) ) { return slot; }
+        }
+        return -( slot + 1 );
+    }
+
+    /**
+     * Private helper method which compares the name of a stored record with a byte array
+     * @param offset Long offset of the record
+     * @param bytes Byte array to compare with
+     * @return True if the record's name has exactly these bytes, false if otherwise
+     * @throws IOException if the file cannot be read
+     */
+    private boolean nameEquals( long offset, byte[] bytes ) throws IOException {
+        ByteBuffer name = readFully( channel, ByteBuffer.allocate( 2 + bytes.length ), offset + 4 );
+        if ( ( name.getShort( 0 ) & 0xffff ) != bytes.length ) { return false; }
+        for ( int i = 0; i < bytes.length; i++ ) {
+            if ( name.get( 2 + i ) != bytes[i] ) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     * Private helper method which reads a whole record
+     * @param from FileChannel to read from
+     * @param offset Long offset of the record
+     * @return ByteBuffer holding the record, positioned at its length prefix
+     * @throws IOException if the file cannot be read
+     */
+    private static ByteBuffer readRecord( FileChannel from, long offset ) throws IOException {
+        int length = readFully( from, ByteBuffer.allocate( 4 ), offset ).getInt( 0 );
+        ByteBuffer record = readFully( from, ByteBuffer.allocate( length ), offset );
+        record.position( 0 );
+        return record;
+    }
+
+    /**
+     * Private helper method which fills a buffer from a file
+     * @param from FileChannel to read from
+     * @param buffer ByteBuffer to be filled
+     * @param offset Long offset to read from
+     * @return The filled buffer
+     * @throws IOException if the file cannot be read or ends early
+     */
+    private static ByteBuffer readFully( FileChannel from, ByteBuffer buffer, long offset ) throws IOException {
+        while ( buffer.hasRemaining() ) {
+            int read = from.read( buffer, offset + buffer.position() );
+            if ( read < 0 ) { throw new EOFException( "Cold store record is truncated." ); }
+        }
+        return buffer;
+    }
+
+    /**
+     * Private helper method which writes a whole buffer to the file
+     * @param buffer ByteBuffer to be written
+     * @param offset Long offset to write at
+     * @throws IOException if the file cannot be written
+     */
+    private void writeFully( ByteBuffer buffer, long offset ) throws IOException {
+        while ( buffer.hasRemaining() ) channel.write( buffer, offset + buffer.position() );
+    }
+
+    /**
+     * Private helper method which doubles the table, reinserting every slot by its stored hash
+     * and visit marks without reading the file
+     */
+    private void grow() {
+        long[] oldOffsets = offsets;
+        int[] oldHashes = hashes;
+        byte[] oldMarks = marks;
+        offsets = new long[ oldOffsets.length * 2 ];
+        hashes = new int[ oldHashes.length * 2 ];
+        marks = new byte[ oldMarks.length * 2 ];
+        int mask = offsets.length - 1;
+        for ( int i = 0; i < oldOffsets.length; i++ ) {
+            if ( oldOffsets[i] == 0 ) { continue; }
+            int slot = oldHashes[i] & mask;
+            while ( offsets[ slot ] != 0 ) slot = ( slot + 1 ) & mask;
+            offsets[ slot ] = oldOffsets[i];
+            hashes[ slot ] = oldHashes[i];
+            marks[ slot ] = oldMarks[i];
+        }
+    }
+
+    /**
+     * Private helper method which copies every live record into a new file, replacing the old
+     * one, so that superseded records stop taking up disk space
+     * @throws IOException if the new file cannot be written
+     */
+    private void compact() throws IOException {
+        File temporary = new File( file.getPath() + ".tmp" );
+        FileChannel old = channel;
+        channel = FileChannel.open( temporary.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING );
+        long written = 0;
+        for ( int slot = 0; slot < offsets.length; slot++ ) {
+            if ( offsets[ slot ] == 0 ) { continue; }
+            ByteBuffer record = readRecord( old, offsets[ slot ] - 1 );
+            writeFully( record, written );
+            offsets[ slot ] = written + 1;
+            written += record.capacity();
+        }
+        old.close();
+        Files.move( temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+        end = written;
+        garbage = 0;
+    }
+
+    /**
+     * Closes and deletes the file
+     * @throws IOException if the file cannot be closed
+     */
+    public void close() throws IOException {
+        channel.close();
+        file.delete();
+    }
+}
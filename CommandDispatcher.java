@@ -0,0 +1,153 @@
+import java.util.*;
+
+/**
+ * CommandDispatcher class which matches terminal input to commands through a trie that is
+ * compiled once and never changes afterwards.  A lookup walks the input one character at a
+ * time, so its cost depends on the length of the input rather than on the number of commands,
+ * and it allocates nothing.
+ *
+ * Input is normalized while it is walked: letters are matched case-insensitively, leading and
+ * trailing spaces are ignored and runs of spaces count as one.  Besides exact names and
+ * aliases, any prefix that only one command starts with selects that command
+ *
+ * Bugs: Only printable ASCII characters can appear in command names
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ *
+ * @param <T> Type of the commands being dispatched
+ */
+public class CommandDispatcher< T > {
+
+    // Children are indexed by character - ' ', which covers space through underscore once letters are upper case
+    private static final int FANOUT = 64;
+    private static final int NONE = -1;
+
+    private final List< T > commands;
+    private final int[] children;
+    private final int[] exact;
+    private final int[] unique;
+
+    /**
+     * CommandDispatcher constructor method which compiles commands and their aliases into a trie
+     * @param named Map where the keys are command names and the values are commands
+     * @param aliases Map where the keys are alternative names and the values are command names
+     * @throws IllegalArgumentException if an alias points to a missing command, a name uses
+     * characters outside of the supported range or two names clash after normalization
+     */
+    public CommandDispatcher( Map< String, T > named, Map< String, String > aliases ) {
+        List< T > commandList = new ArrayList<>();
+        Map< String, Integer > index = new LinkedHashMap<>();
+        for ( Map.Entry< String, T > entry : named.entrySet() ) {
+            index.put( entry.getKey(), commandList.size() );
+            commandList.add( entry.getValue() );
+        }
+        Map< String, Integer > names = new LinkedHashMap<>( index );
+        for ( Map.Entry< String, String > alias : aliases.entrySet() ) {
+            Integer command = index.get( alias.getValue() );
+            if ( command == null ) { throw new IllegalArgumentException( "Alias for unknown command: " + alias.getValue() ); }
+            names.put( alias.getKey(), command );
+        }
+
+        // Build with growable lists, then freeze into flat arrays
+        List< int[] > nodeChildren = new ArrayList<>();
+        List< Integer > nodeExact = new ArrayList<>(), nodeUnique = new ArrayList<>();
+        nodeChildren.add( newChildren() ); nodeExact.add( NONE ); nodeUnique.add( NONE );
+        for ( Map.Entry< String, Integer > name : names.entrySet() ) {
+            int command = name.getValue();
+            int node = 0;
+            markUnique( nodeUnique, node, command );
+            String normalized = normalize( name.getKey() );
+            for ( int i = 0; i < normalized.length(); i++ ) {
+                int slot = slot( normalized.charAt( i ) );
+                if ( slot == NONE ) { throw new IllegalArgumentException( "Unsupported character in command: " + name.getKey() ); }
+                if ( nodeChildren.get( node )[slot] == NONE ) {
+                    nodeChildren.get( node )[slot] = nodeChildren.size();
+                    nodeChildren.add( newChildren() ); nodeExact.add( NONE ); nodeUnique.add( NONE );
+                }
+                node = nodeChildren.get( node )[slot];
+                markUnique( nodeUnique, node, command );
+            }
+            if ( nodeExact.get( node ) != NONE && nodeExact.get( node ) != command ) {
+                throw new IllegalArgumentException( "Command name used twice: " + name.getKey() ); }
+            nodeExact.set( node, command );
+        }
+
+        this.commands = Collections.unmodifiableList( commandList );
+        this.children = new int[ nodeChildren.size() * FANOUT ];
+        this.exact = new int[ nodeChildren.size() ];
+        this.unique = new int[ nodeChildren.size() ];
+        for ( int node = 0; node < nodeChildren.size(); node++ ) {
+            System.arraycopy( nodeChildren.get( node ), 0, this.children, node * FANOUT, FANOUT );
+            this.exact[node] = nodeExact.get( node );
+            this.unique[node] = nodeUnique.get( node );
+        }
+        // The empty prefix never selects a command
+        this.unique[0] = NONE;
+    }
+
+    /**
+     * Private helper method which returns an empty child table for a new trie node
+     * @return Integer array of FANOUT empty slots
+     */
+    private static int[] newChildren() {
+        int[] slots = new int[ FANOUT ];
+        Arrays.fill( slots, NONE );
+        return slots;
+    }
+
+    /**
+     * Private helper method which records that a command can be reached through a node, and
+     * marks the node ambiguous once a second command can be reached through it
+     * @param nodeUnique List of the single command reachable through each node
+     * @param node Integer trie node
+     * @param command Integer command reachable through the node
+     */
+    private static void markUnique( List< Integer > nodeUnique, int node, int command ) {
+        int current = nodeUnique.get( node );
+        if ( current == NONE ) { nodeUnique.set( node, command ); }
+        else if ( current != command ) { nodeUnique.set( node, Integer.MIN_VALUE ); }
+    }
+
+    /**
+     * Private helper method which normalizes a command name the same way lookups normalize input
+     * @param name String command name
+     * @return String, upper case name with single spaces between words
+     */
+    private static String normalize( String name ) {
+        return name.trim().replaceAll( " +", " " ).toUpperCase( Locale.ROOT );
+    }
+
+    /**
+     * Private helper method which maps a character to its child slot
+     * @param c Character of the input
+     * @return Integer slot, or NONE if the character cannot appear in a command
+     */
+    private static int slot( char c ) {
+        if ( c >= 'a' && c <= 'z' ) { c -= 'a' - 'A'; }
+        int slot = c - ' ';
+        return ( slot >= 0 && slot < FANOUT ) ? slot : NONE;
+    }
+
+    /**
+     * Finds the command selected by a line of input: an exact name or alias, or a prefix that
+     * only one command starts with
+     * @param input CharSequence entered by the user
+     * @return Command that was selected, or null if the input is unknown or ambiguous
+     */
+    public T lookup( CharSequence input ) {
+        int start = 0, end = input.length();
+        while ( start < end && input.charAt( start ) == ' ' ) start++;
+        while ( end > start && input.charAt( end - 1 ) == ' ' ) end--;
+        int node = 0;
+        for ( int i = start; i < end; i++ ) {
+            char c = input.charAt( i );
+            if ( c == ' ' && input.charAt( i - 1 ) == ' ' ) { continue; }
+            int slot = slot( c );
+            if ( slot == NONE ) { return null; }
+            node = children[ node * FANOUT + slot ];
+            if ( node == NONE ) { return null; }
+        }
+        int command = ( exact[node] != NONE ) ? exact[node] : unique[node];
+        return ( command >= 0 ) ? commands.get( command ) : null;
+    }
+}
@@ -0,0 +1,150 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Console class which holds the input and output streams of a single terminal session.  Each
+ * thread is bound to one Console, so every prompt and message in the SystemHandler package
+ * reaches the person on the other end of that session rather than the process's System.in
+ * and System.out.  Threads that were never bound use the process console.
+ *
+ * Output is handed to an OutputSink rather than written directly, so printing never waits on a
+ * terminal or socket; whatever was printed is flushed right before the session waits for input
+ *
+ * Bugs: None
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class Console {
+
+    /**
+     * Thrown when the other end of a session closes its input, so that prompt loops
+     * that would otherwise wait forever can unwind back to the session owner
+     */
+    public static class ClosedException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * No-arg constructor method
+         */
+        public ClosedException() {
+            super( "Session input closed." );
+        }
+    }
+
+    private static final Console SYSTEM_CONSOLE = new Console( System.in, System.out );
+    private static final ThreadLocal< Console > CURRENT = ThreadLocal.withInitial( () -> SYSTEM_CONSOLE );
+
+    static {
+        // Whatever the process console still buffers is written out before the JVM exits
+        Runtime.getRuntime().addShutdownHook( new Thread( SYSTEM_CONSOLE::close, "console-close" ) );
+    }
+
+    private final BufferedReader reader;
+    private final OutputSink sink;
+    private long linesRead;
+
+    /**
+     * Console constructor method which wraps the raw streams of a session, batching its output
+     * @param in InputStream that user input is read from
+     * @param out OutputStream that system messages are written to
+     */
+    public Console( InputStream in, OutputStream out ) {
+        this( in, new BatchingSink( out ) );
+    }
+
+    /**
+     * Console constructor method which sends a session's output to a given sink
+     * @param in InputStream that user input is read from
+     * @param sink OutputSink that system messages are handed to
+     */
+    public Console( InputStream in, OutputSink sink ) {
+        this.reader = new BufferedReader( new InputStreamReader( in, StandardCharsets.UTF_8 ) );
+        this.sink = sink;
+    }
+
+    /**
+     * Getter method which returns the Console bound to the calling thread
+     * @return Console of the current session, or the process console if none was bound
+     */
+    public static Console current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Getter method which returns whether this is the process console, i.e. the terminal of
+     * whoever started the process rather than a session connected over the network
+     * @return True if this Console reads System.in, false if otherwise
+     */
+    public boolean isProcessConsole() {
+        return this == SYSTEM_CONSOLE;
+    }
+
+    /**
+     * Binds a Console to the calling thread for the length of a session
+     * @param console Console that the current thread should read from and write to
+     */
+    public static void bind( Console console ) {
+        CURRENT.set( console );
+    }
+
+    /**
+     * Returns the calling thread to the process console once its session is over
+     */
+    public static void unbind() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Reads one line of user input from this session
+     * @return String, the line entered by the user without its line terminator
+     * @throws ClosedException if the session input has been closed
+     */
+    public String readLine() {
+        sink.flush();
+        long start = Metrics.start();
+        try {
+            String line = reader.readLine();
+            if ( line == null ) { throw new ClosedException(); }
+            linesRead++;
+            return line;
+        } catch ( IOException e ) {
+            throw new ClosedException();
+        } finally {
+            Metrics.record( Metrics.CONSOLE_READ, start );
+        }
+    }
+
+    /**
+     * Getter method which returns how many lines of input this session has read
+     * @return Long number of lines
+     */
+    public long getLinesRead() {
+        return this.linesRead;
+    }
+
+    /**
+     * Writes one line of output to this session
+     * @param message String to be printed
+     */
+    public void println( String message ) {
+        long start = Metrics.start();
+        sink.writeLine( message );
+        Metrics.record( Metrics.CONSOLE_WRITE, start );
+    }
+
+    /**
+     * Asks for everything printed so far to be delivered, without waiting for it to be
+     */
+    public void flush() {
+        sink.flush();
+    }
+
+    /**
+     * Delivers everything printed so far and ends this session's output, called by the
+     * session owner before it closes the underlying streams
+     */
+    public void close() {
+        sink.close();
+    }
+}
@@ -0,0 +1,106 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * ContentionCheck class which checks from the command line that a UserList shared by many
+ * threads never loses or duplicates an account, and exits with an error if it does.
+ *
+ *   java ContentionCheck [--threads 8] [--accounts 20000] [--rounds 5]
+ *       every round, all threads race to create the same accounts while also creating accounts
+ *       of their own and looking accounts up, then every account is checked
+ *
+ * Creating an account must succeed exactly once per name however many threads try it, and every
+ * account that was reported created must afterwards be found, listed and counted exactly once
+ *
+ * Bugs: None
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class ContentionCheck {
+
+    private static final FormatHelper formatHelper = new FormatHelper();
+
+    /**
+     * Main method which runs the check
+     * @param args Optional parameters
+     * @throws InterruptedException if interrupted while threads are racing, or an AssertionError
+     * if the check fails
+     */
+    public static void main( String[] args ) throws InterruptedException {
+        int threads = Math.max( 8, 2 * Runtime.getRuntime().availableProcessors() ), accounts = 20_000, rounds = 5;
+        for ( int i = 0; i < args.length - 1; i++ ) {
+            if ( args[i].equals( "--threads" ) ) { threads = Integer.parseInt( args[++i] ); }
+            else if ( args[i].equals( "--accounts" ) ) { accounts = Integer.parseInt( args[++i] ); }
+            else if ( args[i].equals( "--rounds" ) ) { rounds = Integer.parseInt( args[++i] ); }
+        }
+        for ( int round = 1; round <= rounds; round++ ) {
+            round( round, threads, accounts );
+        }
+    }
+
+    /**
+     * Private helper method which races threads on one new UserList and checks the outcome
+     * @param round Integer number of the round, for the report
+     * @param threads Integer number of racing threads
+     * @param accounts Integer number of shared names, and of names each thread creates alone
+     * @throws InterruptedException if interrupted while threads are racing
+     */
+    private static void round( int round, int threads, int accounts ) throws InterruptedException {
+        UserList userList = new UserList();
+        AccountService service = new AccountService( userList );
+        AtomicIntegerArray winners = new AtomicIntegerArray( accounts );
+        CountDownLatch start = new CountDownLatch( 1 ), done = new CountDownLatch( threads );
+        List< Throwable > failures = new ArrayList<>();
+        for ( int t = 0; t < threads; t++ ) {
+            int thread = t;
+            Thread racer = new Thread( () -> {
+                try {
+                    start.await();
+                    for ( int i = 0; i < accounts; i++ ) {
+                        // Threads walk the shared names from different ends, so every name is contested
+                        int shared = ( thread % 2 == 0 ) ? i : accounts - 1 - i;
+                        if ( service.createAccount( "shared" + shared, "password" + shared ) ) { winners.incrementAndGet( shared ); }
+                        check( service.createAccount( "own" + thread + "-" + i, "password" ), "own" + thread + "-" + i + " could not be created." );
+                        check( userList.retrieveUser( "SHARED" + shared ) != null, "shared" + shared + " is missing after creation." );
+                    }
+                } catch ( Throwable e ) {
+                    synchronized ( failures ) { failures.add( e ); }
+                } finally {
+                    done.countDown();
+                } } );
+            racer.start();
+        }
+        start.countDown();
+        done.await();
+        if ( !failures.isEmpty() ) { throw new AssertionError( "Racing thread failed.", failures.get( 0 ) ); }
+
+        for ( int i = 0; i < accounts; i++ ) {
+            check( winners.get( i ) == 1, "shared" + i + " was created " + winners.get( i ) + " times." );
+            check( service.checkPassword( "Shared" + i, "password" + i ), "shared" + i + " lost its password." );
+        }
+        for ( int t = 0; t < threads; t++ ) {
+            for ( int i = 0; i < accounts; i++ ) check( userList.doesUserExist( "own" + t + "-" + i ), "own" + t + "-" + i + " was lost." );
+        }
+        int expected = accounts * ( threads + 1 );
+        check( userList.size() == expected, userList.size() + " accounts are counted, " + expected + " were created." );
+        Set< String > listed = new HashSet<>();
+        userList.forEachUser( user -> check( listed.add( user.getName() ), user.getName() + " is listed twice." ) );
+        check( listed.size() == expected, listed.size() + " accounts are listed, " + expected + " were created." );
+        userList.close();
+        System.out.println( formatHelper.basicMessage( "CHECK", String.format(
+            "round %d: %d thread(s) created %d account(s), none lost or duplicated.", round, threads, expected ) ) );
+    }
+
+    /**
+     * Private helper method which fails the check
+     * @param condition Boolean that must hold
+     * @param message String describing the failure
+     */
+    private static void check( boolean condition, String message ) {
+        if ( !condition ) { throw new AssertionError( message ); }
+    }
+}
@@ -27,7 +27,7 @@ public class FormatHelper {
      * @param user User account which information will be retrieved from
      */
     public void welcomeMessage( User user ) {
-        System.out.println( String.format( "\nHello %s! Your account was created on %s.", user.getName(), user.getInformation().getTimeCreated() ) );
+        Console.current().println( String.format( "\nHello %s! Your account was created on %s.", user.getName(), user.getInformation().getTimeCreated() ) );
         menuInformation( user );
     }
 
@@ -36,8 +36,8 @@ public class FormatHelper {
      * @param user User account which information will be retrieved from
      */
     public void menuInformation( User user ) {
-        System.out.println( String.format( "\nWelcome, %s.", user.getName() ) );
-        System.out.println( user.getInformation().notificationNotice() );
+        Console.current().println( String.format( "\nWelcome, %s.", user.getName() ) );
+        Console.current().println( user.getInformation().notificationNotice() );
     }
 
     /**
@@ -0,0 +1,51 @@
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * HeapUserStore class which keeps every account on the heap in one concurrent map.  Lookups
+ * never lock and nothing is ever paged out, so it suits user bases that fit in memory
+ *
+ * Bugs: None
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class HeapUserStore implements UserStore {
+
+    // Names for users are kept in upper case
+    private final ConcurrentMap< String, User > users = new ConcurrentHashMap<>();
+
+    public User get( String name ) {
+        return users.get( name );
+    }
+
+    public User putIfAbsent( User user ) {
+        return users.putIfAbsent( user.getName(), user );
+    }
+
+    public boolean contains( String name ) {
+        return users.containsKey( name );
+    }
+
+    public int size() {
+        return users.size();
+    }
+
+    public Collection< User > getResidentUsers() {
+        return Collections.unmodifiableCollection( users.values() );
+    }
+
+    public void forEach( Consumer< User > action ) {
+        users.values().forEach( action );
+    }
+
+    public void forEachName( Consumer< String > action ) {
+        users.keySet().forEach( action );
+    }
+
+    public void setListener( AccountListener listener ) {}
+
+    public void changed( User user ) {}
+}
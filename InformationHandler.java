@@ -1,10 +1,12 @@
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
 
 /**
  * InformationHandler class which processes user input, contains all user information, and utilizes
  * a "Processor" subclass which contains lambda expressions for execution based on user input
  * 
- * Bugs: Security questions can repeat multiple times when prompted by a failed log-in attempt
+ * Bugs: None
  * 
  * @author David Sanchez (@davchez on GitHub)
  */
@@ -13,33 +15,41 @@ public class InformationHandler {
     /**
      * Processor subclass which contains lambda expressions which are executed based off of key
      * terminal user inputs.  Meant for flexibility and easy expansion if more 
-     * capabilities are added to the SystemHandler package
+     * capabilities are added to the SystemHandler package.  The commands are identical for every
+     * account, so a single immutable Processor is shared and each command is handed the
+     * InformationHandler it should act on
      */
-    class Processor {
+    static class Processor {
 
-        // Executable/runnable methods
-        private final Runnable ADD_SECURITY_QUESTIONS = () -> { addSecurityQuestions(); };
-        private final Runnable CHALLENGE_SECURITY_QUESTION = () -> { challengeSecurityQuestion(); };
-        private final Runnable GET_TIME_ELAPSED = () -> { promptTimeElapsed(); };
-        private final Runnable SET_BEGINNING_TIME = () -> { setBeginningTime(); };
+        // Executable methods, each applied to the account that entered the command
+        private static final Consumer< InformationHandler > ADD_SECURITY_QUESTIONS = InformationHandler::addSecurityQuestions;
+        private static final Consumer< InformationHandler > GET_TIME_ELAPSED = InformationHandler::promptTimeElapsed;
+        private static final Consumer< InformationHandler > SET_BEGINNING_TIME = InformationHandler::setBeginningTime;
 
-        // Sorting into arrays so that the processor can initialize them into a HashMap
+        // Sorting into arrays so that the processor can compile them into its dispatcher
         private final String[] keyArray = 
-            new String[]{ "ADD SECURITY QUESTIONS", "CHALLENGE SECURITY QUESTION", "GET TIME ELAPSED", "SET BEGINNING TIME" };
-        private final Runnable[] runnableArray = 
-            new Runnable[]{ ADD_SECURITY_QUESTIONS, CHALLENGE_SECURITY_QUESTION, GET_TIME_ELAPSED, SET_BEGINNING_TIME };
+            new String[]{ "ADD SECURITY QUESTIONS", "GET TIME ELAPSED", "SET BEGINNING TIME" };
+        private final List< Consumer< InformationHandler > > commandList = 
+            List.of( ADD_SECURITY_QUESTIONS, GET_TIME_ELAPSED, SET_BEGINNING_TIME );
 
-        // Necessary object for lambda expressions executions
-        private Map< String, Runnable > executableProcessor;
+        // Shorter names accepted in place of a full key
+        private final Map< String, String > aliases = Map.of(
+            "ADD SQ", "ADD SECURITY QUESTIONS", "TIME ELAPSED", "GET TIME ELAPSED", "RESET TIME", "SET BEGINNING TIME" );
+
+        // Matches user input to commands without allocating or scanning every key
+        private final CommandDispatcher< Consumer< InformationHandler > > dispatcher;
 
         private final int TOTAL_NUMBER_OF_ITEMS = keyArray.length;
 
         /**
          * No-arg constructor method
          */
-        public Processor() {
-            this.executableProcessor = new HashMap<>();
-            initializeProcessor();
+        private Processor() {
+            Map< String, Consumer< InformationHandler > > processor = new LinkedHashMap<>();
+            for (int i = 0; i < TOTAL_NUMBER_OF_ITEMS; i++) {
+                processor.put( keyArray[i], Metrics.timed( keyArray[i], commandList.get( i ) ) );
+            }
+            this.dispatcher = new CommandDispatcher<>( processor, aliases );
         }
 
         /**
@@ -47,124 +57,147 @@ public class InformationHandler {
          * @return String array of procesor keys
          */
         public String[] getKeys() {
-            return this.keyArray;
+            return this.keyArray.clone();
         }
 
         /**
-         * Void method which initializes the processor by adding final key Strings as
-         * keys to the executableProcessor HashMap, with runnable methods as values
+         * Finds the command selected by user input: a full key, an alias, or an unambiguous
+         * prefix of either
+         * @param input CharSequence entered by the user
+         * @return Command to be applied to an account, or null if the input selects none
          */
-        public void initializeProcessor() {
-            for (int i = 0; i < TOTAL_NUMBER_OF_ITEMS; i++) {
-                this.executableProcessor.put( keyArray[i], runnableArray[i] );
-            }
-        }
-
-        /**
-         * Returns executable processor so that other class files can execute the processor capabilities
-         * @return Map object called executableProcessor
-         */
-        public Map < String, Runnable > getExecutableProcessor() {
-            System.out.println( formatHelper.basicMessage( "SYSTEM ALERT", "PROCESSOR IS EXECUTING A LAMBDA EXPRESSION!" ) );
-            return this.executableProcessor;
+        public Consumer< InformationHandler > lookup( CharSequence input ) {
+            return this.dispatcher.lookup( input );
         }
     }
 
-    private final String ADD_SQ_PROCESSOR_KEY = "ADD SECURITY QUESTIONS";
-    private final String NO_SQ_ERROR = "No security questions found for this account. Login failed.";
-    private final String[] POSSIBLE_SECURITY_QUESTIONS = 
-        new String[]{ "what is your father's middle name?", "what year was your mother born?", 
-                      "what was the name of your high school best friend?", 
-                      "what city were you born in?", "what was the name of your favorite teacher?" };
-    private final String[] KEY_CHECKLIST = new String[]{ ADD_SQ_PROCESSOR_KEY };
-    private final Integer MAX_NUM_SECURITY_QUESTIONS = 3;    
-    private final int MAX_SQ_ATTEMPTS = 3;
-
-    // Checklist of incomplete and complete items which requires action from the user
-    private Map< String, Boolean > checklist;
-
-    // Security question HashMap where the keys are questions and the values are answers
-    private Map< String, String > securityQuestions;
+    // Shared by every account, none of these hold per-user state
+    private static final Processor PROCESSOR = new Processor();
+    private static final FormatHelper formatHelper = new FormatHelper();
 
-    // Checks if a log-in attempt successfully passed a security question challenge
-    private boolean passedSecurityQuestions;
+    private static final String ADD_SQ_PROCESSOR_KEY = "ADD SECURITY QUESTIONS";
+    private static final ChecklistRegistry.Task ADD_SQ_TASK = ChecklistRegistry.register( ADD_SQ_PROCESSOR_KEY );
+    private static final int MAX_NUM_SECURITY_QUESTIONS = 3;    
 
-    // Processes user terminal input
-    private Processor processor;
+    // Notification text for every possible number of incomplete items, regrown when tasks are registered
+    private static volatile String[] notificationNotices = initializeNotices( ChecklistRegistry.size() );
 
-    // Used to track time in a readable format
-    private SystemTime clock;
+    // Checklist tasks completed by the user, one bit per ChecklistRegistry task, and how many
+    // bits are set, kept up to date on every change so counting incomplete items never scans
+    private volatile long completedItems;
+    private volatile int numCompletedItems;
 
-    // Formats basic messages
-    private FormatHelper formatHelper = new FormatHelper();
+    // Bit i is set once question i of the SecurityQuestionCatalog is answered
+    private volatile int answeredQuestions;
 
-    // Number of items incomplete in an account and necessary for the user to complete
-    private int numberIncomplete = 0;
+    // Salt and salted hash of every answer, at 2 * id and 2 * id + 1.  Stays null until the
+    // first question is answered, and is never written once published; every change replaces it
+    // with a changed copy, so a reader always sees a salt and hash that belong together
+    private volatile long[] securityAnswers;
 
-    // Time of account creation in MM:DD:YYYY HH:mm:ss readable format
-    private String timeCreated;
+    // Time of account creation in epoch milliseconds, only formatted when displayed
+    private long timeCreated;
 
-    // Time of successful account login
-    private long beginningTime;
+    // Account this information belongs to, and where its changes are reported
+    private User owner;
+    private AccountListener listener;
 
     /**
-     * No-arg constructor
+     * No-arg constructor, times the account's creation by the system clock
      */
     public InformationHandler() {
-        this.checklist = new HashMap< String, Boolean >();
-        this.securityQuestions = new HashMap< String, String >();
-        this.processor = new Processor();
-        this.passedSecurityQuestions = false;
-        this.clock = new SystemTime();
-        this.timeCreated = clock.getCurrentTime();
-        this.beginningTime = System.currentTimeMillis();
-        initializeChecklist();
+        this( SystemTime.get() );
+    }
+
+    /**
+     * InformationHandler constructor method
+     * @param clock SystemTime that times the account's creation, i.e. the clock of its UserList
+     */
+    public InformationHandler( SystemTime clock ) {
+        this.timeCreated = clock.currentTimeMillis();
     }
 
     /**
      * Getter method that returns the incomplete/complete account items checklist
-     * @return HashMap object called checklist
+     * @return Read-only map of every registered task to whether the account completed it, in
+     * registration order
      */
     public Map< String, Boolean > getChecklist() {
-        return this.checklist;
+        long completed = this.completedItems;
+        Map< String, Boolean > checklist = new LinkedHashMap<>();
+        for ( ChecklistRegistry.Task task : ChecklistRegistry.getTasks() ) {
+            checklist.put( task.getKey(), ( completed & task.getMask() ) != 0 );
+        }
+        return Collections.unmodifiableMap( checklist );
     }
 
     /**
-     * Getter method that returns the information handler Processor object
-     * @return non-static Processor object
+     * Connects this information object to the account it belongs to, so that every later
+     * change to it is reported to the UserList's listeners
+     * @param owner User that owns this information object
+     * @param listener AccountListener to be notified of changes
      */
-    public Processor getProcessor() {
-        return this.processor;
+    public void attach( User owner, AccountListener listener ) {
+        this.owner = owner;
+        this.listener = listener;
     }
 
     /**
-     * Counts the number of incomplete actions/items that require a user action
-     * @return Integer number of incomplete items in the checklist
+     * Getter method that returns the security questions the account answered
+     * @return List of lower case questions in catalog order
      */
-    public int getNumOfIncompleteItems() {
-        this.numberIncomplete = 0;
-        for ( boolean value : checklist.values() ) {
-            if ( value == false ) this.numberIncomplete++;
+    public List< String > getSecurityQuestions() {
+        List< String > questions = new ArrayList<>();
+        for ( int answered = this.answeredQuestions; answered != 0; answered &= answered - 1 ) {
+            questions.add( SecurityQuestionCatalog.question( Integer.numberOfTrailingZeros( answered ) ) );
         }
-        return this.numberIncomplete;
+        return questions;
     }
 
     /**
-     * Void method that sets the boolean value of passedSecurityQuestions
-     * @param pass Boolean on whether or not the user passed the
-     * security question prompt
+     * Getter method that returns the salt an answer was hashed with
+     * @param question String, one of getSecurityQuestions
+     * @return Long salt, or 0 if the question was not answered
      */
-    private void setPassedSecurityQuestions( boolean pass ) {
-        this.passedSecurityQuestions = pass;
+    public long getSecurityAnswerSalt( String question ) {
+        int id = answeredId( question );
+        return ( id < 0 ) ? 0 : this.securityAnswers[ 2 * id ];
     }
 
     /**
-     * Getter method that returns whether or not the user passed 
-     * the security question prompts
-     * @return True if user passed security questions, False if otherwise
+     * Getter method that returns the salted hash of an answer
+     * @param question String, one of getSecurityQuestions
+     * @return Long hash, or 0 if the question was not answered
      */
-    public boolean getPassedSecurityQuestions() {
-        return this.passedSecurityQuestions;
+    public long getSecurityAnswerHash( String question ) {
+        int id = answeredId( question );
+        return ( id < 0 ) ? 0 : this.securityAnswers[ 2 * id + 1 ];
+    }
+
+    /**
+     * Private helper method which returns the catalog ID of a question the account answered
+     * @param question String, question in any case
+     * @return Integer ID, or -1 if the question is unknown or was not answered
+     */
+    private int answeredId( String question ) {
+        int id = SecurityQuestionCatalog.idOf( question );
+        return ( id >= 0 && ( this.answeredQuestions & ( 1 << id ) ) != 0 ) ? id : -1;
+    }
+
+    /**
+     * Getter method that returns the information handler Processor object
+     * @return non-static Processor object
+     */
+    public Processor getProcessor() {
+        return PROCESSOR;
+    }
+
+    /**
+     * Counts the number of incomplete actions/items that require a user action
+     * @return Integer number of incomplete items in the checklist
+     */
+    public int getNumOfIncompleteItems() {
+        return ChecklistRegistry.size() - this.numCompletedItems;
     }
 
     /**
@@ -176,23 +209,90 @@ public class InformationHandler {
      * @return True if item is complete, false if item requires a user action
      */
     public boolean getChecklistItem( String key ) {
-        return this.checklist.get( key );
+        ChecklistRegistry.Task task = ChecklistRegistry.lookup( key );
+        return task != null && ( this.completedItems & task.getMask() ) != 0;
+    }
+
+    /**
+     * Setter method which marks a checklist item as complete or incomplete and reports the change
+     * while holding the account's lock.  An item that is not registered yet (i.e. one restored from an older data directory) is
+     * registered first
+     * @param key String value which corresponds to the incomplete/complete item/action
+     * @param complete True if item is complete, false if item requires a user action
+     */
+    public void setChecklistItem( String key, boolean complete ) {
+        long mask = ChecklistRegistry.register( key ).getMask();
+        synchronized ( this ) {
+            long completed = this.completedItems;
+            if ( complete && ( completed & mask ) == 0 ) { this.completedItems = completed | mask; this.numCompletedItems++; }
+            else if ( !complete && ( completed & mask ) != 0 ) { this.completedItems = completed & ~mask; this.numCompletedItems--; }
+            // Reported under the lock, so listeners see changes to an account in the order they were made
+            if ( listener != null ) { listener.checklistUpdated( owner, key, complete ); }
+        }
+    }
+
+    /**
+     * Setter method which hashes and stores the answer to a security question and reports the
+     * change.  Questions that are not in the catalog are ignored
+     * @param question String, security question
+     * @param answer String, the account's answer to the question
+     */
+    public void putSecurityQuestion( String question, String answer ) {
+        int id = SecurityQuestionCatalog.idOf( question );
+        if ( id < 0 ) { return; }
+        long salt = SecurityQuestionCatalog.newSalt();
+        restoreSecurityAnswer( question, salt, SecurityQuestionCatalog.hash( id, salt, answer ) );
     }
 
     /**
-     * Void methoid which initializes the value and keys of the user's checklist
+     * Setter method which stores an answer read back as text from a journal or snapshot of an
+     * earlier version and reports the change.  The answer is hashed the fast legacy way, so that
+     * replaying many of them stays quick, and is rehashed once it is next answered correctly
+     * @param question String, security question
+     * @param answer String, the account's answer to the question
      */
-    public void initializeChecklist() {
-        for ( String key : KEY_CHECKLIST ) this.checklist.put( key, false );
+    public void restoreTextSecurityAnswer( String question, String answer ) {
+        int id = SecurityQuestionCatalog.idOf( question );
+        if ( id < 0 ) { return; }
+        long salt = SecurityQuestionCatalog.newSalt();
+        restoreSecurityAnswer( question, salt, SecurityQuestionCatalog.legacyHash( id, salt, answer ) );
+    }
+
+    /**
+     * Setter method which stores an already hashed answer to a security question (i.e. one read
+     * back from a journal or snapshot) and reports the change.  The answer is written into a copy
+     * of the stored answers which then replaces them, so a concurrent check never sees the new salt
+     * with the old hash.  Questions that are not in the catalog are ignored
+     * @param question String, security question
+     * @param salt Long salt the answer was hashed with
+     * @param hash Long salted hash of the answer
+     */
+    public void restoreSecurityAnswer( String question, long salt, long hash ) {
+        int id = SecurityQuestionCatalog.idOf( question );
+        if ( id < 0 ) { return; }
+        synchronized ( this ) {
+            long[] current = this.securityAnswers;
+            long[] answers = ( current == null ) ? new long[ 2 * SecurityQuestionCatalog.size() ] : current.clone();
+            answers[ 2 * id ] = salt;
+            answers[ 2 * id + 1 ] = hash;
+            this.securityAnswers = answers;
+            // Written last, so a reader that sees the bit also sees the hash
+            this.answeredQuestions |= 1 << id;
+            if ( listener != null ) { listener.securityQuestionAdded( owner, SecurityQuestionCatalog.question( id ), salt, hash ); }
+        }
     }
 
     /**
-     * Void method which accepts String inputs and executes a processor Runnable method
-     * if the input matches a processor key.  Otherwise, nothing happens
-     * @param key String value which the processor attempts to match to its String keys
+     * Void method which accepts String inputs and executes a processor command
+     * if the input selects one.  Otherwise, nothing happens
+     * @param key String value which the processor attempts to match to its commands
+     * @return True if a command was executed, false if otherwise
      */
-    public void executeProcessor( String key ) {
-        getProcessor().getExecutableProcessor().get( key ).run();
+    public boolean executeProcessor( String key ) {
+        Consumer< InformationHandler > command = getProcessor().lookup( key );
+        if ( command == null ) { return false; }
+        command.accept( this );
+        return true;
     }
 
     /**
@@ -202,8 +302,24 @@ public class InformationHandler {
      * their account has
      */
     public String notificationNotice() {
-        return formatHelper.basicMessage( "NOTIFS", 
-            String.format( "You have %s incomplete item(s).", String.valueOf( getNumOfIncompleteItems() ) ) );
+        int incomplete = getNumOfIncompleteItems();
+        String[] notices = notificationNotices;
+        if ( incomplete >= notices.length ) { notificationNotices = notices = initializeNotices( ChecklistRegistry.size() ); }
+        return notices[ incomplete ];
+    }
+
+    /**
+     * Private helper method which formats the notification notice for every possible
+     * number of incomplete items
+     * @param numberOfTasks Integer number of registered checklist tasks
+     * @return String array where index i holds the notice for i incomplete items
+     */
+    private static String[] initializeNotices( int numberOfTasks ) {
+        String[] notices = new String[ numberOfTasks + 1 ];
+        for ( int i = 0; i < notices.length; i++ ) {
+            notices[i] = formatHelper.basicMessage( "NOTIFS", String.format( "You have %s incomplete item(s).", String.valueOf( i ) ) );
+        }
+        return notices;
     }
 
     /**
@@ -212,147 +328,190 @@ public class InformationHandler {
      * @return True if security question creation is complete, false if otherwise
      */
     private boolean checkSecurityQuestionsComplete() {
-        if ( this.securityQuestions.size() < MAX_NUM_SECURITY_QUESTIONS ) { return false; }
+        if ( Integer.bitCount( this.answeredQuestions ) < MAX_NUM_SECURITY_QUESTIONS ) { return false; }
         return true;
     }
 
     /**
      * Private helper method that assists the security question creation process.  Ensures
      * that there are no duplicate security questions in a user's account (or an accidental
-     * overwrite of an already-existing security question in the HashMap)
+     * overwrite of an already-existing security answer)
      * @param key String security question to be checked if it already exists in user's
      * security question list
      * @return True if security question does not exist in user account, false if otherwise
      */
     private boolean checkIfSecurityQuestionPresent( String key ) {
-        return this.securityQuestions.containsKey( key );
+        return answeredId( key ) >= 0;
     }
 
     /**
-     * Private helper method which selects a random security question from the private variable
-     * String array list POSSIBLE_SECURITY_QUESTIONS
-     * @return String question obtained from random selection on POSSIBLE_SECURITY_QUESTIONS
+     * Private helper method which selects a random security question from the SecurityQuestionCatalog
+     * @return String question obtained from random selection on the catalog
      */
     private String generateRandomSecurityQuestion() {
-        return POSSIBLE_SECURITY_QUESTIONS[ ( new Random() ).nextInt( POSSIBLE_SECURITY_QUESTIONS.length ) ].toLowerCase();
+        return SecurityQuestionCatalog.question( ThreadLocalRandom.current().nextInt( SecurityQuestionCatalog.size() ) );
     }
 
     /**
      * Private helper method that handles security question and answer creation, ensuring that
-     * there are no duplicates or overwrites of already-existing questions during creation.  Puts
-     * security question string as key and answer string as value in the securityQuestions
-     * HashMap
+     * there are no duplicates or overwrites of already-existing questions during creation.  Stores
+     * the salted hash of the answer under the question's catalog ID
      */
     private void createSecurityQuestion() {
         String question = generateRandomSecurityQuestion();
         if ( checkIfSecurityQuestionPresent( question ) ) { return; }
-        System.out.println( formatHelper.basicMessage( "SYSTEM", "Please answer the question: " + question ) );
-        Scanner input = new Scanner( System.in );
-        this.securityQuestions.put( question, input.nextLine().toLowerCase() );
+        Console console = Console.current();
+        console.println( formatHelper.basicMessage( "SYSTEM", "Please answer the question: " + question ) );
+        addSecurityAnswer( question, console.readLine() );
     }
 
     /**
-     * Security question creation primary method which can be called to initiate security question creation.  
-     * Will not execute if security question creation has already been completed for the specific account
-     * it is called on
+     * Getter method which returns the security questions an account can choose answers for
+     * @return Read-only list of lower case security questions
      */
-    public void addSecurityQuestions() {
-        while ( !checkSecurityQuestionsComplete() ) createSecurityQuestion();
-        this.checklist.put( ADD_SQ_PROCESSOR_KEY, true );
-        System.out.println( formatHelper.basicMessage( "SYSTEM", "Security Question creation complete." ) );
+    public static List< String > getSecurityQuestionChoices() {
+        return SecurityQuestionCatalog.getQuestions();
+    }
+
+    /**
+     * Stores the answer to one of the possible security questions, completing the security
+     * question checklist item once enough questions are answered.  The deliberately slow hash is
+     * made before taking the account's lock, which is only held to store it.  Reads no input
+     * @param question String, one of getSecurityQuestionChoices
+     * @param answer String, answer in any case
+     * @return True if the answer was stored, false if the question is unknown or already
+     * answered, or security question creation is already complete
+     */
+    public boolean addSecurityAnswer( String question, String answer ) {
+        if ( question == null || answer == null || !canAddSecurityAnswer( question ) ) { return false; }
+        int id = SecurityQuestionCatalog.idOf( question );
+        long salt = SecurityQuestionCatalog.newSalt();
+        long hash = SecurityQuestionCatalog.hash( id, salt, answer );
+        synchronized ( this ) {
+            // Checked again, as another session may have answered while this one was hashing
+            if ( !canAddSecurityAnswer( question ) ) { return false; }
+            restoreSecurityAnswer( question, salt, hash );
+            if ( checkSecurityQuestionsComplete() ) { setChecklistItem( ADD_SQ_TASK.getKey(), true ); }
+        }
+        return true;
     }
 
     /**
-     * Private helper method which selects a random security question from a user's account.  Currently
-     * not finished and results in duplicate selections 
-     * @return String object, security question of which was randomly selected from the user's account
+     * Private helper method which checks whether an answer to a question could be stored
+     * @param question String, security question
+     * @return True if the question is in the catalog and not answered yet, and security question
+     * creation is not complete, false if otherwise
      */
-    private String selectSecurityQuestion() {
-        // BUG: For future, create a stack so that the questions don't repeat
-        return (String)this.securityQuestions.keySet().toArray()[ ( new Random() ).nextInt( MAX_NUM_SECURITY_QUESTIONS ) ];
+    private boolean canAddSecurityAnswer( String question ) {
+        return !checkSecurityQuestionsComplete() && SecurityQuestionCatalog.idOf( question ) >= 0
+            && !checkIfSecurityQuestionPresent( question );
     }
-    
+
     /**
-     * Private helper method which displays the security question in the terminal.  Will return
-     * null if security question creation is incomplete for the specific account, otherwise
-     * will call another method
-     * @return String, random selection of a security question or null
+     * Starts a challenge that asks the account's security questions in a random order of its
+     * own.  Reads no input
+     * @return SecurityChallenge, or null if security question creation is incomplete
      */
-    private String displaySecurityQuestion() {
-        if ( !checkSecurityQuestionsComplete() ) { 
-            return null; }
-        return selectSecurityQuestion();
+    public SecurityChallenge newSecurityChallenge() {
+        if ( !checkSecurityQuestionsComplete() ) { return null; }
+        return new SecurityChallenge( getSecurityQuestions().toArray( new String[0] ) );
     }
 
     /**
-     * Private helper method which checks whether or not the user entered the right answer
-     * to the displayed security question
-     * @param question String, security question to be answered
-     * @return True if user entered the correct answer, false if otherwise
+     * Checks an answer to one of the account's security questions and counts the outcome.
+     * Reads no input
+     * @param question String, security question being answered
+     * @param answer String, attempted answer in any case
+     * @return True if the answer is correct, false if otherwise
      */
-    private boolean answerSecurityQuestion( String question ) {
-        Scanner input = new Scanner( System.in );
-        System.out.println( formatHelper.basicMessage( "SECURITY CHALLENGE", "Please answer the following question: " + question ) );
-        String answer = input.nextLine().toLowerCase();
-        return ( this.securityQuestions.get( question ) ).equals( answer );
+    public boolean checkSecurityAnswer( String question, String answer ) {
+        int id = answeredId( question );
+        long[] answers = this.securityAnswers;
+        boolean correct = id >= 0 && answer != null
+            && SecurityQuestionCatalog.matches( id, answers[ 2 * id ], answers[ 2 * id + 1 ], answer );
+        Metrics.increment( correct ? Metrics.CHALLENGES_PASSED : Metrics.CHALLENGES_FAILED );
+        return correct;
     }
 
     /**
-     * Priavte helper method which checks how many times the user attempted
-     * a security question after a failed log-in attempt
-     * @return True if user answers security question correctly, false if otherwise
+     * Replaces the legacy hash of an answer that was just checked correct with a hash made the
+     * current way, and reports the change.  Answers that already have a current hash are left alone
+     * @param question String, security question that was answered
+     * @param answer String, the correct answer
      */
-    private boolean attemptSecurityQuestion() {
-        int attempts = 0;
-        while ( attempts < MAX_SQ_ATTEMPTS ) {
-            if ( answerSecurityQuestion( displaySecurityQuestion() ) ) { return true; }
-            attempts++; }
-        return false;
+    public void upgradeSecurityAnswer( String question, String answer ) {
+        int id = answeredId( question );
+        if ( id >= 0 && SecurityQuestionCatalog.isLegacy( this.securityAnswers[ 2 * id + 1 ] ) ) {
+            putSecurityQuestion( question, answer ); }
     }
 
     /**
-     * Security question challenge primary method which prompts the user to answer an account's security questions.
-     * Will only accept 3 attempts- if failed, the system will close the log-in attempt and return
-     * the user to the main SystemHandler menu.  Otherwise will allow a log-in if successful
+     * Security question creation primary method which can be called to initiate security question creation.  
+     * Will not execute if security question creation has already been completed for the specific account
+     * it is called on, or if the account is logged into on a read-only replica
      */
-    public void challengeSecurityQuestion() {
-        boolean securityQuestionsExist = displaySecurityQuestion() != null;
-        if ( !securityQuestionsExist ) { System.out.println( formatHelper.basicMessage( "ACCOUNT ERROR", NO_SQ_ERROR ) ); }
-        else {
-        boolean pass = attemptSecurityQuestion();
-        setPassedSecurityQuestions( pass ); }
+    public void addSecurityQuestions() {
+        AccountSession session = AccountSession.current();
+        if ( session != null && session.isReadOnly() ) {
+            Console.current().println( formatHelper.basicMessage( "SYSTEM", "Accounts cannot be changed on a read-only replica." ) );
+            return;
+        }
+        while ( !checkSecurityQuestionsComplete() ) createSecurityQuestion();
+        setChecklistItem( ADD_SQ_TASK.getKey(), true );
+        Console.current().println( formatHelper.basicMessage( "SYSTEM", "Security Question creation complete." ) );
     }
 
     /**
      * Setter method that sets the time of account creation on a specific account
      */
     public void setTimeCreated() {
-        this.timeCreated = clock.getCurrentTime();
+        this.timeCreated = SystemTime.get().currentTimeMillis();
+    }
+
+    /**
+     * Setter method that restores a previously recorded time of account creation
+     * @param timeCreated Long time of account creation in epoch milliseconds
+     */
+    public void setTimeCreated( long timeCreated ) {
+        this.timeCreated = timeCreated;
     }
 
     /**
      * Geter method that returns the time an account was created
-     * @return
+     * @return Long time of account creation in epoch milliseconds
      */
-    public String getTimeCreated() {
+    public long getTimeCreatedMillis() {
         return this.timeCreated;
     }
 
+    /**
+     * Geter method that returns the time an account was created in readable form
+     * @return String, time of account creation in MM-dd-yyyy HH:mm:ss format
+     */
+    public String getTimeCreated() {
+        return SystemTime.format( this.timeCreated );
+    }
+
     /**
      * Private helper and getter method that calculates how log a user has been
-     * logged into a specific account, and converts it into a readable format
+     * logged into a specific account, and converts it into a readable format.  Read
+     * from the calling thread's session, so concurrent logins to the same account
+     * each keep their own clock
      * @return Readable formatted string for how long a user has been logged into a
-     * specific account
+     * specific account, or null if the calling thread has no session
      */
     private String getElapsedTime() {
-        return String.valueOf( ( System.currentTimeMillis() - this.beginningTime ) / 1000 );
+        AccountSession session = AccountSession.current();
+        if ( session == null ) { return null; }
+        return String.valueOf( ( session.getClock().monotonicMillis() - session.getLoginTime() ) / 1000 );
     }
 
     /**
-     * Setter method that sets the time a user logged into a specific account
+     * Setter method that restarts the login clock of the calling thread's session
      */
     public void setBeginningTime() {
-        this.beginningTime = System.currentTimeMillis();
+        AccountSession session = AccountSession.current();
+        if ( session != null ) { session.setLoginTime( session.getClock().monotonicMillis() ); }
     }
     
     /**
@@ -360,8 +519,9 @@ public class InformationHandler {
      * a specific account.  Requires future expansion to be a more effective method
      */
     public void promptTimeElapsed() {
-        String message = formatHelper.basicMessage( 
-            "CLOCK", String.format( "%s seconds since most recent login.", getElapsedTime() ) );
-        System.out.println( message );
+        String elapsed = getElapsedTime();
+        String message = ( elapsed == null ) ? formatHelper.basicMessage( "CLOCK", "No active session." )
+            : formatHelper.basicMessage( "CLOCK", String.format( "%s seconds since most recent login.", elapsed ) );
+        Console.current().println( message );
     }
 }
\ No newline at end of file
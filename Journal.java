@@ -0,0 +1,566 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/**
+ * Journal class which makes a UserList durable.  Every account change is appended to a
+ * write-ahead log segment before the change is acknowledged, and the log is periodically
+ * compacted into a snapshot so that restart replay time stays bounded.
+ *
+ * Appends are group-committed: callers queue their record and wait while a single writer
+ * thread writes everything queued so far and forces it to disk with one fsync, so many
+ * concurrent sessions share the cost of each fsync.
+ *
+ * Replaying a record is idempotent, which lets a snapshot be written while sessions keep
+ * changing accounts: the log segment that was active when the snapshot began is replayed
+ * on top of it after a restart.
+ *
+ * A journal can also make one shard of a UserList durable, holding only the accounts the shard
+ * owns; a ShardedJournal decides which shard journal records each change
+ *
+ * Bugs: The snapshot of a shard journal is decoded in full when it is opened
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class Journal implements AccountListener {
+
+    // Version 1 logs recorded creation times as formatted text, version 2 logs as epoch
+    // milliseconds.  Version 1 and 2 logs recorded answers as text, which are hashed on replay,
+    // and version 3 logs recorded SHA-256 hashes, which are replayed as legacy hashes
+    private static final byte CREATE_USER_V1 = 1;
+    private static final byte SECURITY_QUESTION_V1 = 2;
+    private static final byte CHECKLIST_ITEM = 3;
+    private static final byte CREATE_USER = 4;
+    private static final byte SECURITY_QUESTION_V3 = 5;
+    private static final byte SECURITY_QUESTION = 6;
+
+    private static final String SNAPSHOT_FILE = "accounts.snapshot";
+    private static final String SEGMENT_PREFIX = "accounts-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    // A snapshot is taken once this many records were logged, checked every SNAPSHOT_CHECK_SECONDS
+    private static final long SNAPSHOT_RECORD_THRESHOLD = 50_000;
+    private static final long SNAPSHOT_CHECK_SECONDS = 30;
+
+    private final File directory;
+    private final UserList userList;
+
+    // Accounts this journal records, and where their snapshot is written from if not userList
+    private final Predicate< String > owns;
+    private final UserStore source;
+
+    // Held while a snapshot is written, shared by the shards of a ShardedJournal
+    private final Object snapshotLock;
+    private final FormatHelper formatHelper = new FormatHelper();
+
+    // Guards the queue of records waiting for the writer and the sequence numbers below
+    private final Object queueLock = new Object();
+    private List< byte[] > pending = new ArrayList<>();
+    private long appendedSequence = 0;
+    private long durableSequence = 0;
+    private IOException failure;
+    private boolean closed = false;
+
+    // Guards the active segment so that rotation never interleaves with a batch write
+    private final Object segmentLock = new Object();
+    private FileChannel segment;
+    private long segmentNumber;
+
+    private final AtomicLong recordsSinceSnapshot = new AtomicLong();
+    private final Thread writer;
+    private final ScheduledExecutorService snapshotter;
+
+    /**
+     * Private constructor method, journals are created through open() and openShard()
+     * @param directory Directory holding the snapshot and log segments
+     * @param userList UserList being made durable
+     * @param owns Predicate of upper case usernames, true for the accounts this journal records
+     * @param source UserStore holding the accounts of a shard among others, or null for the whole userList
+     * @param snapshotLock Object held while a snapshot is written
+     */
+    private Journal( File directory, UserList userList, Predicate< String > owns, UserStore source, Object snapshotLock ) {
+        this.directory = directory;
+        this.userList = userList;
+        this.owns = owns;
+        this.source = source;
+        this.snapshotLock = snapshotLock;
+        this.writer = new Thread( this::writeLoop, "journal-writer" );
+        this.writer.setDaemon( true );
+        this.snapshotter = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            Thread thread = new Thread( runnable, "journal-snapshot" );
+            thread.setDaemon( true );
+            return thread; } );
+    }
+
+    /**
+     * Restores a UserList from the snapshot and log segments in a directory, then starts
+     * logging every later change to that UserList
+     * @param directory Directory holding the snapshot and log segments, created if missing
+     * @param userList Empty UserList that the recorded accounts are restored into
+     * @return Journal that is now recording changes to userList
+     * @throws IOException if the directory cannot be read or a new segment cannot be created
+     */
+    public static Journal open( File directory, UserList userList ) throws IOException {
+        Journal journal = new Journal( directory, userList, name -> true, null, new Object() );
+        journal.restore();
+        userList.addAccountListener( journal );
+        journal.start();
+        return journal;
+    }
+
+    /**
+     * Restores the accounts one shard owns from the snapshot and log segments in a directory,
+     * then starts the writer.  The journal does not listen to the UserList itself: changes are
+     * handed to it by the ShardedJournal that owns it, and records of accounts the shard does
+     * not own are skipped on replay
+     * @param directory Directory holding the shard's snapshot and log segments, created if missing
+     * @param userList UserList that the owned accounts are restored into
+     * @param source UserStore holding the shard's accounts among others, the owned ones are
+     * written out by snapshot()
+     * @param owns Predicate of upper case usernames, true for the accounts the shard owns
+     * @param snapshotLock Object held while a snapshot is written, so that the ShardedJournal
+     * can keep snapshots out of the way while accounts change shards
+     * @return Journal ready to record changes to the shard's accounts
+     * @throws IOException if the directory cannot be read or a new segment cannot be created
+     */
+    public static Journal openShard( File directory, UserList userList, UserStore source,
+                                     Predicate< String > owns, Object snapshotLock ) throws IOException {
+        Journal journal = new Journal( directory, userList, owns, source, snapshotLock );
+        journal.restore();
+        journal.start();
+        return journal;
+    }
+
+    /**
+     * Private helper method which restores the snapshot, replays every segment recorded since
+     * and opens a fresh segment to append to
+     * @throws IOException if the directory cannot be read or a new segment cannot be created
+     */
+    private void restore() throws IOException {
+        Files.createDirectories( directory.toPath() );
+        long firstSegment = readSnapshot();
+        long lastSegment = firstSegment - 1;
+        for ( long number : listSegments() ) {
+            if ( number < firstSegment ) { segmentFile( number ).delete(); continue; }
+            replaySegment( number );
+            lastSegment = number;
+        }
+        // Never append to an old segment, its tail may be torn
+        openSegment( Math.max( lastSegment + 1, firstSegment ) );
+    }
+
+    /**
+     * Private helper method which starts the writer thread and the periodic snapshots
+     */
+    private void start() {
+        writer.start();
+        snapshotter.scheduleWithFixedDelay( this::snapshotIfDue,
+            SNAPSHOT_CHECK_SECONDS, SNAPSHOT_CHECK_SECONDS, TimeUnit.SECONDS );
+    }
+
+    public void userCreated( User user ) {
+        append( encodeCreation( user ) );
+    }
+
+    public void securityQuestionAdded( User user, String question, long salt, long hash ) {
+        append( encodeSecurityQuestion( user.getName(), question, salt, hash ) );
+    }
+
+    public void checklistUpdated( User user, String key, boolean complete ) {
+        append( encodeChecklistItem( user.getName(), key, complete ) );
+    }
+
+    /**
+     * Logs the whole current state of some accounts, as if they had just been created and then
+     * changed, i.e. when they are moving to this journal's shard.  Their state is read while
+     * holding the queue, so any change to them that was not read yet is logged after it
+     * @param users List of Users whose state is logged
+     */
+    public void appendState( List< User > users ) {
+        long records = 0;
+        synchronized ( queueLock ) {
+            if ( closed ) { throw new IllegalStateException( "Journal is closed." ); }
+            for ( User user : users ) {
+                List< byte[] > state = encodeState( user );
+                pending.addAll( state );
+                records += state.size();
+            }
+            appendedSequence += records;
+            queueLock.notifyAll();
+            awaitDurable( appendedSequence );
+        }
+        recordsSinceSnapshot.addAndGet( records );
+    }
+
+    /**
+     * Serializes the whole current state of an account into records that recreate it when
+     * applied, i.e. to send the account to a replica
+     * @param user User whose state is serialized
+     * @return List of record payloads, the creation first
+     */
+    public static List< byte[] > encodeState( User user ) {
+        InformationHandler information = user.getInformation();
+        List< byte[] > records = new ArrayList<>();
+        records.add( encodeCreation( user ) );
+        for ( String question : information.getSecurityQuestions() ) {
+            records.add( encodeSecurityQuestion( user.getName(), question,
+                information.getSecurityAnswerSalt( question ), information.getSecurityAnswerHash( question ) ) );
+        }
+        for ( Map.Entry< String, Boolean > item : information.getChecklist().entrySet() ) {
+            records.add( encodeChecklistItem( user.getName(), item.getKey(), item.getValue() ) );
+        }
+        return records;
+    }
+
+    /**
+     * Serializes the creation of an account into a record
+     * @param user User that was created
+     * @return Byte array payload of the record
+     */
+    public static byte[] encodeCreation( User user ) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream( 64 );
+            DataOutputStream out = new DataOutputStream( bytes );
+            out.writeByte( CREATE_USER );
+            out.writeUTF( user.getName() );
+            out.writeUTF( user.getPassword() );
+            out.writeLong( user.getInformation().getTimeCreatedMillis() );
+            return bytes.toByteArray();
+        } catch ( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /**
+     * Serializes a hashed security answer into a record
+     * @param name String, upper case username
+     * @param question String, question that was answered
+     * @param salt Long salt of the answer
+     * @param hash Long hash of the answer
+     * @return Byte array payload of the record
+     */
+    public static byte[] encodeSecurityQuestion( String name, String question, long salt, long hash ) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream( 96 );
+            DataOutputStream out = new DataOutputStream( bytes );
+            out.writeByte( SECURITY_QUESTION );
+            out.writeUTF( name );
+            out.writeUTF( question );
+            out.writeLong( salt );
+            out.writeLong( hash );
+            return bytes.toByteArray();
+        } catch ( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /**
+     * Serializes a checklist change into a record
+     * @param name String, upper case username
+     * @param key String, checklist item
+     * @param complete True if the item is now complete, false if otherwise
+     * @return Byte array payload of the record
+     */
+    public static byte[] encodeChecklistItem( String name, String key, boolean complete ) {
+        return encode( CHECKLIST_ITEM, name, key, String.valueOf( complete ) );
+    }
+
+    /**
+     * Private helper method which serializes one account change into a log record
+     * @param type Byte record type
+     * @param fields String fields of the record, in the order apply() reads them
+     * @return Byte array payload of the record
+     */
+    private static byte[] encode( byte type, String... fields ) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream( 64 );
+            DataOutputStream out = new DataOutputStream( bytes );
+            out.writeByte( type );
+            for ( String field : fields ) out.writeUTF( field );
+            return bytes.toByteArray();
+        } catch ( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /**
+     * Applies one log record to a UserList.  Applying the same record twice has no further effect
+     * @param userList UserList the change is applied to
+     * @param in DataInput positioned at the start of a record payload
+     * @throws IOException if the record is malformed
+     */
+    public static void apply( UserList userList, DataInput in ) throws IOException {
+        apply( userList, in, name -> true );
+    }
+
+    /**
+     * Private helper method which applies one log record to a UserList if it belongs to an
+     * account this journal records
+     * @param userList UserList the change is applied to
+     * @param in DataInput positioned at the start of a record payload
+     * @param owns Predicate of upper case usernames, true for the records to be applied
+     * @throws IOException if the record is malformed
+     */
+    private static void apply( UserList userList, DataInput in, Predicate< String > owns ) throws IOException {
+        byte type = in.readByte();
+        String name = in.readUTF();
+        if ( !owns.test( name ) ) { return; }
+        if ( type == CREATE_USER || type == CREATE_USER_V1 ) {
+            User user = new User( name, in.readUTF() );
+            user.getInformation().setTimeCreated( ( type == CREATE_USER ) ? in.readLong() : SystemTime.parse( in.readUTF() ) );
+            userList.addUser( user );
+            return;
+        }
+        User user = userList.retrieveUser( name );
+        String key = in.readUTF();
+        if ( type == SECURITY_QUESTION || type == SECURITY_QUESTION_V3 ) {
+            long salt = in.readLong(), hash = in.readLong();
+            if ( type == SECURITY_QUESTION_V3 ) { hash = SecurityQuestionCatalog.fromLegacy( hash ); }
+            if ( user != null ) { user.getInformation().restoreSecurityAnswer( key, salt, hash ); }
+            return;
+        }
+        String value = in.readUTF();
+        if ( user == null ) { return; }
+        if ( type == SECURITY_QUESTION_V1 ) { user.getInformation().restoreTextSecurityAnswer( key, value ); }
+        else if ( type == CHECKLIST_ITEM ) { user.getInformation().setChecklistItem( key, Boolean.parseBoolean( value ) ); }
+        else { throw new IOException( "Unknown journal record type " + type ); }
+    }
+
+    /**
+     * Private helper method which queues a record for the writer thread and waits until it is
+     * on disk, so a change is never acknowledged before it would survive a crash
+     * @param record Byte array payload of the record
+     */
+    private void append( byte[] record ) {
+        synchronized ( queueLock ) {
+            if ( closed ) { throw new IllegalStateException( "Journal is closed." ); }
+            pending.add( record );
+            long sequence = ++appendedSequence;
+            queueLock.notifyAll();
+            awaitDurable( sequence );
+        }
+        recordsSinceSnapshot.incrementAndGet();
+    }
+
+    /**
+     * Private helper method which waits until the writer has forced a record to disk.  Must be
+     * called while holding the queue lock
+     * @param sequence Long sequence number of the record
+     */
+    private void awaitDurable( long sequence ) {
+        boolean interrupted = false;
+        while ( durableSequence < sequence && failure == null ) {
+            try { queueLock.wait(); }
+            catch ( InterruptedException e ) { interrupted = true; }
+        }
+        if ( interrupted ) { Thread.currentThread().interrupt(); }
+        if ( durableSequence < sequence ) { throw new UncheckedIOException( failure ); }
+    }
+
+    /**
+     * Writer thread loop.  Takes every record queued since the previous batch, writes them with
+     * a single channel write and a single fsync, then releases all of their waiting callers
+     */
+    private void writeLoop() {
+        while ( true ) {
+            List< byte[] > batch;
+            long batchEnd;
+            synchronized ( queueLock ) {
+                while ( pending.isEmpty() && !closed ) {
+                    try { queueLock.wait(); }
+                    catch ( InterruptedException e ) { /* only close() stops the writer */ }
+                }
+                if ( pending.isEmpty() ) { return; }
+                batch = pending;
+                pending = new ArrayList<>();
+                batchEnd = appendedSequence;
+            }
+            try {
+                writeBatch( batch );
+                synchronized ( queueLock ) { durableSequence = batchEnd; queueLock.notifyAll(); }
+            } catch ( IOException e ) {
+                synchronized ( queueLock ) { failure = e; queueLock.notifyAll(); }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Private helper method which frames a batch of records as [length][crc32][payload]
+     * and forces them to the active segment
+     * @param batch Records to be written
+     * @throws IOException if the segment cannot be written
+     */
+    private void writeBatch( List< byte[] > batch ) throws IOException {
+        int size = 0;
+        for ( byte[] record : batch ) size += 8 + record.length;
+        ByteBuffer buffer = ByteBuffer.allocate( size );
+        CRC32 crc = new CRC32();
+        for ( byte[] record : batch ) {
+            crc.reset();
+            crc.update( record );
+            buffer.putInt( record.length ).putInt( (int)crc.getValue() ).put( record );
+        }
+        buffer.flip();
+        synchronized ( segmentLock ) {
+            while ( buffer.hasRemaining() ) segment.write( buffer );
+            segment.force( false );
+        }
+    }
+
+    /**
+     * Private helper method which replays every intact record of a log segment.  Stops at the
+     * first torn or corrupt record, which can only be the unacknowledged tail of a crash
+     * @param number Long number of the segment
+     * @throws IOException if the segment cannot be read
+     */
+    private void replaySegment( long number ) throws IOException {
+        try ( DataInputStream in = new DataInputStream(
+                new BufferedInputStream( new FileInputStream( segmentFile( number ) ) ) ) ) {
+            CRC32 crc = new CRC32();
+            while ( true ) {
+                byte[] record;
+                int checksum;
+                try {
+                    int length = in.readInt();
+                    checksum = in.readInt();
+                    if ( length <= 0 || length > 1 << 20 ) { return; }
+                    record = new byte[ length ];
+                    in.readFully( record );
+                } catch ( EOFException e ) {
+                    return;
+                }
+                crc.reset();
+                crc.update( record );
+                if ( (int)crc.getValue() != checksum ) { return; }
+                apply( userList, new DataInputStream( new ByteArrayInputStream( record ) ), owns );
+            }
+        }
+    }
+
+    /**
+     * Private helper method which returns the numbers of all log segments, oldest first
+     * @return Sorted list of segment numbers
+     */
+    private List< Long > listSegments() {
+        List< Long > numbers = new ArrayList<>();
+        String[] names = directory.list();
+        if ( names == null ) { return numbers; }
+        for ( String name : names ) {
+            if ( !name.startsWith( SEGMENT_PREFIX ) || !name.endsWith( SEGMENT_SUFFIX ) ) { continue; }
+            try { numbers.add( Long.parseLong( name.substring( SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length() ) ) ); }
+            catch ( NumberFormatException e ) { /* not one of ours */ }
+        }
+        Collections.sort( numbers );
+        return numbers;
+    }
+
+    /**
+     * Private helper method which returns the file of a log segment
+     * @param number Long number of the segment
+     * @return File of the segment
+     */
+    private File segmentFile( long number ) {
+        return new File( directory, String.format( "%s%06d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX ) );
+    }
+
+    /**
+     * Private helper method which makes a new, empty segment the active one
+     * @param number Long number of the new segment
+     * @throws IOException if the segment cannot be created
+     */
+    private void openSegment( long number ) throws IOException {
+        synchronized ( segmentLock ) {
+            if ( segment != null ) { segment.force( false ); segment.close(); }
+            segment = FileChannel.open( segmentFile( number ).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND );
+            segmentNumber = number;
+        }
+    }
+
+    /**
+     * Private helper method which backs the UserList with the snapshot, if there is one.  The
+     * snapshot is only mapped here, its accounts are decoded as they are looked up
+     * @return Long number of the first segment that must be replayed on top of the snapshot
+     * @throws IOException if the snapshot exists but cannot be mapped
+     */
+    private long readSnapshot() throws IOException {
+        File file = new File( directory, SNAPSHOT_FILE );
+        if ( !file.exists() ) { return 0; }
+        SnapshotFile snapshot = SnapshotFile.open( file );
+        if ( source == null ) { userList.setBaseline( snapshot ); }
+        // Shards share one UserList, which can only be backed by one snapshot
+        else { snapshot.forEach( user -> { if ( owns.test( user.getName() ) ) userList.addUser( user ); } ); }
+        return snapshot.getFirstSegment();
+    }
+
+    /**
+     * Compacts the log into a new snapshot.  Starts a fresh segment first, writes every account
+     * to a temporary SnapshotFile, atomically replaces the old snapshot with it and only then deletes
+     * the segments it made redundant
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void snapshot() throws IOException {
+        synchronized ( snapshotLock ) { writeSnapshot(); }
+    }
+
+    /**
+     * Private helper method which writes the snapshot.  Must be called while holding the
+     * snapshot lock
+     * @throws IOException if the snapshot cannot be written
+     */
+    private void writeSnapshot() throws IOException {
+        long firstSegment;
+        synchronized ( segmentLock ) {
+            openSegment( segmentNumber + 1 );
+            firstSegment = segmentNumber;
+        }
+        recordsSinceSnapshot.set( 0 );
+        File temporary = new File( directory, SNAPSHOT_FILE + ".tmp" );
+        if ( source == null ) { SnapshotFile.write( temporary, firstSegment, userList ); }
+        else { SnapshotFile.write( temporary, firstSegment, source, owns ); }
+        Files.move( temporary.toPath(), new File( directory, SNAPSHOT_FILE ).toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        for ( long number : listSegments() ) {
+            if ( number < firstSegment ) segmentFile( number ).delete();
+        }
+    }
+
+    /**
+     * Private helper method run by the snapshot thread, takes a snapshot once enough
+     * records have been logged since the previous one
+     */
+    private void snapshotIfDue() {
+        if ( recordsSinceSnapshot.get() < SNAPSHOT_RECORD_THRESHOLD ) { return; }
+        try {
+            snapshot();
+        } catch ( IOException e ) {
+            System.err.println( formatHelper.basicMessage( "JOURNAL ERROR", "Snapshot failed: " + e.getMessage() ) );
+        }
+    }
+
+    /**
+     * Stops accepting records, waits for everything already queued to reach the disk and
+     * closes the active segment
+     * @throws IOException if the segment cannot be closed
+     */
+    public void close() throws IOException {
+        synchronized ( queueLock ) {
+            if ( closed ) { return; }
+            closed = true;
+            queueLock.notifyAll();
+        }
+        snapshotter.shutdownNow();
+        try { writer.join(); }
+        catch ( InterruptedException e ) { Thread.currentThread().interrupt(); }
+        synchronized ( segmentLock ) { segment.close(); }
+    }
+}
@@ -0,0 +1,244 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LoginThrottle class which limits how often log ins can be attempted, both per username and per
+ * terminal session, so that a credential-stuffing burst is turned away before any password is
+ * compared or any security question is asked.
+ *
+ * Each username and each session has a token bucket: an attempt takes one token and tokens
+ * refill at a steady rate up to the bucket's capacity.  A bucket is a single AtomicLong updated
+ * with compare-and-set, so checking a bucket never locks.  Buckets that have refilled completely
+ * carry no information and are swept away by the attempts themselves once a minute, so the
+ * throttle needs no thread of its own.  The number of buckets tracked at once is capped so that
+ * memory stays bounded while under attack.  Once the cap is reached, refilled buckets are swept
+ * right away to make room, and if there is still none the least recently used of a sample of
+ * buckets is forgotten, so a key that was never tried before always gets a bucket of its own
+ *
+ * Bugs: While more keys than the cap are being tried at once, a key tried again only after many
+ * other keys may have been forgotten and starts over with a full bucket
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class LoginThrottle {
+
+    /**
+     * TokenBucket subclass which packs the time of its last update and its remaining tokens
+     * into one long: the upper 42 bits hold milliseconds since the throttle was created and the
+     * lower 22 bits hold thousandths of a token
+     */
+    private static class TokenBucket {
+
+        private static final int TOKEN_BITS = 22;
+        private static final long TOKEN_MASK = ( 1L << TOKEN_BITS ) - 1;
+
+        private final long capacity;
+        private final long refillPerSecond;
+        private final AtomicLong state;
+
+        // Time of the last attempt charged to the bucket, whether or not it went ahead
+        private volatile long lastUsed;
+
+        /**
+         * TokenBucket constructor method, a new bucket starts full
+         * @param capacity Long number of attempts that can be made in a burst
+         * @param refillPerMinute Long number of attempts regained per minute
+         * @param now Long milliseconds since the throttle was created
+         */
+        private TokenBucket( long capacity, long refillPerMinute, long now ) {
+            this.capacity = capacity * 1000;
+            this.refillPerSecond = refillPerMinute * 1000 / 60;
+            this.state = new AtomicLong( ( now << TOKEN_BITS ) | this.capacity );
+            this.lastUsed = now;
+        }
+
+        /**
+         * Private helper method which returns how many thousandths of a token a bucket
+         * state holds once refilled up to a point in time
+         * @param current Long packed bucket state
+         * @param now Long milliseconds since the throttle was created
+         * @return Long thousandths of a token
+         */
+        private long tokensAt( long current, long now ) {
+            long elapsed = Math.max( 0, now - ( current >>> TOKEN_BITS ) );
+            return Math.min( capacity, ( current & TOKEN_MASK ) + elapsed * refillPerSecond / 1000 );
+        }
+
+        /**
+         * Takes one token if the bucket has one
+         * @param now Long milliseconds since the throttle was created
+         * @return True if the attempt may go ahead, false if it must be rejected
+         */
+        private boolean tryAcquire( long now ) {
+            lastUsed = now;
+            while ( true ) {
+                long current = state.get();
+                long tokens = tokensAt( current, now );
+                if ( tokens < 1000 ) { return false; }
+                if ( state.compareAndSet( current, ( now << TOKEN_BITS ) | ( tokens - 1000 ) ) ) { return true; }
+            }
+        }
+
+        /**
+         * Getter method which returns whether the bucket has refilled completely
+         * @param now Long milliseconds since the throttle was created
+         * @return True if the bucket holds no memory of past attempts, false if otherwise
+         */
+        private boolean isFull( long now ) {
+            return tokensAt( state.get(), now ) >= capacity;
+        }
+    }
+
+    // A username can be tried 5 times in a burst and regains 5 attempts per minute
+    private static final long USER_CAPACITY = 5;
+    private static final long USER_REFILL_PER_MINUTE = 5;
+
+    // A session can try 10 log ins in a burst and regains 10 attempts per minute
+    private static final long SESSION_CAPACITY = 10;
+    private static final long SESSION_REFILL_PER_MINUTE = 10;
+
+    private static final int MAX_TRACKED = 100_000;
+    private static final long SWEEP_MILLIS = 60_000;
+
+    // Least time between two sweeps made to find room for a new key
+    private static final long ROOM_SWEEP_MILLIS = 1000;
+
+    // Buckets compared to find the least recently used one to forget when there is no room
+    private static final int EVICTION_SAMPLES = 16;
+
+    private final SystemTime clock;
+    private final long epoch;
+    private volatile boolean enabled = true;
+    private final ConcurrentMap< String, TokenBucket > users = new ConcurrentHashMap<>();
+    private final ConcurrentMap< Object, TokenBucket > sessions = new ConcurrentHashMap<>();
+
+    // Time of the last periodic sweep, and of the last sweep made to find room, so a flood of
+    // new keys sweeps at most once a second
+    private final AtomicLong lastSweep = new AtomicLong();
+    private final AtomicLong lastRoomSweep = new AtomicLong( -ROOM_SWEEP_MILLIS );
+
+    /**
+     * No-arg constructor method, throttles by the system clock
+     */
+    public LoginThrottle() {
+        this( SystemTime.get() );
+    }
+
+    /**
+     * LoginThrottle constructor method
+     * @param clock SystemTime that attempts are timed by, i.e. a ManualClock in tests
+     */
+    public LoginThrottle( SystemTime clock ) {
+        this.clock = clock;
+        this.epoch = clock.monotonicMillis();
+    }
+
+    /**
+     * Private helper method which returns the current time on the throttle's clock
+     * @return Long milliseconds since the throttle was created
+     */
+    private long now() {
+        return clock.monotonicMillis() - epoch;
+    }
+
+    /**
+     * Private helper method which returns the bucket of a key, creating a full one if the key
+     * is new.  When the map is full, refilled buckets are swept to make room first, and if that
+     * frees none a least recently used bucket is forgotten
+     * @param buckets ConcurrentMap of tracked buckets
+     * @param key Object identifying the username or session
+     * @param capacity Long burst size of a new bucket
+     * @param refillPerMinute Long refill rate of a new bucket
+     * @param now Long milliseconds since the throttle was created
+     * @return TokenBucket to be charged
+     */
+    private < K > TokenBucket bucket( ConcurrentMap< K, TokenBucket > buckets, K key,
+                                      long capacity, long refillPerMinute, long now ) {
+        TokenBucket bucket = buckets.get( key );
+        if ( bucket != null ) { return bucket; }
+        if ( buckets.size() >= MAX_TRACKED ) {
+            long last = lastRoomSweep.get();
+            if ( now - last >= ROOM_SWEEP_MILLIS && lastRoomSweep.compareAndSet( last, now ) ) { sweep( buckets, now ); }
+            if ( buckets.size() >= MAX_TRACKED ) { evictLeastRecentlyUsed( buckets ); }
+        }
+        return buckets.computeIfAbsent( key, k -> new TokenBucket( capacity, refillPerMinute, now ) );
+    }
+
+    /**
+     * Charges a log in attempt to its username and to the session it came from
+     * @param username String, upper case username being logged into
+     * @param session Object identifying the terminal session, i.e. its Console, or null if the
+     * attempt did not come through a session
+     * @return True if the attempt may go ahead, false if it must be rejected
+     */
+    public boolean tryAcquire( String username, Object session ) {
+        if ( !enabled ) { return true; }
+        long now = now();
+        long last = lastSweep.get();
+        // One attempt a minute sweeps for everyone, the rest never wait on it
+        if ( now - last >= SWEEP_MILLIS && lastSweep.compareAndSet( last, now ) ) { sweep(); }
+        if ( session != null
+             && !bucket( sessions, session, SESSION_CAPACITY, SESSION_REFILL_PER_MINUTE, now ).tryAcquire( now ) ) { return false; }
+        return bucket( users, username, USER_CAPACITY, USER_REFILL_PER_MINUTE, now ).tryAcquire( now );
+    }
+
+    /**
+     * Setter method which switches throttling on or off, i.e. off while replaying a script
+     * @param enabled True to throttle log in attempts, false to let every attempt through
+     */
+    public void setEnabled( boolean enabled ) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Getter method which returns how many buckets are being tracked
+     * @return Integer number of username and session buckets
+     */
+    public int size() {
+        return users.size() + sessions.size();
+    }
+
+    /**
+     * Removes every bucket that has refilled completely, run once a minute by a log in attempt
+     */
+    public void sweep() {
+        long now = now();
+        sweep( users, now );
+        sweep( sessions, now );
+    }
+
+    /**
+     * Private helper method which removes every bucket of one map that has refilled completely
+     * @param buckets ConcurrentMap of tracked buckets
+     * @param now Long milliseconds since the throttle was created
+     */
+    private static void sweep( ConcurrentMap< ?, TokenBucket > buckets, long now ) {
+        buckets.values().removeIf( bucket -> bucket.isFull( now ) );
+    }
+
+    /**
+     * Private helper method which forgets the least recently used of the first few buckets of
+     * a map.  The buckets sampled are in no particular order of use, so the one forgotten is
+     * almost never a key that is being tried right now
+     * @param buckets ConcurrentMap of tracked buckets
+     */
+    private static < K > void evictLeastRecentlyUsed( ConcurrentMap< K, TokenBucket > buckets ) {
+        Map.Entry< K, TokenBucket > oldest = null;
+        int sampled = 0;
+        for ( Map.Entry< K, TokenBucket > entry : buckets.entrySet() ) {
+            if ( oldest == null || entry.getValue().lastUsed < oldest.getValue().lastUsed ) { oldest = entry; }
+            if ( ++sampled == EVICTION_SAMPLES ) { break; }
+        }
+        if ( oldest != null ) { buckets.remove( oldest.getKey(), oldest.getValue() ); }
+    }
+
+    /**
+     * Forgets every bucket once the throttle's UserList is closed
+     */
+    public void close() {
+        users.clear();
+        sessions.clear();
+    }
+}
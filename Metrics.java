@@ -0,0 +1,290 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Metrics class which counts SystemHandler operations and records how long they take.  Counters
+ * are LongAdders and latencies go into lock-free log-linear histograms, so recording never
+ * blocks a session.  Instrumentation is switched on with -Dsystemhandler.metrics=true (or the
+ * "--metrics" option); the switch is a static final constant, so when it is off the JIT removes
+ * the timing calls entirely.
+ *
+ * Data can be read through the SHOW METRICS command of the process console, which sessions
+ * connected over the network and logged in users cannot enter, and is periodically written to a
+ * local file in the Prometheus text format
+ *
+ * Bugs: Percentiles are accurate to within 1/8th of their value
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class Metrics {
+
+    /**
+     * Histogram subclass which records nanosecond latencies into power-of-two ranges that are
+     * each split into eight equal buckets
+     */
+    public static class Histogram {
+
+        private static final int SUB_BUCKETS = 8;
+        private static final int BUCKETS = ( 64 - 2 ) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray( BUCKETS );
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * Private helper method which returns the bucket a value falls into
+         * @param value Long non-negative value
+         * @return Integer bucket index
+         */
+        private static int index( long value ) {
+            if ( value < SUB_BUCKETS ) { return (int)value; }
+            int exponent = 63 - Long.numberOfLeadingZeros( value );
+            return ( exponent - 2 ) * SUB_BUCKETS + (int)( ( value >>> ( exponent - 3 ) ) & ( SUB_BUCKETS - 1 ) );
+        }
+
+        /**
+         * Private helper method which returns the largest value a bucket holds
+         * @param index Integer bucket index
+         * @return Long upper bound of the bucket
+         */
+        private static long upperBound( int index ) {
+            if ( index < SUB_BUCKETS ) { return index; }
+            int exponent = index / SUB_BUCKETS + 2;
+            long lower = (long)( SUB_BUCKETS + index % SUB_BUCKETS ) << ( exponent - 3 );
+            return lower + ( 1L << ( exponent - 3 ) ) - 1;
+        }
+
+        /**
+         * Records one value
+         * @param nanos Long latency in nanoseconds
+         */
+        public void record( long nanos ) {
+            long value = Math.max( 0, nanos );
+            buckets.incrementAndGet( index( value ) );
+            count.increment();
+            sum.add( value );
+            max.accumulateAndGet( value, Math::max );
+        }
+
+        /**
+         * Getter method which returns how many values were recorded
+         * @return Long number of values
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * Getter method which returns the sum of all recorded values
+         * @return Long sum in nanoseconds
+         */
+        public long getSum() {
+            return sum.sum();
+        }
+
+        /**
+         * Getter method which returns the largest recorded value
+         * @return Long maximum in nanoseconds
+         */
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * Returns the value below which a fraction of the recorded values fall
+         * @param quantile Double between 0 and 1, i.e. 0.99 for the 99th percentile
+         * @return Long latency in nanoseconds, or 0 if nothing was recorded
+         */
+        public long percentile( double quantile ) {
+            long total = 0;
+            long[] snapshot = new long[ BUCKETS ];
+            for ( int i = 0; i < BUCKETS; i++ ) { snapshot[i] = buckets.get( i ); total += snapshot[i]; }
+            if ( total == 0 ) { return 0; }
+            long rank = (long)Math.ceil( quantile * total ), seen = 0;
+            for ( int i = 0; i < BUCKETS; i++ ) {
+                seen += snapshot[i];
+                if ( seen >= rank ) { return Math.min( upperBound( i ), getMax() ); }
+            }
+            return getMax();
+        }
+    }
+
+    public static final boolean ENABLED = Boolean.getBoolean( "systemhandler.metrics" );
+
+    private static final ConcurrentMap< String, LongAdder > counters = new ConcurrentHashMap<>();
+    private static final ConcurrentMap< String, Histogram > histograms = new ConcurrentHashMap<>();
+    private static final FormatHelper formatHelper = new FormatHelper();
+
+    // Latencies of the operations instrumented throughout the SystemHandler package
+    public static final Histogram ACCOUNT_CREATION = histogram( "account_creation" );
+    public static final Histogram PASSWORD_CHECK = histogram( "password_check" );
+    public static final Histogram SECURITY_CHALLENGE = histogram( "security_challenge" );
+    public static final Histogram CONSOLE_READ = histogram( "console_read" );
+    public static final Histogram CONSOLE_WRITE = histogram( "console_write" );
+
+    // Time from a change on the leader to it being applied on this follower
+    public static final Histogram REPLICATION_LAG = histogram( "replication_lag" );
+
+    // Outcomes of the operations above
+    public static final LongAdder ACCOUNTS_CREATED = counter( "accounts_created" );
+    public static final LongAdder ACCOUNTS_REJECTED = counter( "accounts_rejected" );
+    public static final LongAdder LOGINS_SUCCEEDED = counter( "logins_succeeded" );
+    public static final LongAdder LOGINS_FAILED = counter( "logins_failed" );
+    public static final LongAdder LOGINS_THROTTLED = counter( "logins_throttled" );
+    public static final LongAdder CHALLENGES_PASSED = counter( "challenges_passed" );
+    public static final LongAdder CHALLENGES_FAILED = counter( "challenges_failed" );
+    public static final LongAdder OPERATIONS_REJECTED = counter( "operations_rejected" );
+    public static final LongAdder AUDIT_EVENTS_DROPPED = counter( "audit_events_dropped" );
+    public static final LongAdder USER_CACHE_HITS = counter( "user_cache_hits" );
+    public static final LongAdder USER_CACHE_MISSES = counter( "user_cache_misses" );
+    public static final LongAdder USER_CACHE_EVICTIONS = counter( "user_cache_evictions" );
+    public static final LongAdder NAME_FILTER_NEGATIVES = counter( "name_filter_negatives" );
+    public static final LongAdder NAME_FILTER_FALSE_POSITIVES = counter( "name_filter_false_positives" );
+    public static final LongAdder REPLICATION_RECORDS_SENT = counter( "replication_records_sent" );
+    public static final LongAdder REPLICATION_RECORDS_APPLIED = counter( "replication_records_applied" );
+    public static final LongAdder REPLICATION_SNAPSHOTS_SENT = counter( "replication_snapshots_sent" );
+
+    /**
+     * Private constructor method, Metrics only has static members
+     */
+    private Metrics() {}
+
+    /**
+     * Getter method which returns a named histogram, creating it on first use
+     * @param name String, name of the measured operation
+     * @return Histogram recording that operation
+     */
+    public static Histogram histogram( String name ) {
+        return histograms.computeIfAbsent( name, key -> new Histogram() );
+    }
+
+    /**
+     * Getter method which returns a named counter, creating it on first use
+     * @param name String, name of the counted event
+     * @return LongAdder counting that event
+     */
+    public static LongAdder counter( String name ) {
+        return counters.computeIfAbsent( name, key -> new LongAdder() );
+    }
+
+    /**
+     * Returns the start time of an operation that is about to be timed
+     * @return Long System.nanoTime(), or 0 when instrumentation is off
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the latency of an operation that started at start()
+     * @param histogram Histogram of the operation
+     * @param start Long value returned by start()
+     */
+    public static void record( Histogram histogram, long start ) {
+        if ( ENABLED ) { histogram.record( System.nanoTime() - start ); }
+    }
+
+    /**
+     * Counts one occurrence of an event
+     * @param counter LongAdder of the event
+     */
+    public static void increment( LongAdder counter ) {
+        if ( ENABLED ) { counter.increment(); }
+    }
+
+    /**
+     * Wraps a processor command so that every execution is timed under its own histogram.
+     * Returns the command unchanged when instrumentation is off
+     * @param key String, processor key of the command
+     * @param command Consumer that executes the command
+     * @return Consumer that executes and times the command
+     */
+    public static < T > Consumer< T > timed( String key, Consumer< T > command ) {
+        if ( !ENABLED ) { return command; }
+        Histogram histogram = histogram( "command_" + key.toLowerCase().replace( ' ', '_' ) );
+        return target -> {
+            long start = System.nanoTime();
+            try { command.accept( target ); }
+            finally { histogram.record( System.nanoTime() - start ); }
+        };
+    }
+
+    /**
+     * Formats a readable summary of every counter and histogram for the terminal
+     * @return String, one line per counter and per histogram with its count and percentiles in microseconds
+     */
+    public static String summary() {
+        if ( !ENABLED ) { return formatHelper.basicMessage( "METRICS", "Instrumentation is disabled." ); }
+        StringBuilder summary = new StringBuilder( formatHelper.basicMessage( "METRICS", "Counters and latencies (microseconds):" ) );
+        for ( Map.Entry< String, LongAdder > entry : new TreeMap<>( counters ).entrySet() ) {
+            summary.append( String.format( "\n  %-36s %d", entry.getKey(), entry.getValue().sum() ) );
+        }
+        for ( Map.Entry< String, Histogram > entry : new TreeMap<>( histograms ).entrySet() ) {
+            Histogram histogram = entry.getValue();
+            summary.append( String.format( "\n  %-36s count=%d p50=%.1f p99=%.1f p999=%.1f max=%.1f", entry.getKey(),
+                histogram.getCount(), histogram.percentile( 0.5 ) / 1e3, histogram.percentile( 0.99 ) / 1e3,
+                histogram.percentile( 0.999 ) / 1e3, histogram.getMax() / 1e3 ) );
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Formats every counter and histogram in the Prometheus text exposition format
+     * @return String holding the full exposition
+     */
+    public static String prometheus() {
+        StringBuilder out = new StringBuilder();
+        for ( Map.Entry< String, LongAdder > entry : new TreeMap<>( counters ).entrySet() ) {
+            String name = "systemhandler_" + entry.getKey() + "_total";
+            out.append( "# TYPE " ).append( name ).append( " counter\n" );
+            out.append( name ).append( ' ' ).append( entry.getValue().sum() ).append( '\n' );
+        }
+        out.append( "# TYPE systemhandler_latency_seconds summary\n" );
+        for ( Map.Entry< String, Histogram > entry : new TreeMap<>( histograms ).entrySet() ) {
+            Histogram histogram = entry.getValue();
+            String labels = "{operation=\"" + entry.getKey() + "\"";
+            for ( double quantile : new double[]{ 0.5, 0.99, 0.999 } ) {
+                out.append( "systemhandler_latency_seconds" ).append( labels ).append( ",quantile=\"" ).append( quantile )
+                   .append( "\"} " ).append( histogram.percentile( quantile ) / 1e9 ).append( '\n' );
+            }
+            out.append( "systemhandler_latency_seconds_count" ).append( labels ).append( "} " ).append( histogram.getCount() ).append( '\n' );
+            out.append( "systemhandler_latency_seconds_sum" ).append( labels ).append( "} " ).append( histogram.getSum() / 1e9 ).append( '\n' );
+        }
+        return out.toString();
+    }
+
+    /**
+     * Starts writing the Prometheus exposition to a file at a fixed period.  Each dump replaces
+     * the file atomically, so a scraper never reads half of one
+     * @param file File to be written
+     * @param periodSeconds Long number of seconds between dumps
+     */
+    public static void startDump( File file, long periodSeconds ) {
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            Thread thread = new Thread( runnable, "metrics-dump" );
+            thread.setDaemon( true );
+            return thread; } );
+        dumper.scheduleAtFixedRate( () -> {
+            try {
+                File temporary = new File( file.getPath() + ".tmp" );
+                Files.write( temporary.toPath(), prometheus().getBytes( StandardCharsets.UTF_8 ) );
+                Files.move( temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            } catch ( IOException e ) {
+                System.err.println( formatHelper.basicMessage( "METRICS ERROR", "Dump failed: " + e.getMessage() ) );
+            } }, periodSeconds, periodSeconds, TimeUnit.SECONDS );
+    }
+}
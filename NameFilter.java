@@ -0,0 +1,184 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * NameFilter class which is a Bloom filter over usernames, answering "definitely not stored"
+ * for most names that do not exist without looking at the accounts themselves.  A name that was
+ * added is always reported as possibly stored; a name that was not is wrongly reported as
+ * possibly stored at about the false positive rate the filter was sized for.
+ *
+ * The filter is blocked: all the bits of one name fall in a single 512-bit block, so a lookup
+ * touches one cache line however many bits it checks.  Bits are only ever set, with a
+ * compare-and-set, so adds and lookups never lock
+ *
+ * Bugs: Names cannot be removed, and the false positive rate climbs once more names than the
+ * capacity are added, so a full filter should be rebuilt larger
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class NameFilter {
+
+    private static final int BLOCK_WORDS = 8;
+    private static final int BLOCK_BITS = BLOCK_WORDS * 64;
+
+    // Blocking concentrates bits, so blocks are sized this much larger than a plain filter
+    private static final double BLOCKING_OVERHEAD = 1.2;
+
+    private final AtomicLongArray words;
+    private final int blocks;
+    private final int bitsPerName;
+    private final int capacity;
+    private final double falsePositiveRate;
+
+    // Names that set at least one new bit, an estimate of how many distinct names were added
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * NameFilter constructor method
+     * @param capacity Integer number of names the filter is sized for
+     * @param falsePositiveRate Double rate of false positives once capacity names are added,
+     * between 0 and 1 exclusive
+     */
+    public NameFilter( int capacity, double falsePositiveRate ) {
+        if ( capacity < 1 ) { throw new IllegalArgumentException( "Capacity must be at least 1." ); }
+        if ( !( falsePositiveRate > 0 && falsePositiveRate < 1 ) ) {
+            throw new IllegalArgumentException( "False positive rate must be between 0 and 1." );
+        }
+        double bits = -capacity * Math.log( falsePositiveRate ) / ( Math.log( 2 ) * Math.log( 2 ) ) * BLOCKING_OVERHEAD;
+        this.blocks = (int)Math.min( Integer.MAX_VALUE / BLOCK_WORDS, Math.max( 1, Math.ceil( bits / BLOCK_BITS ) ) );
+        this.bitsPerName = (int)Math.max( 1, Math.min( 16, Math.round( -Math.log( falsePositiveRate ) / Math.log( 2 ) ) ) );
+        this.words = new AtomicLongArray( blocks * BLOCK_WORDS );
+        this.capacity = capacity;
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    /**
+     * Adds a name to the filter
+     * @param name String, upper case username
+     */
+    public void add( String name ) {
+        long hash = hash( name );
+        int base = block( hash ) * BLOCK_WORDS;
+        boolean changed = false;
+        for ( int i = 0; i < bitsPerName; i++ ) {
+            int bit = bit( hash, i );
+            int index = base + ( bit >>> 6 );
+            long mask = 1L << bit;
+            for ( long word = words.get( index ); ( word & mask ) == 0; word = words.get( index ) ) {
+                if ( words.compareAndSet( index, word, word | mask ) ) { changed = true; break; }
+            }
+        }
+        if ( changed ) { count.incrementAndGet(); }
+    }
+
+    /**
+     * Returns whether a name may have been added
+     * @param name String, upper case username
+     * @return False if the name was definitely never added, true if it may have been
+     */
+    public boolean mightContain( String name ) {
+        long hash = hash( name );
+        int base = block( hash ) * BLOCK_WORDS;
+        for ( int i = 0; i < bitsPerName; i++ ) {
+            int bit = bit( hash, i );
+            if ( ( words.get( base + ( bit >>> 6 ) ) & ( 1L << bit ) ) == 0 ) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     * Private helper method which hashes a username into 64 well mixed bits: FNV-1a over its
+     * characters followed by the MurmurHash3 finalizer
+     * @param name String, upper case username
+     * @return Long hash of the name
+     */
+    private static long hash( String name ) {
+        long hash = 0xcbf29ce484222325L;
+        for ( int i = 0; i < name.length(); i++ ) hash = ( hash ^ name.charAt( i ) ) * 0x100000001b3L;
+        hash = ( hash ^ ( hash >>> 33 ) ) * 0xff51afd7ed558ccdL;
+        hash = ( hash ^ ( hash >>> 33 ) ) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ ( hash >>> 33 );
+    }
+
+    /**
+     * Private helper method which derives one bit of a name within its block with the
+     * SplitMix64 finalizer.  Bit positions are drawn independently rather than as an arithmetic
+     * progression, which would make names that share a block share their bits far more often
+     * than chance
+     * @param hash Long hash of the name
+     * @param i Integer which bit of the name, from 0
+     * @return Integer bit position within the block
+     */
+    private static int bit( long hash, int i ) {
+        long mixed = hash + ( i + 1 ) * 0x9e3779b97f4a7c15L;
+        mixed = ( mixed ^ ( mixed >>> 30 ) ) * 0xbf58476d1ce4e5b9L;
+        mixed = ( mixed ^ ( mixed >>> 27 ) ) * 0x94d049bb133111ebL;
+        return (int)( ( mixed ^ ( mixed >>> 31 ) ) >>> ( 64 - 9 ) );
+    }
+
+    /**
+     * Private helper method which picks the block of a name from the upper half of its hash,
+     * which the bit positions within the block do not use
+     * @param hash Long hash of the name
+     * @return Integer block index
+     */
+    private int block( long hash ) {
+        return (int)( ( ( hash >>> 32 ) * blocks ) >>> 32 );
+    }
+
+    /**
+     * Getter method which returns how many names the filter is sized for
+     * @return Integer capacity
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Getter method which returns roughly how many distinct names were added
+     * @return Integer number of names
+     */
+    public int getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * Returns whether more names were added than the filter is sized for
+     * @return True if the filter should be rebuilt larger, false if otherwise
+     */
+    public boolean isFull() {
+        return this.count.get() > this.capacity;
+    }
+
+    /**
+     * Getter method which returns the false positive rate the filter was sized for
+     * @return Double rate at capacity
+     */
+    public double getFalsePositiveRate() {
+        return this.falsePositiveRate;
+    }
+
+    /**
+     * Getter method which returns the size of the filter
+     * @return Long number of bits
+     */
+    public long getBits() {
+        return (long)blocks * BLOCK_BITS;
+    }
+
+    /**
+     * Estimates the current false positive rate from how full each block is: a name absent
+     * from the filter lands in a random block and is a false positive if all of its bits there
+     * happen to be set
+     * @return Double expected rate of false positives
+     */
+    public double getExpectedFalsePositiveRate() {
+        double sum = 0;
+        for ( int block = 0; block < blocks; block++ ) {
+            int set = 0;
+            for ( int i = 0; i < BLOCK_WORDS; i++ ) set += Long.bitCount( words.get( block * BLOCK_WORDS + i ) );
+            sum += Math.pow( (double)set / BLOCK_BITS, bitsPerName );
+        }
+        return sum / blocks;
+    }
+}
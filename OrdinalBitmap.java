@@ -0,0 +1,204 @@
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * OrdinalBitmap class which is a compressed set of non-negative integers in the style of a
+ * roaring bitmap.  The integers are split into chunks of 65536 by their upper 16 bits, and each
+ * chunk is stored the cheaper of two ways: a sorted array of its lower 16 bits while it holds
+ * few values, or a plain 65536 bit map once it holds many.  Visiting the members costs time in
+ * proportion to the members and chunks rather than to the largest integer.
+ *
+ * Not thread safe, callers guard it with their own lock
+ *
+ * Bugs: None
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class OrdinalBitmap {
+
+    // A sorted array of chars takes as much room as the bit map at 4096 values
+    private static final int ARRAY_LIMIT = 4096;
+    private static final char[] NO_VALUES = new char[ 0 ];
+
+    /**
+     * Chunk subclass which holds the members sharing one value of the upper 16 bits
+     */
+    private static final class Chunk {
+
+        private final int high;
+        private char[] values = NO_VALUES;
+        private long[] bits;
+        private int cardinality;
+
+        /**
+         * Chunk constructor method
+         * @param high Integer upper 16 bits shared by every member of the chunk
+         */
+        private Chunk( int high ) {
+            this.high = high;
+        }
+
+        /**
+         * Adds a member
+         * @param low Character lower 16 bits of the member
+         * @return True if the member was added, false if it was already present
+         */
+        private boolean add( char low ) {
+            if ( bits != null ) {
+                long mask = 1L << low;
+                if ( ( bits[ low >>> 6 ] & mask ) != 0 ) { return false; }
+                bits[ low >>> 6 ] |= mask;
+                cardinality++;
+                return true;
+            }
+            int index = Arrays.binarySearch( values, 0, cardinality, low );
+            if ( index >= 0 ) { return false; }
+            if ( cardinality == ARRAY_LIMIT ) {
+                // Too many members for an array to stay small, switch to the bit map
+                bits = new long[ 1024 ];
+                for ( int i = 0; i < cardinality; i++ ) bits[ values[i] >>> 6 ] |= 1L << values[i];
+                values = null;
+                bits[ low >>> 6 ] |= 1L << low;
+                cardinality++;
+                return true;
+            }
+            int at = -index - 1;
+            if ( cardinality == values.length ) { values = Arrays.copyOf( values, Math.max( 4, cardinality * 2 ) ); }
+            System.arraycopy( values, at, values, at + 1, cardinality - at );
+            values[ at ] = low;
+            cardinality++;
+            return true;
+        }
+
+        /**
+         * Removes a member
+         * @param low Character lower 16 bits of the member
+         * @return True if the member was removed, false if it was not present
+         */
+        private boolean remove( char low ) {
+            if ( bits != null ) {
+                long mask = 1L << low;
+                if ( ( bits[ low >>> 6 ] & mask ) == 0 ) { return false; }
+                bits[ low >>> 6 ] &= ~mask;
+                cardinality--;
+                return true;
+            }
+            int index = Arrays.binarySearch( values, 0, cardinality, low );
+            if ( index < 0 ) { return false; }
+            System.arraycopy( values, index + 1, values, index, cardinality - index - 1 );
+            cardinality--;
+            return true;
+        }
+
+        /**
+         * Returns whether a member is present
+         * @param low Character lower 16 bits of the member
+         * @return True if present, false if otherwise
+         */
+        private boolean contains( char low ) {
+            if ( bits != null ) { return ( bits[ low >>> 6 ] & ( 1L << low ) ) != 0; }
+            return Arrays.binarySearch( values, 0, cardinality, low ) >= 0;
+        }
+
+        /**
+         * Visits members in ascending order until the action asks to stop
+         * @param action IntPredicate that receives each member and returns false to stop
+         * @return True if every member was visited, false if the action stopped early
+         */
+        private boolean forEach( IntPredicate action ) {
+            int base = high << 16;
+            if ( bits == null ) {
+                for ( int i = 0; i < cardinality; i++ ) { if ( !action.test( base | values[i] ) ) { return false; } }
+                return true;
+            }
+            for ( int word = 0; word < bits.length; word++ ) {
+                long remaining = bits[ word ];
+                while ( remaining != 0 ) {
+                    if ( !action.test( base | ( word << 6 ) | Long.numberOfTrailingZeros( remaining ) ) ) { return false; }
+                    remaining &= remaining - 1;
+                }
+            }
+            return true;
+        }
+    }
+
+    // Chunks in ascending order of their upper bits
+    private Chunk[] chunks = new Chunk[ 0 ];
+    private int cardinality;
+
+    /**
+     * Private helper method which finds the chunk for an upper 16 bit value
+     * @param high Integer upper 16 bits
+     * @return Integer index of the chunk, or -(insertion point) - 1 if there is none
+     */
+    private int find( int high ) {
+        int low = 0, top = chunks.length - 1;
+        while ( low <= top ) {
+            int middle = ( low + top ) >>> 1;
+            int value = chunks[ middle ].high;
+            if ( value < high ) { low = middle + 1; }
+            else if ( value > high ) { top = middle - 1; }
+            else { return middle; }
+        }
+        return -( low + 1 );
+    }
+
+    /**
+     * Adds a member
+     * @param value Integer, non-negative ordinal
+     * @return True if the member was added, false if it was already present
+     */
+    public boolean add( int value ) {
+        int index = find( value >>> 16 );
+        if ( index < 0 ) {
+            int at = -index - 1;
+            Chunk[] grown = new Chunk[ chunks.length + 1 ];
+            System.arraycopy( chunks, 0, grown, 0, at );
+            System.arraycopy( chunks, at, grown, at + 1, chunks.length - at );
+            grown[ at ] = new Chunk( value >>> 16 );
+            chunks = grown;
+            index = at;
+        }
+        if ( !chunks[ index ].add( (char)value ) ) { return false; }
+        cardinality++;
+        return true;
+    }
+
+    /**
+     * Removes a member
+     * @param value Integer, non-negative ordinal
+     * @return True if the member was removed, false if it was not present
+     */
+    public boolean remove( int value ) {
+        int index = find( value >>> 16 );
+        if ( index < 0 || !chunks[ index ].remove( (char)value ) ) { return false; }
+        cardinality--;
+        return true;
+    }
+
+    /**
+     * Returns whether a member is present
+     * @param value Integer, non-negative ordinal
+     * @return True if present, false if otherwise
+     */
+    public boolean contains( int value ) {
+        int index = find( value >>> 16 );
+        return index >= 0 && chunks[ index ].contains( (char)value );
+    }
+
+    /**
+     * Getter method which returns the number of members
+     * @return Integer cardinality
+     */
+    public int cardinality() {
+        return this.cardinality;
+    }
+
+    /**
+     * Visits members in ascending order until the action asks to stop
+     * @param action IntPredicate that receives each member and returns false to stop
+     */
+    public void forEach( IntPredicate action ) {
+        for ( Chunk chunk : chunks ) { if ( !chunk.forEach( action ) ) { return; } }
+    }
+}
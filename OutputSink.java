@@ -0,0 +1,33 @@
+/**
+ * OutputSink interface which is where a Console sends the lines it prints.  Sinks decide how and
+ * when lines reach the other end of a session, so a session thread only ever hands its output
+ * over and goes on with its work
+ *
+ * Bugs: None
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public interface OutputSink {
+
+    // Discards everything, for benchmarks and other sessions nobody is reading
+    OutputSink NULL = new OutputSink() {
+        public void writeLine( String line ) {}
+        public void flush() {}
+        public void close() {} };
+
+    /**
+     * Hands one line of output to the sink
+     * @param line String to be printed, without its line terminator
+     */
+    void writeLine( String line );
+
+    /**
+     * Asks for every line handed over so far to be delivered, without waiting for it to be
+     */
+    void flush();
+
+    /**
+     * Delivers every line handed over so far, waiting until it has been, and stops accepting more
+     */
+    void close();
+}
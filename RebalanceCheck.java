@@ -0,0 +1,248 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * RebalanceCheck class which checks from the command line that changing the number of shards of a
+ * ShardedJournal never loses or misplaces an account, and exits with an error if it does.
+ *
+ *   java RebalanceCheck concurrent [--writers 3] [--rounds 6]
+ *       rebalances back and forth while writer threads create and change accounts, then reopens
+ *       the directory and checks every account
+ *   java RebalanceCheck crash [--rounds 5]
+ *       writes and rebalances in a child process, kills it with SIGKILL at a random moment,
+ *       then reopens the directory and checks every account the child had acknowledged
+ *
+ * Every account NAME i gets a security answer and a checklist item derived from i, so its whole
+ * state can be checked without storing what was written.  Answers are restored already hashed,
+ * as hashing them is deliberately slow and not what is checked
+ *
+ * Bugs: None
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class RebalanceCheck {
+
+    private static final String ACKNOWLEDGED = "acknowledged ";
+    private static final int[] SHARD_COUNTS = { 2, 5, 3, 8, 1, 4 };
+
+    private static final FormatHelper formatHelper = new FormatHelper();
+
+    /**
+     * Main method which runs the check named by the first argument
+     * @param args Check name followed by its parameters
+     * @throws Exception if the check cannot run, or an AssertionError if it fails
+     */
+    public static void main( String[] args ) throws Exception {
+        String name = ( args.length > 0 ) ? args[0] : "concurrent";
+        int writers = 3, rounds = name.equals( "crash" ) ? 5 : 6;
+        for ( int i = 1; i < args.length - 1; i++ ) {
+            if ( args[i].equals( "--writers" ) ) { writers = Integer.parseInt( args[++i] ); }
+            else if ( args[i].equals( "--rounds" ) ) { rounds = Integer.parseInt( args[++i] ); }
+        }
+        if ( name.equals( "child" ) ) { child( new File( args[1] ) ); return; }
+
+        File directory = Files.createTempDirectory( "rebalance-check" ).toFile();
+        try {
+            if ( name.equals( "concurrent" ) ) { concurrent( directory, writers, rounds ); }
+            else if ( name.equals( "crash" ) ) { crash( directory, rounds ); }
+            else { System.err.println( formatHelper.basicMessage( "ERROR", "Unknown check " + name + "." ) ); }
+        } finally {
+            try ( Stream< java.nio.file.Path > files = Files.walk( directory.toPath() ) ) {
+                files.sorted( Comparator.reverseOrder() ).forEach( path -> path.toFile().delete() );
+            }
+        }
+    }
+
+    /**
+     * Private helper method which rebalances through several shard counts while writers keep
+     * creating and changing accounts, then checks every account after reopening the directory
+     * @param directory Empty directory for the shards
+     * @param writers Integer number of writer threads
+     * @param rounds Integer number of rebalances
+     * @throws Exception if the journal cannot be used or a writer failed
+     */
+    private static void concurrent( File directory, int writers, int rounds ) throws Exception {
+        UserList userList = new UserList();
+        ShardedJournal journal = ShardedJournal.open( directory, userList, SHARD_COUNTS[0] );
+        AccountService service = new AccountService( userList );
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicInteger next = new AtomicInteger();
+        List< Thread > threads = new ArrayList<>();
+        List< Throwable > failures = new ArrayList<>();
+        for ( int t = 0; t < writers; t++ ) {
+            Thread writer = new Thread( () -> {
+                try {
+                    while ( !stop.get() ) write( service, next.getAndIncrement() );
+                } catch ( Throwable e ) {
+                    synchronized ( failures ) { failures.add( e ); }
+                } } );
+            writer.start();
+            threads.add( writer );
+        }
+        for ( int round = 1; round <= rounds; round++ ) {
+            Thread.sleep( 200 );
+            int shards = SHARD_COUNTS[ round % SHARD_COUNTS.length ];
+            System.out.println( formatHelper.basicMessage( "CHECK", String.format(
+                "Rebalanced to %d shard(s), %d account(s) moved.", shards, journal.rebalance( shards ) ) ) );
+        }
+        stop.set( true );
+        for ( Thread writer : threads ) writer.join();
+        if ( !failures.isEmpty() ) { throw new AssertionError( "Writer failed.", failures.get( 0 ) ); }
+        journal.close();
+        userList.close();
+
+        int written = next.get();
+        int checked = verify( directory, written - 1, new HashSet<>() );
+        check( checked == written, "Only " + checked + " of " + written + " accounts were restored intact." );
+        System.out.println( formatHelper.basicMessage( "CHECK", "concurrent: " + checked + " account(s) restored intact." ) );
+    }
+
+    /**
+     * Private helper method which repeatedly starts a child process that writes and rebalances,
+     * kills it with SIGKILL at a random moment, and checks every account it acknowledged
+     * @param directory Empty directory for the shards
+     * @param rounds Integer number of child processes to kill
+     * @throws Exception if a child cannot be run or the directory cannot be reopened
+     */
+    private static void crash( File directory, int rounds ) throws Exception {
+        String java = System.getProperty( "java.home" ) + File.separator + "bin" + File.separator + "java";
+        // Accounts a killed child had started but not acknowledged, which may be incomplete
+        Set< Integer > unacknowledged = new HashSet<>();
+        int acknowledged = -1;
+        for ( int round = 1; round <= rounds; round++ ) {
+            Process child = new ProcessBuilder( java, "-cp", System.getProperty( "java.class.path" ),
+                "RebalanceCheck", "child", directory.getPath() )
+                .redirectError( ProcessBuilder.Redirect.INHERIT ).start();
+            long killAt = System.nanoTime() + ThreadLocalRandom.current().nextLong( 1_500, 4_000 ) * 1_000_000;
+            int before = acknowledged;
+            try ( BufferedReader out = new BufferedReader( new InputStreamReader( child.getInputStream() ) ) ) {
+                while ( System.nanoTime() < killAt ) {
+                    if ( !out.ready() ) { Thread.sleep( 5 ); continue; }
+                    String line = out.readLine();
+                    if ( line == null ) { break; }
+                    if ( line.startsWith( ACKNOWLEDGED ) ) { acknowledged = Integer.parseInt( line.substring( ACKNOWLEDGED.length() ) ); }
+                }
+                // destroyForcibly sends SIGKILL, so nothing in the child gets to clean up
+                child.destroyForcibly().waitFor();
+            }
+            check( acknowledged > before, "Child acknowledged nothing, is the classpath set?" );
+            int checked = verify( directory, acknowledged, unacknowledged );
+            System.out.println( formatHelper.basicMessage( "CHECK", String.format(
+                "crash %d: killed after %d acknowledged account(s), %d restored intact.", round, acknowledged + 1, checked ) ) );
+        }
+    }
+
+    /**
+     * Child process of the crash check.  Writes accounts after the highest one already in the
+     * directory on one thread, printing each one once all of its changes are durable, while
+     * rebalancing on another until it is killed
+     * @param directory Directory of the shards
+     * @throws Exception if the journal cannot be used
+     */
+    private static void child( File directory ) throws Exception {
+        UserList userList = new UserList();
+        int recorded = ShardedJournal.getRecordedShards( directory );
+        ShardedJournal journal = ShardedJournal.open( directory, userList, ( recorded > 0 ) ? recorded : SHARD_COUNTS[0] );
+        AccountService service = new AccountService( userList );
+        int highest = -1;
+        for ( User user : userList.getUsers() ) highest = Math.max( highest, number( user ) );
+        int first = highest + 1;
+        Thread writer = new Thread( () -> {
+            for ( int i = first; ; i++ ) {
+                write( service, i );
+                System.out.println( ACKNOWLEDGED + i );
+            } } );
+        writer.setDaemon( true );
+        writer.start();
+        while ( true ) {
+            journal.rebalance( SHARD_COUNTS[ ThreadLocalRandom.current().nextInt( SHARD_COUNTS.length ) ] );
+            Thread.sleep( 50 );
+        }
+    }
+
+    /**
+     * Private helper method which creates account i and makes the changes derived from i, each
+     * durable before the call returns
+     * @param service AccountService of the journaled UserList
+     * @param i Integer number of the account
+     */
+    private static void write( AccountService service, int i ) {
+        check( service.createAccount( "NAME" + i, "password" + i ), "NAME" + i + " could not be created." );
+        InformationHandler information = service.getUserList().retrieveUser( "NAME" + i ).getInformation();
+        information.restoreSecurityAnswer( question( i ), i, i + 1L );
+        information.setChecklistItem( "TASK" + ( i % 3 ), i % 2 == 0 );
+    }
+
+    /**
+     * Private helper method which reopens a directory and checks that every acknowledged account
+     * is present with all of its changes, and that each shard holds only the accounts it owns
+     * @param directory Directory of the shards
+     * @param acknowledged Integer number of the last acknowledged account
+     * @param unacknowledged Set of account numbers that were never acknowledged, to which any
+     * account found after acknowledged is added
+     * @return Integer number of accounts found intact
+     * @throws IOException if the directory cannot be reopened
+     */
+    private static int verify( File directory, int acknowledged, Set< Integer > unacknowledged ) throws IOException {
+        UserList userList = new UserList();
+        ShardedJournal journal = ShardedJournal.open( directory, userList, ShardedJournal.getRecordedShards( directory ) );
+        try {
+            int intact = 0;
+            for ( User user : userList.getUsers() ) {
+                int i = number( user );
+                if ( i > acknowledged ) { unacknowledged.add( i ); }
+                InformationHandler information = user.getInformation();
+                Boolean item = information.getChecklist().get( "TASK" + ( i % 3 ) );
+                boolean complete = information.getSecurityAnswerHash( question( i ) ) == i + 1L
+                    && information.getSecurityAnswerSalt( question( i ) ) == i
+                    && item != null && item == ( i % 2 == 0 );
+                if ( complete ) { intact++; }
+                else { check( unacknowledged.contains( i ), "NAME" + i + " lost changes." ); }
+            }
+            for ( int i = 0; i <= acknowledged; i++ ) {
+                check( unacknowledged.contains( i ) || userList.retrieveUser( "NAME" + i ) != null, "NAME" + i + " was lost." );
+            }
+            check( journal.getShards() == ShardedJournal.getRecordedShards( directory ), "The number of shards was not recorded." );
+            return intact;
+        } finally {
+            journal.close();
+            userList.close();
+        }
+    }
+
+    /**
+     * Private helper method which returns the number of an account written by this check
+     * @param user User named NAME followed by its number
+     * @return Integer number of the account
+     */
+    private static int number( User user ) {
+        return Integer.parseInt( user.getName().substring( 4 ) );
+    }
+
+    /**
+     * Private helper method which returns the security question account i answers
+     * @param i Integer number of the account
+     * @return String, lower case question
+     */
+    private static String question( int i ) {
+        return SecurityQuestionCatalog.question( i % SecurityQuestionCatalog.size() );
+    }
+
+    /**
+     * Private helper method which fails the check
+     * @param condition Boolean that must hold
+     * @param message String describing the failure
+     */
+    private static void check( boolean condition, String message ) {
+        if ( !condition ) { throw new AssertionError( message ); }
+    }
+}
@@ -0,0 +1,192 @@
+import java.io.*;
+import java.net.Socket;
+
+/**
+ * ReplicationFollower class which keeps a UserList in step with a ReplicationLeader in another
+ * process.  A single thread connects to the leader, applies every frame of changes it is sent as
+ * the leader's Journal records, and acknowledges each frame with the number of the last change
+ * applied.  Acknowledgements are not waited for by the leader, which keeps sending while earlier
+ * frames are still being applied.
+ *
+ * When the connection is lost the follower reconnects and tells the leader the last change it
+ * applied, so the leader can resume from there or send the whole state again.  Accounts on a
+ * follower are only changed through replication; the AccountService of a follower is read-only
+ *
+ * Bugs: Replication lag is measured against the leader's clock, so it is only exact when both
+ * processes run on the same machine
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class ReplicationFollower implements Closeable {
+
+    private static final long RETRY_MILLIS = 1000;
+
+    private final UserList userList;
+    private final String host;
+    private final int port;
+    private final Thread reader;
+    private volatile Socket socket;
+    private volatile boolean closed = false;
+
+    // Guards how far this follower has got, waited on by awaitCaughtUp()
+    private final Object progress = new Object();
+    private long runId = 0;
+    private long applied = 0;
+    private long latest = 0;
+    private boolean synced = false;
+
+    /**
+     * Private constructor method, followers are created through start()
+     * @param userList UserList that changes are applied to
+     * @param host String, host name of the leader
+     * @param port Integer TCP port of the leader
+     */
+    private ReplicationFollower( UserList userList, String host, int port ) {
+        this.userList = userList;
+        this.host = host;
+        this.port = port;
+        this.reader = new Thread( this::followLoop, "replication-follower" );
+        this.reader.setDaemon( true );
+    }
+
+    /**
+     * Starts following a leader, connecting to it in the background until close()
+     * @param userList UserList that changes are applied to
+     * @param host String, host name of the leader, i.e. "localhost"
+     * @param port Integer TCP port of the leader
+     * @return ReplicationFollower that is now connecting to the leader
+     */
+    public static ReplicationFollower start( UserList userList, String host, int port ) {
+        ReplicationFollower follower = new ReplicationFollower( userList, host, port );
+        follower.reader.start();
+        return follower;
+    }
+
+    /**
+     * Reader thread loop.  Follows the leader for as long as the connection lasts, then
+     * reconnects after a pause until the follower is closed
+     */
+    private void followLoop() {
+        while ( !closed ) {
+            try ( Socket connection = new Socket( host, port ) ) {
+                this.socket = connection;
+                if ( closed ) { return; }
+                follow( connection );
+            } catch ( IOException e ) {
+                // Leader unreachable or gone, retried below
+            } finally {
+                synchronized ( progress ) { synced = false; }
+            }
+            try { Thread.sleep( RETRY_MILLIS ); }
+            catch ( InterruptedException e ) { return; }
+        }
+    }
+
+    /**
+     * Private helper method which tells the leader where this follower left off, then applies
+     * and acknowledges frames until the connection is lost
+     * @param connection Socket connected to the leader
+     * @throws IOException if the connection is lost or a frame is malformed
+     */
+    private void follow( Socket connection ) throws IOException {
+        connection.setTcpNoDelay( true );
+        DataInputStream in = new DataInputStream( new BufferedInputStream( connection.getInputStream(), 1 << 16 ) );
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( connection.getOutputStream() ) );
+        synchronized ( progress ) {
+            out.writeLong( runId );
+            out.writeLong( applied );
+        }
+        out.flush();
+        long leaderRun = in.readLong();
+        synchronized ( progress ) {
+            // Numbers of an earlier run of the leader mean nothing to this one
+            if ( leaderRun != runId ) { runId = leaderRun; applied = 0; latest = 0; }
+        }
+        while ( true ) {
+            int length = in.readInt();
+            if ( length < ReplicationLeader.FRAME_HEADER_BYTES || length > ReplicationLeader.MAX_FRAME_BYTES ) {
+                throw new IOException( "Malformed replication frame." );
+            }
+            byte type = in.readByte();
+            long last = in.readLong(), leaderLatest = in.readLong(), changedMillis = in.readLong();
+            int count = in.readInt();
+            for ( int i = 0; i < count; i++ ) {
+                byte[] record = new byte[ in.readInt() ];
+                in.readFully( record );
+                Journal.apply( userList, new DataInputStream( new ByteArrayInputStream( record ) ) );
+            }
+            if ( Metrics.ENABLED ) { Metrics.REPLICATION_RECORDS_APPLIED.add( count ); }
+            if ( type != ReplicationLeader.CHANGES ) {
+                synchronized ( progress ) { synced = false; }
+                continue;
+            }
+            if ( Metrics.ENABLED && count > 0 ) {
+                Metrics.REPLICATION_LAG.record( ( SystemTime.get().currentTimeMillis() - changedMillis ) * 1_000_000 );
+            }
+            synchronized ( progress ) {
+                applied = last;
+                latest = Math.max( latest, leaderLatest );
+                synced = true;
+                progress.notifyAll();
+            }
+            out.writeLong( last );
+            // Acknowledgements of frames that arrived together leave together
+            if ( in.available() == 0 ) { out.flush(); }
+        }
+    }
+
+    /**
+     * Waits until every change the leader had made when this follower last heard from it has
+     * been applied
+     * @param timeoutMillis Long longest time to wait in milliseconds
+     * @return True if the follower caught up, false if the time ran out first
+     */
+    public boolean awaitCaughtUp( long timeoutMillis ) {
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000;
+        synchronized ( progress ) {
+            while ( !( synced && applied >= latest ) ) {
+                long remaining = ( deadline - System.nanoTime() ) / 1_000_000;
+                if ( remaining <= 0 ) { return false; }
+                try { progress.wait( remaining ); }
+                catch ( InterruptedException e ) { Thread.currentThread().interrupt(); return false; }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Getter method which returns whether the follower is connected and has the leader's whole state
+     * @return True if changes are being followed, false while connecting or receiving the state
+     */
+    public boolean isSynced() {
+        synchronized ( progress ) { return this.synced; }
+    }
+
+    /**
+     * Getter method which returns the number of the last change applied
+     * @return Long sequence number of the leader's current run
+     */
+    public long getAppliedSequence() {
+        synchronized ( progress ) { return this.applied; }
+    }
+
+    /**
+     * Getter method which returns how many changes the leader had made that are not applied yet,
+     * as of the last frame received
+     * @return Long number of changes
+     */
+    public long getLag() {
+        synchronized ( progress ) { return Math.max( 0, this.latest - this.applied ); }
+    }
+
+    /**
+     * Stops following the leader.  Accounts already applied are kept
+     * @throws IOException if the connection cannot be closed
+     */
+    public void close() throws IOException {
+        closed = true;
+        reader.interrupt();
+        Socket connection = this.socket;
+        if ( connection != null ) { connection.close(); }
+    }
+}
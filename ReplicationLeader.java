@@ -0,0 +1,320 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * ReplicationLeader class which streams every change to a UserList to ReplicationFollowers in
+ * other processes over localhost TCP.  Each change is numbered and kept in a bounded in-memory
+ * backlog, and every connected follower has a sender thread that ships whatever it has not sent
+ * yet in batched frames, without waiting for the follower's acknowledgements.  Sessions never wait
+ * on followers: recording a change only copies it into the backlog.
+ *
+ * A follower that connects for the first time, reconnects to a leader that has since restarted,
+ * or falls further behind than the backlog reaches is first sent the whole current state of every
+ * account and then every change made since the state was read.  Applying a change is idempotent,
+ * so changes made while the state is being read can safely be applied twice
+ *
+ * Bugs: A change made in the instant between an account's creation and the creation being reported
+ * can reach followers before the account does, as it can reach the Journal; accounts a follower
+ * holds that the leader does not are kept
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class ReplicationLeader implements AccountListener, Closeable {
+
+    // Frame types: part of the whole state, and a run of numbered changes
+    static final byte STATE = 1;
+    static final byte CHANGES = 2;
+
+    // Bytes of a frame before its records, and the largest frame either side accepts
+    static final int FRAME_HEADER_BYTES = 1 + 8 + 8 + 8 + 4;
+    static final int MAX_FRAME_BYTES = 16 << 20;
+
+    // Changes kept for followers that fall behind, a power of two
+    private static final int BACKLOG_RECORDS = 1 << 16;
+
+    // Records shipped in one frame at most
+    private static final int FRAME_RECORDS = 1024;
+
+    /**
+     * Follower subclass which is one connected follower and how far it has acknowledged
+     */
+    private static final class Follower {
+
+        private final Socket socket;
+        private volatile long acknowledged;
+
+        /**
+         * Follower constructor method
+         * @param socket Socket connected to the follower
+         */
+        private Follower( Socket socket ) {
+            this.socket = socket;
+        }
+    }
+
+    private final UserList userList;
+    private final ServerSocket server;
+    private final List< Follower > followers = new CopyOnWriteArrayList<>();
+
+    // Identifies this run of the leader, as sequence numbers restart with it
+    private final long runId = ThreadLocalRandom.current().nextLong() | 1;
+
+    // Guards the backlog and the sequence numbers below
+    private final Object lock = new Object();
+    private final byte[][] backlog = new byte[ BACKLOG_RECORDS ][];
+    private final long[] backlogMillis = new long[ BACKLOG_RECORDS ];
+    private long sequence = 0;
+    private boolean closed = false;
+
+    /**
+     * Private constructor method, leaders are created through start()
+     * @param userList UserList whose changes are replicated
+     * @param server ServerSocket followers connect to
+     */
+    private ReplicationLeader( UserList userList, ServerSocket server ) {
+        this.userList = userList;
+        this.server = server;
+    }
+
+    /**
+     * Starts replicating every later change to a UserList, and accepts followers on a localhost port
+     * @param userList UserList whose changes are replicated
+     * @param port Localhost TCP port followers connect to, 0 for any free port
+     * @return ReplicationLeader that is now accepting followers
+     * @throws IOException if the port cannot be listened on
+     */
+    public static ReplicationLeader start( UserList userList, int port ) throws IOException {
+        ReplicationLeader leader = new ReplicationLeader( userList,
+            new ServerSocket( port, 0, InetAddress.getLoopbackAddress() ) );
+        // Registered before any follower reads the state, so no change falls between the two
+        userList.addAccountListener( leader );
+        Thread acceptor = new Thread( leader::acceptLoop, "replication-accept" );
+        acceptor.setDaemon( true );
+        acceptor.start();
+        return leader;
+    }
+
+    public void userCreated( User user ) {
+        publish( Journal.encodeCreation( user ) );
+    }
+
+    public void securityQuestionAdded( User user, String question, long salt, long hash ) {
+        publish( Journal.encodeSecurityQuestion( user.getName(), question, salt, hash ) );
+    }
+
+    public void checklistUpdated( User user, String key, boolean complete ) {
+        publish( Journal.encodeChecklistItem( user.getName(), key, complete ) );
+    }
+
+    /**
+     * Private helper method which numbers a change, adds it to the backlog and wakes the senders
+     * @param record Byte array payload of the change, as a Journal record
+     */
+    private void publish( byte[] record ) {
+        synchronized ( lock ) {
+            int slot = (int)( ++sequence & ( BACKLOG_RECORDS - 1 ) );
+            backlog[ slot ] = record;
+            backlogMillis[ slot ] = SystemTime.get().currentTimeMillis();
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Accept thread loop.  Gives every follower that connects its own sender thread
+     */
+    private void acceptLoop() {
+        while ( true ) {
+            Socket socket;
+            try { socket = server.accept(); }
+            catch ( IOException e ) { return; }
+            Follower follower = new Follower( socket );
+            Thread sender = new Thread( () -> serve( follower ), "replication-sender" );
+            sender.setDaemon( true );
+            sender.start();
+        }
+    }
+
+    /**
+     * Private helper method run by a follower's sender thread.  Reads where the follower left
+     * off, brings it up to date and then ships changes as they are made until it disconnects
+     * @param follower Follower being served
+     */
+    private void serve( Follower follower ) {
+        followers.add( follower );
+        try ( Socket socket = follower.socket ) {
+            socket.setTcpNoDelay( true );
+            DataInputStream in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream(), 1 << 16 ) );
+            long followerRun = in.readLong(), applied = in.readLong();
+            out.writeLong( runId );
+
+            long cursor, latest;
+            synchronized ( lock ) {
+                boolean resumable = followerRun == runId && applied <= sequence && applied >= sequence - BACKLOG_RECORDS;
+                cursor = resumable ? applied : -1;
+                latest = sequence;
+            }
+            if ( cursor < 0 ) { cursor = sendState( out ); }
+            else { writeFrame( out, CHANGES, cursor, latest, 0, Collections.emptyList() ); }
+            follower.acknowledged = cursor;
+            startAcknowledgements( follower, in );
+
+            List< byte[] > batch = new ArrayList<>( FRAME_RECORDS );
+            while ( true ) {
+                boolean idle, behind;
+                long changedMillis = 0;
+                synchronized ( lock ) { idle = sequence == cursor; }
+                // Frames written while busy leave together, before the sender sleeps
+                if ( idle ) { out.flush(); }
+                synchronized ( lock ) {
+                    while ( sequence == cursor && !closed && !socket.isClosed() ) {
+                        try { lock.wait(); }
+                        catch ( InterruptedException e ) { return; }
+                    }
+                    if ( closed || socket.isClosed() ) { return; }
+                    behind = cursor < sequence - BACKLOG_RECORDS;
+                    if ( !behind ) {
+                        long last = Math.min( sequence, cursor + FRAME_RECORDS );
+                        for ( long next = cursor + 1; next <= last; next++ ) batch.add( backlog[ (int)( next & ( BACKLOG_RECORDS - 1 ) ) ] );
+                        changedMillis = backlogMillis[ (int)( ( cursor + 1 ) & ( BACKLOG_RECORDS - 1 ) ) ];
+                    }
+                    latest = sequence;
+                }
+                // Fell further behind than the backlog reaches, so it starts over from the state
+                if ( behind ) { cursor = sendState( out ); continue; }
+                writeFrame( out, CHANGES, cursor + batch.size(), latest, changedMillis, batch );
+                if ( Metrics.ENABLED ) { Metrics.REPLICATION_RECORDS_SENT.add( batch.size() ); }
+                cursor += batch.size();
+                batch.clear();
+            }
+        } catch ( IOException | UncheckedIOException e ) {
+            // Follower disconnected, it resumes from its last change when it reconnects
+        } finally {
+            followers.remove( follower );
+        }
+    }
+
+    /**
+     * Private helper method which sends the whole current state of every account, followed by
+     * an empty run of changes numbered where the state was read.  Changes made while the state
+     * is sent are shipped afterwards
+     * @param out DataOutputStream of the follower
+     * @return Long number of the last change the state is known to include
+     * @throws IOException if the follower disconnects
+     */
+    private long sendState( DataOutputStream out ) throws IOException {
+        long from;
+        synchronized ( lock ) { from = sequence; }
+        List< byte[] > batch = new ArrayList<>( FRAME_RECORDS );
+        try {
+            userList.forEachUser( user -> {
+                batch.addAll( Journal.encodeState( user ) );
+                if ( batch.size() < FRAME_RECORDS ) { return; }
+                try { writeFrame( out, STATE, from, from, 0, batch ); }
+                catch ( IOException e ) { throw new UncheckedIOException( e ); }
+                batch.clear(); } );
+        } catch ( UncheckedIOException e ) {
+            throw e.getCause();
+        }
+        writeFrame( out, STATE, from, from, 0, batch );
+        long latest;
+        synchronized ( lock ) { latest = sequence; }
+        writeFrame( out, CHANGES, from, latest, 0, Collections.emptyList() );
+        Metrics.increment( Metrics.REPLICATION_SNAPSHOTS_SENT );
+        return from;
+    }
+
+    /**
+     * Private helper method which starts the thread that reads a follower's acknowledgements,
+     * each the number of the last change it applied.  The follower's socket is closed once it
+     * stops sending them, which wakes its sender
+     * @param follower Follower whose acknowledgements are read
+     * @param in DataInputStream of the follower
+     */
+    private void startAcknowledgements( Follower follower, DataInputStream in ) {
+        Thread reader = new Thread( () -> {
+            try {
+                while ( true ) follower.acknowledged = in.readLong();
+            } catch ( IOException e ) {
+                try { follower.socket.close(); } catch ( IOException ignored ) { /* already closed */ }
+                synchronized ( lock ) { lock.notifyAll(); }
+            } }, "replication-acks" );
+        reader.setDaemon( true );
+        reader.start();
+    }
+
+    /**
+     * Private helper method which writes one frame as [length][type][sequence][latest sequence]
+     * [time of the first change][count] followed by count [length][record] pairs
+     * @param out DataOutputStream of the follower
+     * @param type Byte frame type, STATE or CHANGES
+     * @param last Long number of the last change in the frame, or the change the state was read at
+     * @param latest Long number of the leader's latest change
+     * @param changedMillis Long epoch milliseconds the first change in the frame was made at, or 0
+     * @param records Record payloads of the frame
+     * @throws IOException if the follower disconnects
+     */
+    private static void writeFrame( DataOutputStream out, byte type, long last, long latest, long changedMillis,
+                                    List< byte[] > records ) throws IOException {
+        int length = FRAME_HEADER_BYTES;
+        for ( byte[] record : records ) length += 4 + record.length;
+        out.writeInt( length );
+        out.writeByte( type );
+        out.writeLong( last );
+        out.writeLong( latest );
+        out.writeLong( changedMillis );
+        out.writeInt( records.size() );
+        for ( byte[] record : records ) { out.writeInt( record.length ); out.write( record ); }
+    }
+
+    /**
+     * Getter method which returns the local port followers connect to
+     * @return Integer port number
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Getter method which returns the number of the latest change
+     * @return Long sequence number, 0 before any change
+     */
+    public long getSequence() {
+        synchronized ( lock ) { return this.sequence; }
+    }
+
+    /**
+     * Returns how many changes each connected follower has yet to acknowledge
+     * @return Map of follower addresses to numbers of changes
+     */
+    public Map< String, Long > getFollowerLags() {
+        long latest = getSequence();
+        Map< String, Long > lags = new LinkedHashMap<>();
+        for ( Follower follower : followers ) {
+            lags.put( follower.socket.getRemoteSocketAddress().toString(), latest - follower.acknowledged );
+        }
+        return lags;
+    }
+
+    /**
+     * Stops accepting followers and disconnects the connected ones.  Later changes are no longer
+     * replicated
+     * @throws IOException if the listening socket cannot be closed
+     */
+    public void close() throws IOException {
+        synchronized ( lock ) {
+            closed = true;
+            lock.notifyAll();
+        }
+        server.close();
+        for ( Follower follower : followers ) {
+            try { follower.socket.close(); } catch ( SocketException e ) { /* already closed */ }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * SecurityChallenge class which is one attempt at logging in by security answer.  The account's
+ * answered questions are shuffled once when the challenge is created and then asked in that
+ * order, so no question repeats within a challenge until every question was asked.  The order
+ * belongs to the challenge alone, so challenges of the same account running at the same time or
+ * one after another never affect each other.
+ *
+ * A challenge is meant to be used by the one caller that created it
+ *
+ * Bugs: None
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class SecurityChallenge {
+
+    private final String[] questions;
+    private int asked = 0;
+
+    /**
+     * SecurityChallenge constructor method which shuffles the questions to be asked
+     * @param questions String array of the account's answered questions, taken over by the challenge
+     */
+    SecurityChallenge( String[] questions ) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for ( int i = questions.length - 1; i > 0; i-- ) {
+            int j = random.nextInt( i + 1 );
+            String swap = questions[i];
+            questions[i] = questions[j];
+            questions[j] = swap;
+        }
+        this.questions = questions;
+    }
+
+    /**
+     * Returns the next question of the challenge.  Once every question was asked, they are
+     * asked again in the same order
+     * @return String, lower case question to be answered
+     */
+    public String nextQuestion() {
+        return questions[ asked++ % questions.length ];
+    }
+
+    /**
+     * Getter method which returns how many questions were asked so far
+     * @return Integer number of calls to nextQuestion
+     */
+    public int getAsked() {
+        return this.asked;
+    }
+}
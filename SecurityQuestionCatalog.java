@@ -0,0 +1,177 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.*;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * SecurityQuestionCatalog class which holds the security questions an account can answer,
+ * shared by every account.  Each question is addressed by a small integer ID, its position in
+ * the catalog, so an account only has to remember which IDs it answered and a salted hash of each
+ * answer rather than the question text and the answer itself.
+ *
+ * Answers are hashed with PBKDF2-HMAC-SHA256 over the lower case answer, salted with a per-answer
+ * random salt and the question ID, keeping 63 bits.  The key derivation is deliberately slow, so
+ * a leaked hash cannot be brute-forced at the rate a single digest could.
+ *
+ * Hashes written by earlier versions are a single SHA-256 digest, and answers read back as text
+ * from even older versions are hashed the same way so that replaying them stays fast.  Such legacy
+ * hashes are kept with their top bit set, which a PBKDF2 hash never has, and are still accepted
+ * until the account's owner answers correctly and the answer is rehashed
+ *
+ * Bugs: Questions may only ever be appended, as IDs are positions in the catalog
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class SecurityQuestionCatalog {
+
+    private static final String[] QUESTIONS =
+        new String[]{ "what is your father's middle name?", "what year was your mother born?",
+                      "what was the name of your high school best friend?",
+                      "what city were you born in?", "what was the name of your favorite teacher?" };
+
+    // ID of every question, looked up without scanning the catalog
+    private static final Map< String, Integer > ids = initializeIds();
+
+    // Key derivation rounds of every new hash, and the flag bit that marks a legacy hash
+    private static final int KDF_ITERATIONS = 100_000;
+    private static final long LEGACY = Long.MIN_VALUE;
+
+    private static final SecureRandom saltSource = new SecureRandom();
+
+    // One key factory and one digest per thread, reused for every answer that thread hashes
+    private static final ThreadLocal< SecretKeyFactory > keyFactories = ThreadLocal.withInitial( () -> {
+        try { return SecretKeyFactory.getInstance( "PBKDF2WithHmacSHA256" ); }
+        catch ( NoSuchAlgorithmException e ) { throw new IllegalStateException( e ); } } );
+    private static final ThreadLocal< MessageDigest > digests = ThreadLocal.withInitial( () -> {
+        try { return MessageDigest.getInstance( "SHA-256" ); }
+        catch ( NoSuchAlgorithmException e ) { throw new IllegalStateException( e ); } } );
+
+    /**
+     * Private constructor method, the catalog is only used through its static methods
+     */
+    private SecurityQuestionCatalog() {}
+
+    /**
+     * Private helper method which maps every question to its ID
+     * @return Read-only map of lower case questions to IDs
+     */
+    private static Map< String, Integer > initializeIds() {
+        Map< String, Integer > ids = new HashMap<>();
+        for ( int id = 0; id < QUESTIONS.length; id++ ) ids.put( QUESTIONS[ id ], id );
+        return Collections.unmodifiableMap( ids );
+    }
+
+    /**
+     * Getter method which returns how many questions the catalog holds
+     * @return Integer number of questions, one more than the largest ID
+     */
+    public static int size() {
+        return QUESTIONS.length;
+    }
+
+    /**
+     * Getter method which returns the text of a question
+     * @param id Integer ID of the question
+     * @return String, lower case question
+     */
+    public static String question( int id ) {
+        return QUESTIONS[ id ];
+    }
+
+    /**
+     * Finds the ID of a question
+     * @param question String, question in any case
+     * @return Integer ID of the question, or -1 if it is not in the catalog
+     */
+    public static int idOf( String question ) {
+        Integer id = ( question == null ) ? null : ids.get( question.toLowerCase() );
+        return ( id == null ) ? -1 : id;
+    }
+
+    /**
+     * Getter method which returns every question in ID order
+     * @return Read-only list of lower case questions
+     */
+    public static List< String > getQuestions() {
+        return List.of( QUESTIONS );
+    }
+
+    /**
+     * Draws a new random salt for one answer
+     * @return Long salt
+     */
+    public static long newSalt() {
+        return saltSource.nextLong();
+    }
+
+    /**
+     * Hashes an answer to a question with the slow key derivation
+     * @param id Integer ID of the question being answered
+     * @param salt Long salt drawn for this answer
+     * @param answer String, answer in any case
+     * @return Long hash of the answer with its top bit clear, never 0 so that 0 can mark an
+     * unanswered question
+     */
+    public static long hash( int id, long salt, String answer ) {
+        PBEKeySpec spec = new PBEKeySpec( answer.toLowerCase().toCharArray(),
+            ByteBuffer.allocate( 12 ).putLong( salt ).putInt( id ).array(), KDF_ITERATIONS, 64 );
+        try {
+            long hash = ByteBuffer.wrap( keyFactories.get().generateSecret( spec ).getEncoded() ).getLong() & ~LEGACY;
+            return ( hash == 0 ) ? 1 : hash;
+        } catch ( InvalidKeySpecException e ) {
+            throw new IllegalStateException( e );
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * Hashes an answer the way earlier versions did, with a single SHA-256 digest over the salt,
+     * the question ID and the lower case answer.  Only used for answers read back as text
+     * @param id Integer ID of the question being answered
+     * @param salt Long salt drawn for this answer
+     * @param answer String, answer in any case
+     * @return Long legacy hash of the answer, with its top bit set
+     */
+    public static long legacyHash( int id, long salt, String answer ) {
+        MessageDigest digest = digests.get();
+        digest.update( ByteBuffer.allocate( 12 ).putLong( salt ).putInt( id ).array() );
+        return ByteBuffer.wrap( digest.digest( answer.toLowerCase().getBytes( StandardCharsets.UTF_8 ) ) ).getLong() | LEGACY;
+    }
+
+    /**
+     * Marks a hash read back from a journal or snapshot of an earlier version as a legacy hash
+     * @param hash Long SHA-256 hash as earlier versions stored it
+     * @return Long legacy hash, with its top bit set
+     */
+    public static long fromLegacy( long hash ) {
+        return hash | LEGACY;
+    }
+
+    /**
+     * Getter method which returns whether a hash was made the way earlier versions did, and
+     * should be replaced once the answer is known
+     * @param hash Long stored hash
+     * @return True if the hash is a legacy SHA-256 hash, false if it is a PBKDF2 hash
+     */
+    public static boolean isLegacy( long hash ) {
+        return ( hash & LEGACY ) != 0;
+    }
+
+    /**
+     * Checks an answer against a stored hash of either kind
+     * @param id Integer ID of the question being answered
+     * @param salt Long salt the answer was hashed with
+     * @param hash Long stored hash
+     * @param answer String, attempted answer in any case
+     * @return True if the answer matches, false if otherwise
+     */
+    public static boolean matches( int id, long salt, long hash, String answer ) {
+        return ( isLegacy( hash ) ? legacyHash( id, salt, answer ) : hash( id, salt, answer ) ) == hash;
+    }
+}
@@ -0,0 +1,140 @@
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * SessionManager class which issues a session for every successful log in and expires sessions
+ * that have been idle for too long.  Activity only updates a timestamp; each session has a
+ * single pending idle check in a TimerWheel, which either expires the session or schedules
+ * the next check for when the session could first become idle.  The wheel ticks on the same
+ * clock as the sessions, so idle expiry can be driven by a ManualClock
+ *
+ * Bugs: None
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class SessionManager {
+
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 15 * 60 * 1000;
+
+    private static final int TOKEN_BYTES = 24;
+
+    private final SecureRandom random = new SecureRandom();
+    private final ConcurrentMap< String, AccountSession > sessions = new ConcurrentHashMap<>();
+    private final TimerWheel wheel;
+    private final SystemTime clock;
+    private volatile long idleTimeoutMillis;
+
+    /**
+     * SessionManager constructor method, times sessions by the system clock
+     * @param idleTimeoutMillis Long time in milliseconds after which an unused session expires
+     */
+    public SessionManager( long idleTimeoutMillis ) {
+        this( idleTimeoutMillis, SystemTime.get() );
+    }
+
+    /**
+     * SessionManager constructor method
+     * @param idleTimeoutMillis Long time in milliseconds after which an unused session expires
+     * @param clock SystemTime that sessions are timed by, i.e. a ManualClock in tests
+     */
+    public SessionManager( long idleTimeoutMillis, SystemTime clock ) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.clock = clock;
+        this.wheel = new TimerWheel( "session-expiry", 1000, 512, clock );
+    }
+
+    /**
+     * Setter method which changes the idle timeout of sessions checked from now on
+     * @param idleTimeoutMillis Long time in milliseconds after which an unused session expires
+     */
+    public void setIdleTimeout( long idleTimeoutMillis ) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Issues a new session for a user that has just logged in
+     * @param user User that logged in
+     * @return AccountSession with a new random token
+     */
+    public AccountSession open( User user ) {
+        byte[] bytes = new byte[ TOKEN_BYTES ];
+        random.nextBytes( bytes );
+        AccountSession session = new AccountSession( Base64.getUrlEncoder().withoutPadding().encodeToString( bytes ), user, clock );
+        sessions.put( session.getToken(), session );
+        session.idleCheck = wheel.schedule( () -> checkIdle( session ), idleTimeoutMillis );
+        return session;
+    }
+
+    /**
+     * Getter method which returns an active session by its token
+     * @param token String, session token
+     * @return AccountSession if the token belongs to an active session, otherwise null
+     */
+    public AccountSession get( String token ) {
+        return sessions.get( token );
+    }
+
+    /**
+     * Records activity on a session if it is still active
+     * @param session AccountSession that was used
+     * @return True if the session is still active, false if it expired or was closed
+     */
+    public boolean touch( AccountSession session ) {
+        if ( !session.isActive() ) { return false; }
+        session.touch( clock.monotonicMillis() );
+        return true;
+    }
+
+    /**
+     * Ends a session when its user logs out
+     * @param session AccountSession to be ended
+     */
+    public void close( AccountSession session ) {
+        session.end();
+        sessions.remove( session.getToken(), session );
+        TimerWheel.Timeout check = session.idleCheck;
+        if ( check != null ) { check.cancel(); }
+    }
+
+    /**
+     * Expires every session whose idle check is due by the manager's clock right away, instead
+     * of when the expiry thread next wakes up, i.e. after moving a ManualClock forward
+     */
+    public void expireIdle() {
+        wheel.advance();
+    }
+
+    /**
+     * Stops the expiry thread once the UserList is closed.  Sessions are no longer expired
+     */
+    public void shutdown() {
+        wheel.close();
+    }
+
+    /**
+     * Getter method which returns how many sessions are active
+     * @return Integer number of active sessions
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Private helper method run by the timer wheel when a session may have become idle
+     * @param session AccountSession to be checked
+     */
+    private void checkIdle( AccountSession session ) {
+        if ( !session.isActive() ) { return; }
+        long idleFor = clock.monotonicMillis() - session.getLastActivity();
+        long timeout = idleTimeoutMillis;
+        if ( idleFor >= timeout ) {
+            session.end();
+            sessions.remove( session.getToken(), session );
+        }
+        else {
+            session.idleCheck = wheel.schedule( () -> checkIdle( session ), timeout - idleFor );
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * SessionServer class which accepts terminal sessions over localhost TCP.  Every connection
+ * runs the regular LOG IN / CREATE ACCOUNT menu on its own thread against one shared AccountService,
+ * so the number of people served at once is limited by open connections rather than threads
+ *
+ * Bugs: None
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class SessionServer {
+
+    private final FormatHelper formatHelper = new FormatHelper();
+    private final AccountService service;
+    private final int port;
+
+    /**
+     * SessionServer constructor method
+     * @param service AccountService shared by every session
+     * @param port Localhost TCP port to listen on
+     */
+    public SessionServer( AccountService service, int port ) {
+        this.service = service;
+        this.port = port;
+    }
+
+    /**
+     * Private helper method which creates the executor that runs sessions.  Uses one virtual
+     * thread per session when the running JVM supports them, otherwise falls back to a
+     * cached pool of platform threads
+     * @return ExecutorService which starts a new thread for every submitted session
+     */
+    private ExecutorService newSessionExecutor() {
+        try {
+            return (ExecutorService)Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+        } catch ( ReflectiveOperationException e ) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Private helper method which runs one connected session from start to finish
+     * @param socket Socket of the connected client
+     */
+    private void runSession( Socket socket ) {
+        try ( Socket client = socket ) {
+            Console console = new Console( client.getInputStream(), client.getOutputStream() );
+            Console.bind( console );
+            try { SystemHandler.menuLoop( service ); }
+            finally { console.close(); }
+        } catch ( IOException | Console.ClosedException e ) {
+            // Client disconnected, nothing left to clean up besides the socket
+        } finally {
+            Console.unbind();
+        }
+    }
+
+    /**
+     * Accepts connections until the process is stopped, handing every connection its own session
+     * @throws IOException if the listening socket cannot be opened
+     */
+    public void start() throws IOException {
+        ExecutorService sessions = newSessionExecutor();
+        try ( ServerSocket server = new ServerSocket( port, 0, InetAddress.getLoopbackAddress() ) ) {
+            Console.current().println( formatHelper.basicMessage( "SERVER", "Accepting sessions on localhost:" + server.getLocalPort() ) );
+            Console.current().flush();
+            while ( true ) {
+                Socket client = server.accept();
+                sessions.execute( () -> runSession( client ) );
+            }
+        } finally {
+            sessions.shutdown();
+        }
+    }
+}
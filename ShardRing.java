@@ -0,0 +1,87 @@
+import java.util.Arrays;
+
+/**
+ * ShardRing class which assigns usernames to shards by consistent hashing.  Every shard owns a
+ * fixed set of points on a 32-bit ring, derived from the shard number alone, and a username
+ * belongs to the shard owning the first point at or after the hash of the name.
+ *
+ * Because a shard's points never depend on how many shards there are, growing the ring from N
+ * to N + 1 shards only moves the names that fall just before the new shard's points, about
+ * 1 / (N + 1) of them, and shrinking it only moves the names of the removed shards
+ *
+ * Bugs: None
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class ShardRing {
+
+    // Points per shard; more points spread names more evenly at the cost of a larger ring
+    private static final int POINTS_PER_SHARD = 128;
+
+    private final int shards;
+
+    // Ring positions in ascending order, and the shard owning each position
+    private final int[] points;
+    private final int[] owners;
+
+    /**
+     * ShardRing constructor method
+     * @param shards Integer number of shards, at least 1
+     */
+    public ShardRing( int shards ) {
+        if ( shards < 1 ) { throw new IllegalArgumentException( "There must be at least one shard." ); }
+        this.shards = shards;
+        long[] packed = new long[ shards * POINTS_PER_SHARD ];
+        for ( int shard = 0, i = 0; shard < shards; shard++ ) {
+            for ( int point = 0; point < POINTS_PER_SHARD; point++, i++ ) {
+                // Position in the upper half so sorting orders the ring, owner in the lower
+                int position = (int)( mix( (long)shard * POINTS_PER_SHARD + point ) >>> 32 );
+                packed[i] = ( (long)position << 32 ) | shard;
+            }
+        }
+        Arrays.sort( packed );
+        this.points = new int[ packed.length ];
+        this.owners = new int[ packed.length ];
+        for ( int i = 0; i < packed.length; i++ ) {
+            points[i] = (int)( packed[i] >>> 32 );
+            owners[i] = (int)packed[i];
+        }
+    }
+
+    /**
+     * Getter method which returns how many shards the ring has
+     * @return Integer number of shards
+     */
+    public int getShards() {
+        return this.shards;
+    }
+
+    /**
+     * Returns the shard a username belongs to
+     * @param name String, upper case username
+     * @return Integer shard number, from 0
+     */
+    public int owner( String name ) {
+        if ( shards == 1 ) { return 0; }
+        int hash = (int)( mix( name.hashCode() ) >>> 32 );
+        int low = 0, high = points.length;
+        while ( low < high ) {
+            int middle = ( low + high ) >>> 1;
+            if ( points[ middle ] < hash ) { low = middle + 1; }
+            else { high = middle; }
+        }
+        return owners[ ( low == points.length ) ? 0 : low ];
+    }
+
+    /**
+     * Private helper method which spreads a value over 64 bits with the SplitMix64 finalizer
+     * @param value Long value to be mixed
+     * @return Long mixed value
+     */
+    private static long mix( long value ) {
+        long mixed = value + 0x9e3779b97f4a7c15L;
+        mixed = ( mixed ^ ( mixed >>> 30 ) ) * 0xbf58476d1ce4e5b9L;
+        mixed = ( mixed ^ ( mixed >>> 27 ) ) * 0x94d049bb133111ebL;
+        return mixed ^ ( mixed >>> 31 );
+    }
+}
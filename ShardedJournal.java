@@ -0,0 +1,284 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * ShardedJournal class which makes a UserList durable across shards, one Journal per shard.
+ * Every shard has its own directory holding its own snapshot, log segments and writer thread,
+ * so shards group-commit and fsync independently of each other.  Accounts stay in the one store
+ * of the UserList; only their logs are split, and each change is handed to the journal of the
+ * shard that owns the account by consistent hashing of the username.
+ *
+ * Changing the number of shards only moves the accounts whose shard changes.  While they move,
+ * their changes are logged by both their old and their new shard; each moving account's whole
+ * state is then logged by its new shard, and only once every moving account is in its new shard's
+ * log is the new number of shards recorded.  A crash at any point restores every account from
+ * whichever shards the recorded number says own it
+ *
+ * Bugs: Shards dropped by a rebalance keep their writer until close(), and their directories
+ * are only deleted the next time the journal is opened
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class ShardedJournal implements AccountListener, Closeable {
+
+    private static final String RING_FILE = "shards";
+    private static final String SHARD_PREFIX = "shard-";
+
+    // Moving accounts are logged by their new shard this many at a time
+    private static final int MOVE_BATCH = 1024;
+
+    private final File directory;
+    private final UserList userList;
+
+    // Held while a shard writes a snapshot or the number of shards changes
+    private final Object snapshotLock = new Object();
+
+    // Ring the recorded number of shards makes, and the ring accounts are moving to, or null
+    private volatile ShardRing ring;
+    private volatile ShardRing pending;
+
+    // Journal of every shard opened so far, indexed by shard number
+    private volatile Journal[] journals = new Journal[ 0 ];
+
+    /**
+     * Private constructor method, sharded journals are created through open()
+     * @param directory Directory holding the recorded number of shards and a directory per shard
+     * @param userList UserList being made durable
+     * @param shards Integer recorded number of shards
+     */
+    private ShardedJournal( File directory, UserList userList, int shards ) {
+        this.directory = directory;
+        this.userList = userList;
+        this.ring = new ShardRing( shards );
+    }
+
+    /**
+     * Restores a UserList from the shards in a directory, then starts logging every later change
+     * to it.  Accounts are split across the number of shards recorded in the directory, and moved
+     * to the requested number afterwards if it differs.  A directory written by a Journal is
+     * split into shards the first time
+     * @param directory Directory holding the shards, created if missing
+     * @param userList Empty UserList that the recorded accounts are restored into
+     * @param shards Integer number of shards, at least 1
+     * @return ShardedJournal that is now recording changes to userList
+     * @throws IOException if the directory or a shard cannot be read
+     */
+    public static ShardedJournal open( File directory, UserList userList, int shards ) throws IOException {
+        Files.createDirectories( directory.toPath() );
+        File ringFile = new File( directory, RING_FILE );
+        int recorded = ringFile.exists() ? getRecordedShards( directory ) : shards;
+        ShardedJournal journal = new ShardedJournal( directory, userList, recorded );
+
+        // Left behind by an earlier rebalance to fewer shards
+        for ( File shard : journal.listShards() ) {
+            if ( journal.shardNumber( shard ) >= recorded ) { delete( shard ); }
+        }
+        Journal[] opened = new Journal[ recorded ];
+        for ( int i = 0; i < recorded; i++ ) opened[i] = journal.openShard( i );
+        journal.journals = opened;
+        if ( !ringFile.exists() ) { journal.split(); }
+
+        userList.addAccountListener( journal );
+        journal.rebalance( shards );
+        return journal;
+    }
+
+    /**
+     * Reads how many shards the accounts in a directory are split across
+     * @param directory Directory that may hold shards
+     * @return Integer recorded number of shards, or 0 if the directory holds no shards
+     * @throws IOException if the recorded number cannot be read
+     */
+    public static int getRecordedShards( File directory ) throws IOException {
+        File ringFile = new File( directory, RING_FILE );
+        if ( !ringFile.exists() ) { return 0; }
+        return Integer.parseInt( new String( Files.readAllBytes( ringFile.toPath() ), StandardCharsets.UTF_8 ).trim() );
+    }
+
+    /**
+     * Private helper method which moves the accounts of a directory written by a plain Journal
+     * into the shards, records the number of shards and then deletes the plain Journal's files.
+     * Until the number of shards is recorded the plain Journal's files are left in place, so an
+     * interrupted split starts over
+     * @throws IOException if the plain Journal's files cannot be read
+     */
+    private void split() throws IOException {
+        String[] names = directory.list();
+        boolean plain = false;
+        for ( String name : ( names == null ) ? new String[ 0 ] : names ) plain |= name.startsWith( "accounts" );
+        if ( plain ) {
+            UserList unsharded = new UserList();
+            Journal old = Journal.open( directory, unsharded );
+            old.close();
+            List< List< User > > moving = new ArrayList<>();
+            for ( int i = 0; i < journals.length; i++ ) moving.add( new ArrayList<>() );
+            for ( User user : unsharded.getUsers() ) {
+                // Reattached to userList, so later changes reach the shards
+                userList.addUser( user );
+                moving.get( ring.owner( user.getName() ) ).add( user );
+            }
+            for ( int i = 0; i < journals.length; i++ ) journals[i].appendState( moving.get( i ) );
+        }
+        writeRing( ring.getShards() );
+        // Listed again, as opening the plain Journal started a segment of its own
+        File[] files = directory.listFiles();
+        for ( File file : ( files == null ) ? new File[ 0 ] : files ) {
+            if ( file.getName().startsWith( "accounts" ) ) file.delete();
+        }
+    }
+
+    public void userCreated( User user ) {
+        route( user.getName(), journal -> journal.userCreated( user ) );
+    }
+
+    public void securityQuestionAdded( User user, String question, long salt, long hash ) {
+        route( user.getName(), journal -> journal.securityQuestionAdded( user, question, salt, hash ) );
+    }
+
+    public void checklistUpdated( User user, String key, boolean complete ) {
+        route( user.getName(), journal -> journal.checklistUpdated( user, key, complete ) );
+    }
+
+    /**
+     * Private helper method which hands a change to the journal of the shard owning the
+     * account, and also to the journal of its new shard while it is moving
+     * @param name String, upper case username
+     * @param action Consumer that logs the change to one journal
+     */
+    private void route( String name, Consumer< Journal > action ) {
+        // Pending is read first, so a change that sees no move under way was made before the
+        // move read the account
+        ShardRing next = this.pending;
+        int owner = ring.owner( name );
+        Journal[] current = this.journals;
+        action.accept( current[ owner ] );
+        if ( next != null && next.owner( name ) != owner ) { action.accept( current[ next.owner( name ) ] ); }
+    }
+
+    /**
+     * Changes the number of shards, moving only the logs of the accounts whose shard changes,
+     * while sessions keep using and changing accounts
+     * @param shards Integer new number of shards, at least 1
+     * @return Integer number of accounts moved
+     * @throws IOException if a new shard cannot be opened or the number of shards cannot be recorded
+     */
+    public int rebalance( int shards ) throws IOException {
+        ShardRing next = new ShardRing( shards );
+        synchronized ( snapshotLock ) {
+            ShardRing before = this.ring;
+            if ( before.getShards() == shards ) { return 0; }
+            Journal[] grown = Arrays.copyOf( journals, Math.max( journals.length, shards ) );
+            for ( int i = journals.length; i < grown.length; i++ ) grown[i] = openShard( i );
+            this.journals = grown;
+            // From here on changes to moving accounts reach both shards
+            this.pending = next;
+
+            List< List< User > > moving = new ArrayList<>();
+            for ( int i = 0; i < shards; i++ ) moving.add( new ArrayList<>( MOVE_BATCH ) );
+            int[] moved = { 0 };
+            userList.getStore().forEach( user -> {
+                int to = next.owner( user.getName() );
+                if ( to == before.owner( user.getName() ) ) { return; }
+                List< User > batch = moving.get( to );
+                batch.add( user );
+                moved[0]++;
+                if ( batch.size() == MOVE_BATCH ) { grown[ to ].appendState( batch ); batch.clear(); }
+            } );
+            for ( int i = 0; i < shards; i++ ) grown[i].appendState( moving.get( i ) );
+
+            writeRing( shards );
+            this.ring = next;
+            this.pending = null;
+            return moved[0];
+        }
+    }
+
+    /**
+     * Compacts the log of every shard into a new snapshot
+     * @throws IOException if a snapshot cannot be written
+     */
+    public void snapshot() throws IOException {
+        synchronized ( snapshotLock ) {
+            for ( int i = 0; i < ring.getShards(); i++ ) journals[i].snapshot();
+        }
+    }
+
+    /**
+     * Getter method which returns how many shards accounts are split across
+     * @return Integer number of shards
+     */
+    public int getShards() {
+        return ring.getShards();
+    }
+
+    /**
+     * Private helper method which opens the journal of one shard
+     * @param shard Integer shard number, from 0
+     * @return Journal of the shard
+     * @throws IOException if the shard cannot be read
+     */
+    private Journal openShard( int shard ) throws IOException {
+        return Journal.openShard( new File( directory, String.format( "%s%02d", SHARD_PREFIX, shard ) ),
+            userList, userList.getStore(), name -> ring.owner( name ) == shard, snapshotLock );
+    }
+
+    /**
+     * Private helper method which returns the shard directories present on disk
+     * @return List of shard directories
+     */
+    private List< File > listShards() {
+        List< File > shards = new ArrayList<>();
+        File[] files = directory.listFiles();
+        for ( File file : ( files == null ) ? new File[ 0 ] : files ) {
+            if ( file.isDirectory() && shardNumber( file ) >= 0 ) shards.add( file );
+        }
+        return shards;
+    }
+
+    /**
+     * Private helper method which returns the number of a shard directory
+     * @param file File of the directory
+     * @return Integer shard number, or -1 if the directory is not a shard's
+     */
+    private int shardNumber( File file ) {
+        if ( !file.getName().startsWith( SHARD_PREFIX ) ) { return -1; }
+        try { return Integer.parseInt( file.getName().substring( SHARD_PREFIX.length() ) ); }
+        catch ( NumberFormatException e ) { return -1; }
+    }
+
+    /**
+     * Private helper method which deletes a shard directory and its files
+     * @param shard File of the directory
+     */
+    private static void delete( File shard ) {
+        File[] files = shard.listFiles();
+        for ( File file : ( files == null ) ? new File[ 0 ] : files ) file.delete();
+        shard.delete();
+    }
+
+    /**
+     * Private helper method which records the number of shards, atomically replacing the old one
+     * @param shards Integer number of shards
+     * @throws IOException if the file cannot be written
+     */
+    private void writeRing( int shards ) throws IOException {
+        File temporary = new File( directory, RING_FILE + ".tmp" );
+        try ( FileOutputStream out = new FileOutputStream( temporary ) ) {
+            out.write( ( shards + "\n" ).getBytes( StandardCharsets.UTF_8 ) );
+            out.getFD().sync();
+        }
+        Files.move( temporary.toPath(), new File( directory, RING_FILE ).toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    /**
+     * Stops accepting changes and closes the journal of every shard
+     * @throws IOException if a shard cannot be closed
+     */
+    public void close() throws IOException {
+        for ( Journal journal : journals ) journal.close();
+    }
+}
@@ -0,0 +1,386 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * SnapshotFile class which stores every account of a UserList in a compact binary file that is
+ * memory-mapped rather than parsed when it is opened.  Opening a snapshot only reads its fixed
+ * size header, so startup time does not grow with the number of accounts; each account is
+ * decoded the first time it is looked up.
+ *
+ * Layout, all integers big-endian:
+ *   header   int magic, int version, long firstSegment, int count, int tableSize
+ *   table    int[tableSize] open-addressing hash table of record offsets, 0 marks an empty slot
+ *   records  int length, name, password, long timeCreated, short questions,
+ *            (question, long salt, long hash)*, short items, (key, byte complete)*, where every
+ *            string is a short byte length followed by UTF-8 bytes and timeCreated is in epoch
+ *            milliseconds.  Version 1 snapshots stored timeCreated as a formatted string,
+ *            version 1 and 2 snapshots stored (question, answer)* as text, and version 3
+ *            snapshots stored SHA-256 hashes, which are read as legacy hashes; all can still be opened
+ *
+ * Bugs: A single snapshot is limited to 2GB because it is mapped as one buffer
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class SnapshotFile {
+
+    private static final int MAGIC = 0x53485332;
+    private static final int VERSION = 4;
+    private static final int VERSION_SHA_ANSWERS = 3;
+    private static final int VERSION_TEXT_ANSWERS = 2;
+    private static final int VERSION_TEXT_TIMES = 1;
+    private static final int HEADER_SIZE = 24;
+
+    private final ByteBuffer buffer;
+    private final int version;
+    private final long firstSegment;
+    private final int count;
+    private final int tableSize;
+
+    /**
+     * Private constructor method, snapshots are opened through open()
+     * @param buffer ByteBuffer holding the whole snapshot
+     * @throws IOException if the buffer does not hold a snapshot
+     */
+    private SnapshotFile( ByteBuffer buffer ) throws IOException {
+        this.buffer = buffer;
+        this.version = buffer.getInt( 4 );
+        if ( buffer.getInt( 0 ) != MAGIC || ( version < VERSION_TEXT_TIMES || version > VERSION ) ) {
+            throw new IOException( "Not a SystemHandler snapshot." ); }
+        this.firstSegment = buffer.getLong( 8 );
+        this.count = buffer.getInt( 16 );
+        this.tableSize = buffer.getInt( 20 );
+    }
+
+    /**
+     * Maps a snapshot file into memory without decoding any of its accounts
+     * @param file File holding the snapshot
+     * @return SnapshotFile that decodes accounts on demand
+     * @throws IOException if the file cannot be mapped or is not a snapshot
+     */
+    public static SnapshotFile open( File file ) throws IOException {
+        try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+            MappedByteBuffer mapped = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            return new SnapshotFile( mapped );
+        }
+    }
+
+    /**
+     * Getter method which returns the first log segment that must be replayed on top of this snapshot
+     * @return Long segment number
+     */
+    public long getFirstSegment() {
+        return this.firstSegment;
+    }
+
+    /**
+     * Getter method which returns how many accounts this snapshot holds
+     * @return Integer number of accounts
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * Private helper method which hashes an upper case username into a table position
+     * @param name Byte array, UTF-8 bytes of the username
+     * @return Integer FNV-1a hash of the bytes
+     */
+    static int hash( byte[] name ) {
+        int hash = 0x811c9dc5;
+        for ( byte b : name ) { hash ^= b & 0xff; hash *= 0x01000193; }
+        return hash ^ ( hash >>> 16 );
+    }
+
+    /**
+     * Private helper method which returns the offset of a user's record
+     * @param name Byte array, UTF-8 bytes of the upper case username
+     * @return Integer offset of the record, or -1 if the snapshot has no such user
+     */
+    private int find( byte[] name ) {
+        if ( tableSize == 0 ) { return -1; }
+        int mask = tableSize - 1;
+        for ( int slot = hash( name ) & mask; ; slot = ( slot + 1 ) & mask ) {
+            int offset = buffer.getInt( HEADER_SIZE + slot * 4 );
+            if ( offset == 0 ) { return -1; }
+            if ( nameEquals( offset + 4, name ) ) { return offset; }
+        }
+    }
+
+    /**
+     * Private helper method which compares a stored string with a byte array in place
+     * @param position Integer offset of the stored string
+     * @param bytes Byte array to compare with
+     * @return True if the stored string has exactly these bytes, false if otherwise
+     */
+    private boolean nameEquals( int position, byte[] bytes ) {
+        if ( ( buffer.getShort( position ) & 0xffff ) != bytes.length ) { return false; }
+        for ( int i = 0; i < bytes.length; i++ ) {
+            if ( buffer.get( position + 2 + i ) != bytes[i] ) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether or not the snapshot holds a user, without decoding the user
+     * @param name String, upper case username
+     * @return True if the user is in this snapshot, false if otherwise
+     */
+    public boolean contains( String name ) {
+        return find( name.getBytes( StandardCharsets.UTF_8 ) ) >= 0;
+    }
+
+    /**
+     * Decodes one user from the snapshot.  Every call returns a new User object
+     * @param name String, upper case username
+     * @return User holding the recorded account, or null if the snapshot has no such user
+     */
+    public User read( String name ) {
+        int offset = find( name.getBytes( StandardCharsets.UTF_8 ) );
+        return ( offset < 0 ) ? null : decode( offset );
+    }
+
+    /**
+     * Private helper method which decodes the record at an offset into a User
+     * @param offset Integer offset of the record
+     * @return User holding the recorded account
+     */
+    private User decode( int offset ) {
+        ByteBuffer record = buffer.duplicate();
+        record.position( offset );
+        return decode( record, version );
+    }
+
+    /**
+     * Decodes one record written by encode() into a User
+     * @param record ByteBuffer positioned at the record's length prefix
+     * @return User holding the recorded account
+     */
+    static User decode( ByteBuffer record ) {
+        return decode( record, VERSION );
+    }
+
+    /**
+     * Private helper method which decodes a record of any supported version into a User
+     * @param record ByteBuffer positioned at the record's length prefix
+     * @param version Integer snapshot version the record was written in
+     * @return User holding the recorded account
+     */
+    private static User decode( ByteBuffer record, int version ) {
+        record.position( record.position() + 4 );
+        User user = new User( readString( record ), readString( record ) );
+        InformationHandler information = user.getInformation();
+        information.setTimeCreated( ( version == VERSION_TEXT_TIMES ) ? SystemTime.parse( readString( record ) ) : record.getLong() );
+        for ( int i = record.getShort(); i > 0; i-- ) {
+            String question = readString( record );
+            if ( version == VERSION ) { information.restoreSecurityAnswer( question, record.getLong(), record.getLong() ); }
+            else if ( version == VERSION_SHA_ANSWERS ) {
+                information.restoreSecurityAnswer( question, record.getLong(), SecurityQuestionCatalog.fromLegacy( record.getLong() ) ); }
+            else { information.restoreTextSecurityAnswer( question, readString( record ) ); }
+        }
+        for ( int i = record.getShort(); i > 0; i-- ) information.setChecklistItem( readString( record ), record.get() != 0 );
+        return user;
+    }
+
+    /**
+     * Private helper method which reads a length-prefixed UTF-8 string
+     * @param record ByteBuffer positioned at the string
+     * @return String that was stored
+     */
+    private static String readString( ByteBuffer record ) {
+        byte[] bytes = new byte[ record.getShort() & 0xffff ];
+        record.get( bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * Returns the upper case names of every user in the snapshot
+     * @return List of usernames in table order
+     */
+    public List< String > names() {
+        List< String > names = new ArrayList<>( count );
+        for ( int slot = 0; slot < tableSize; slot++ ) {
+            int offset = buffer.getInt( HEADER_SIZE + slot * 4 );
+            if ( offset == 0 ) { continue; }
+            ByteBuffer record = buffer.duplicate();
+            record.position( offset + 4 );
+            names.add( readString( record ) );
+        }
+        return names;
+    }
+
+    /**
+     * Decodes every user of the snapshot in table order, one at a time, without keeping them
+     * @param action Consumer that receives each decoded User
+     */
+    public void forEach( Consumer< User > action ) {
+        for ( int slot = 0; slot < tableSize; slot++ ) {
+            int offset = buffer.getInt( HEADER_SIZE + slot * 4 );
+            if ( offset != 0 ) { action.accept( decode( offset ) ); }
+        }
+    }
+
+    /**
+     * Private helper method which writes a length-prefixed UTF-8 string
+     * @param out DataOutputStream to write to
+     * @param value String to be written
+     * @throws IOException if the stream cannot be written
+     */
+    private static void writeString( DataOutputStream out, String value ) throws IOException {
+        byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+        if ( bytes.length > 0xffff ) { throw new IOException( "String too long for snapshot." ); }
+        out.writeShort( bytes.length );
+        out.write( bytes );
+    }
+
+    /**
+     * Encodes one user into a record of the current version, including its length prefix
+     * @param user User to be encoded
+     * @return Byte array record
+     * @throws IOException if a field is too long to be stored
+     */
+    static byte[] encode( User user ) throws IOException {
+        InformationHandler information = user.getInformation();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( 128 );
+        DataOutputStream out = new DataOutputStream( bytes );
+        out.writeInt( 0 );
+        writeString( out, user.getName() );
+        writeString( out, user.getPassword() );
+        out.writeLong( information.getTimeCreatedMillis() );
+        List< String > questions = information.getSecurityQuestions();
+        out.writeShort( questions.size() );
+        for ( String question : questions ) {
+            writeString( out, question );
+            out.writeLong( information.getSecurityAnswerSalt( question ) );
+            out.writeLong( information.getSecurityAnswerHash( question ) );
+        }
+        Map< String, Boolean > checklist = new HashMap<>( information.getChecklist() );
+        out.writeShort( checklist.size() );
+        for ( Map.Entry< String, Boolean > entry : checklist.entrySet() ) { writeString( out, entry.getKey() ); out.writeByte( entry.getValue() ? 1 : 0 ); }
+        byte[] record = bytes.toByteArray();
+        ByteBuffer.wrap( record ).putInt( 0, record.length );
+        return record;
+    }
+
+    /**
+     * Private helper method which copies the raw record of a user out of this snapshot
+     * @param name String, upper case username
+     * @return Byte array record, including its length prefix
+     */
+    private byte[] rawRecord( String name ) {
+        int offset = find( name.getBytes( StandardCharsets.UTF_8 ) );
+        byte[] record = new byte[ buffer.getInt( offset ) ];
+        ByteBuffer source = buffer.duplicate();
+        source.position( offset );
+        source.get( record );
+        return record;
+    }
+
+    /**
+     * Writes every account of a UserList to a new snapshot file.  Accounts that were never
+     * loaded out of the UserList's own snapshot are copied over byte for byte instead of being
+     * decoded and encoded again
+     * @param file File to be written, replaced if it exists
+     * @param firstSegment Long number of the first log segment to be replayed on top of it
+     * @param userList UserList whose accounts are written
+     * @throws IOException if the file cannot be written
+     */
+    public static void write( File file, long firstSegment, UserList userList ) throws IOException {
+        write( file, firstSegment, userList.getStore(), userList.getBaseline(), name -> true );
+    }
+
+    /**
+     * Writes the accounts of a store that pass a filter to a new snapshot file, i.e. the accounts
+     * one shard owns
+     * @param file File to be written, replaced if it exists
+     * @param firstSegment Long number of the first log segment to be replayed on top of it
+     * @param store UserStore whose accounts are written
+     * @param owns Predicate of upper case usernames, true for the accounts to be written
+     * @throws IOException if the file cannot be written
+     */
+    public static void write( File file, long firstSegment, UserStore store, Predicate< String > owns ) throws IOException {
+        write( file, firstSegment, store, null, owns );
+    }
+
+    /**
+     * Private helper method which writes the accounts of a store and of the snapshot backing it
+     * that pass a filter to a new snapshot file
+     * @param file File to be written, replaced if it exists
+     * @param firstSegment Long number of the first log segment to be replayed on top of it
+     * @param store UserStore whose accounts are written
+     * @param baseline SnapshotFile holding the accounts not yet loaded into store, or null
+     * @param owns Predicate of upper case usernames, true for the accounts to be written
+     * @throws IOException if the file cannot be written
+     */
+    private static void write( File file, long firstSegment, UserStore store, SnapshotFile baseline,
+                               Predicate< String > owns ) throws IOException {
+        // Stored accounts are named first; anyone loaded later is copied from the old snapshot
+        // and their newer changes are replayed from the log
+        Set< String > stored = new HashSet<>();
+        store.forEachName( name -> { if ( owns.test( name ) ) stored.add( name ); } );
+        List< String > unloaded = new ArrayList<>();
+        if ( baseline != null ) {
+            for ( String name : baseline.names() ) if ( !stored.contains( name ) ) unloaded.add( name );
+        }
+
+        int total = stored.size() + unloaded.size();
+        int tableSize = Integer.highestOneBit( Math.max( 1, total * 2 - 1 ) ) << 1;
+        int[] table = new int[ tableSize ];
+        long[] position = { HEADER_SIZE + 4L * tableSize };
+
+        try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ) ) {
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+                Channels.newOutputStream( channel.position( position[0] ) ), 1 << 16 ) );
+            try {
+                // Accounts created since their names were taken are left to the log
+                store.forEach( user -> {
+                    if ( !stored.remove( user.getName() ) ) { return; }
+                    try { writeRecord( out, table, position, user.getName(), encode( user ) ); }
+                    catch ( IOException e ) { throw new UncheckedIOException( e ); } } );
+            } catch ( UncheckedIOException e ) {
+                throw e.getCause();
+            }
+            for ( String name : unloaded ) {
+                // Records of an older version are upgraded rather than copied
+                writeRecord( out, table, position, name,
+                    ( baseline.version == VERSION ) ? baseline.rawRecord( name ) : encode( baseline.read( name ) ) );
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE + 4 * tableSize );
+            header.putInt( MAGIC ).putInt( VERSION ).putLong( firstSegment ).putInt( total ).putInt( tableSize );
+            for ( int offset : table ) header.putInt( offset );
+            header.flip();
+            long at = 0;
+            while ( header.hasRemaining() ) at += channel.write( header, at );
+            channel.force( true );
+        }
+    }
+
+    /**
+     * Private helper method which appends one record to a snapshot being written and enters it
+     * into the hash table
+     * @param out DataOutputStream positioned after the records written so far
+     * @param table Integer array hash table of record offsets
+     * @param position Long array holding the offset the record is written at, advanced past it
+     * @param name String, upper case username of the record
+     * @param record Byte array record, including its length prefix
+     * @throws IOException if the record cannot be written or the snapshot would exceed 2GB
+     */
+    private static void writeRecord( DataOutputStream out, int[] table, long[] position, String name, byte[] record ) throws IOException {
+        if ( position[0] + record.length > Integer.MAX_VALUE ) { throw new IOException( "Snapshot exceeds 2GB." ); }
+        int slot = hash( name.getBytes( StandardCharsets.UTF_8 ) ) & ( table.length - 1 );
+        while ( table[slot] != 0 ) slot = ( slot + 1 ) & ( table.length - 1 );
+        table[slot] = (int)position[0];
+        out.write( record );
+        position[0] += record.length;
+    }
+}
@@ -1,8 +1,22 @@
-import java.util.Scanner;
+import java.io.*;
 
 /**
  * Main class of the SystemHandler program package.  Handles user terminal input
- * and prints messages that assists the user.
+ * and prints messages that assists the user.  Run with "--server [port]" to accept
+ * many concurrent sessions over localhost TCP instead of the single process console,
+ * with "--data [directory]" to keep accounts across restarts, and with
+ * "--idle-timeout [seconds]" to change how long an unused session stays logged in.
+ * "--import [file]" and "--export [file]" transfer accounts in bulk as CSV and exit.
+ * "--metrics [file]" turns on instrumentation and dumps it to file every few seconds.
+ * "--script [file]" replays a file of terminal input at full speed and reports its rate.
+ * "--audit [directory]" records log ins and account changes as JSON Lines in directory.
+ * "--heap-users [count]" keeps at most count accounts in memory and pages the rest to disk.
+ * "--filter-rate [rate]" sets the false positive rate of the filter over usernames.
+ * "--shards [count]" splits the files of accounts in the data directory across count shards.
+ * "--replicate [port]" streams account changes to followers, which run with "--follow [host:]port"
+ * and serve the replicated accounts read-only.  The process console's menu also accepts the
+ * administrative commands SHOW METRICS and REBALANCE [count], which no other session is offered;
+ * with "--server" the process console takes only those commands
  * 
  * Bugs: Cannot quit log-in or account creation prompt, notification notice
  * prints one too many times
@@ -11,82 +25,423 @@ import java.util.Scanner;
  */
 public class SystemHandler {
 
+    private static final int DEFAULT_SERVER_PORT = 5050;
+    private static final int DEFAULT_REPLICATION_PORT = 5051;
+    private static final long FOLLOW_CATCH_UP_SECONDS = 30;
+    private static final long METRICS_DUMP_SECONDS = 10;
+    private static final int MAX_SECURITY_ATTEMPTS = 3;
+
+    // Will help format terminal messages
+    private static final FormatHelper formatHelper = new FormatHelper();
+
+    // Journal of the shards, when accounts are split into shards and persisted
+    private static volatile ShardedJournal shardedJournal;
+
     /**
      * Main method for the SystemHandler package.  Prints information for user
      * and handles all capabilities of the SystemHandler object.
-     * @param args
+     * @param args Optional "--server [port]" to start the multi-session server and
+     * "--data [directory]" to persist accounts in directory, "--idle-timeout [seconds]"
+     * to expire unused sessions after that many seconds, "--import [file]" and
+     * "--export [file]" to bulk transfer accounts as CSV instead of prompting, and
+     * "--metrics [file]" to record latencies and write them to file, and "--script [file]"
+     * to replay recorded terminal input instead of reading it from the terminal, and
+     * "--audit [directory]" to keep an audit trail in directory, and "--heap-users [count]" to
+     * keep at most count accounts in memory, paging the rest to a file in the data directory, and
+     * "--filter-rate [rate]" to size the username filter for a false positive rate, and
+     * "--shards [count]" to split the data directory across count shards, each persisted on its own, and
+     * "--replicate [port]" to stream every account change to followers on port, and
+     * "--follow [host:]port" to follow a leader's accounts and serve them read-only
+     * @throws IOException if the server socket, data directory, replication port or script cannot be opened
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+
+        // Must be decided before the Metrics class is first used
+        for ( int i = 0; i < args.length - 1; i++ ) {
+            if ( args[i].equals( "--metrics" ) ) { System.setProperty( "systemhandler.metrics", "true" ); }
+        }
+
+        UserList userList = new UserList();
+        Integer serverPort = null;
+        String dataDirectory = null, importFile = null, exportFile = null, scriptFile = null, auditDirectory = null;
+        String leaderAddress = null;
+        Integer heapUsers = null, shards = null, replicationPort = null;
+
+        for ( int i = 0; i < args.length; i++ ) {
+            if ( args[i].equals( "--server" ) ) {
+                serverPort = ( i + 1 < args.length && args[i + 1].matches( "\\d+" ) ) ? Integer.parseInt( args[++i] ) : DEFAULT_SERVER_PORT; }
+            else if ( args[i].equals( "--data" ) && i + 1 < args.length ) { dataDirectory = args[++i]; }
+            else if ( args[i].equals( "--import" ) && i + 1 < args.length ) { importFile = args[++i]; }
+            else if ( args[i].equals( "--metrics" ) && i + 1 < args.length ) { Metrics.startDump( new File( args[++i] ), METRICS_DUMP_SECONDS ); }
+            else if ( args[i].equals( "--export" ) && i + 1 < args.length ) { exportFile = args[++i]; }
+            else if ( args[i].equals( "--script" ) && i + 1 < args.length ) { scriptFile = args[++i]; }
+            else if ( args[i].equals( "--audit" ) && i + 1 < args.length ) { auditDirectory = args[++i]; }
+            else if ( args[i].equals( "--heap-users" ) && i + 1 < args.length ) { heapUsers = Integer.parseInt( args[++i] ); }
+            else if ( args[i].equals( "--shards" ) && i + 1 < args.length ) { shards = Integer.parseInt( args[++i] ); }
+            else if ( args[i].equals( "--replicate" ) ) {
+                replicationPort = ( i + 1 < args.length && args[i + 1].matches( "\\d+" ) ) ? Integer.parseInt( args[++i] ) : DEFAULT_REPLICATION_PORT; }
+            else if ( args[i].equals( "--follow" ) && i + 1 < args.length ) { leaderAddress = args[++i]; }
+            else if ( args[i].equals( "--filter-rate" ) && i + 1 < args.length ) {
+                userList.setFalsePositiveRate( Double.parseDouble( args[++i] ) ); }
+            else if ( args[i].equals( "--idle-timeout" ) && i + 1 < args.length ) {
+                userList.getSessionManager().setIdleTimeout( Long.parseLong( args[++i] ) * 1000 ); }
+        }
+
+        // A directory that was split into shards stays split until --shards says otherwise
+        if ( shards == null && dataDirectory != null ) {
+            int recorded = ShardedJournal.getRecordedShards( new File( dataDirectory ) );
+            if ( recorded > 0 ) { shards = recorded; }
+        }
+        // Only the journal is split into shards, accounts are kept in one store either way
+        if ( shards != null && dataDirectory == null ) {
+            Console.current().println( formatHelper.basicMessage( "SYSTEM", "--shards is ignored without --data." ) );
+            shards = null;
+        }
+        if ( heapUsers != null && shards != null ) {
+            Console.current().println( formatHelper.basicMessage( "SYSTEM", "--heap-users is ignored with --shards." ) );
+            heapUsers = null;
+        }
+
+        // Must be in place before the journal restores any account
+        if ( heapUsers != null ) {
+            File coldDirectory = ( dataDirectory != null ) ? new File( dataDirectory ) : null;
+            if ( coldDirectory == null ) {
+                coldDirectory = java.nio.file.Files.createTempDirectory( "systemhandler" ).toFile();
+                coldDirectory.deleteOnExit();
+            }
+            TieredUserStore store = TieredUserStore.open( coldDirectory, heapUsers );
+            userList.setStore( store );
+            Runtime.getRuntime().addShutdownHook( new Thread( () -> {
+                try { store.close(); } catch ( IOException e ) { /* already shutting down */ } } ) );
+        }
+
+        if ( dataDirectory != null && shards != null ) {
+            ShardedJournal journal = ShardedJournal.open( new File( dataDirectory ), userList, shards );
+            Runtime.getRuntime().addShutdownHook( new Thread( () -> {
+                try { journal.close(); } catch ( IOException e ) { /* already shutting down */ } } ) );
+            shardedJournal = journal;
+        } else if ( dataDirectory != null ) {
+            Journal journal = Journal.open( new File( dataDirectory ), userList );
+            Runtime.getRuntime().addShutdownHook( new Thread( () -> {
+                try { journal.close(); } catch ( IOException e ) { /* already shutting down */ } } ) );
+        }
+
+        AccountService service = new AccountService( userList );
+
+        // Started after the journal so that replicated changes are persisted like local ones
+        ReplicationFollower follower = null;
+        if ( leaderAddress != null ) {
+            int colon = leaderAddress.lastIndexOf( ':' );
+            String host = ( colon < 0 ) ? "localhost" : leaderAddress.substring( 0, colon );
+            ReplicationFollower started = ReplicationFollower.start( userList, host, Integer.parseInt( leaderAddress.substring( colon + 1 ) ) );
+            Runtime.getRuntime().addShutdownHook( new Thread( () -> {
+                try { started.close(); } catch ( IOException e ) { /* already shutting down */ } } ) );
+            service.setReadOnly( true );
+            follower = started;
+            Console.current().println( formatHelper.basicMessage( "SYSTEM", "Following " + leaderAddress + ", accounts are read-only here." ) );
+            if ( importFile != null ) {
+                Console.current().println( formatHelper.basicMessage( "SYSTEM", "--import is ignored with --follow." ) );
+                importFile = null;
+            }
+        }
+        if ( replicationPort != null ) {
+            ReplicationLeader leader = ReplicationLeader.start( userList, replicationPort );
+            Runtime.getRuntime().addShutdownHook( new Thread( () -> {
+                try { leader.close(); } catch ( IOException e ) { /* already shutting down */ } } ) );
+            Console.current().println( formatHelper.basicMessage( "SYSTEM", "Replicating account changes on localhost:" + leader.getPort() ) );
+        }
+
+        // Started after the journal so that replaying restored accounts is not audited again
+        if ( auditDirectory != null ) {
+            AuditLog audit = AuditLog.open( new File( auditDirectory ) );
+            userList.addAccountListener( audit );
+            service.setAuditLog( audit );
+            Runtime.getRuntime().addShutdownHook( new Thread( audit::close ) );
+        }
+
+        if ( importFile != null || exportFile != null ) {
+            BulkTransfer transfer = new BulkTransfer( userList );
+            // A follower exports what the leader holds, not whatever arrived first
+            if ( follower != null && !follower.awaitCaughtUp( FOLLOW_CATCH_UP_SECONDS * 1000 ) ) {
+                Console.current().println( formatHelper.basicMessage( "SYSTEM", "Leader not caught up with, exporting the accounts replicated so far." ) );
+            }
+            if ( importFile != null ) { transfer.importCsv( new File( importFile ) ); }
+            if ( exportFile != null ) { transfer.exportCsv( new File( exportFile ) ); }
+            return;
+        }
+
+        if ( serverPort != null ) {
+            startAdminConsole( service );
+            new SessionServer( service, serverPort ).start();
+            return;
+        }
 
-        // Will help format terminal messages
-        FormatHelper formatHelper = new FormatHelper();
+        if ( scriptFile != null ) {
+            runScript( service, new File( scriptFile ) );
+            return;
+        }
 
         final String STARTUP_MESSAGE = 
             formatHelper.basicMessage( "SYSTEM", 
                 "Welcome, this is a new System Handler. Enter your new credentials.") ;
-        final String LOG_OUT_MESSAGE = 
-            formatHelper.basicMessage( "SYSTEM", 
-                "Logged out. Welcome to the System Handler. Would you like to LOG IN or CREATE ACCOUNT?" );
 
-        UserList userList = new UserList();
-        User currUser = new User();
-        System.out.println( STARTUP_MESSAGE );
+        try {
+            // Restored accounts can log in straight away, and replicas cannot create the first one
+            if ( userList.size() > 0 || service.isReadOnly() ) { menuLoop( service ); return; }
+
+            Console.current().println( STARTUP_MESSAGE );
 
-        // Takes user input for username and password creation
-        String userName = userList.promptInput( "username" );
-        String userPassword = userList.promptInput( "password" );
+            // Creates the first account and prints information about it, then returns information unless "quit"
+            createAccountPrompt( service );
 
-        // If account creation is successful (i.e. no blank values) then the user will be retrieved
-        if ( userList.accountCreation( userName, userPassword ) ) currUser = userList.retrieveUser( userName );
-        formatHelper.welcomeMessage( currUser );
+            // Once logged out of first created user
+            menuLoop( service );
+        } catch ( Console.ClosedException e ) {
+            // End of terminal input, nothing left to process
+        }
+    }
 
-        // User is added to the "userList" object which keeps track of all recorded users
-        userList.addUser( currUser );
+    /**
+     * Replays a script of terminal input through the LOG IN / CREATE ACCOUNT menu as fast as it
+     * can be processed, then reports how many input lines were handled per second.  A script
+     * holds exactly what a person would type, one response per line, i.e. "CREATE ACCOUNT",
+     * a username and a password, processor commands, "QUIT" to log out, and a final "QUIT".  Output of
+     * the replay is discarded and log in throttling is switched off for its duration
+     * @param service AccountService that the script runs against
+     * @param script File of recorded terminal input
+     * @throws IOException if the script cannot be opened
+     */
+    private static void runScript( AccountService service, File script ) throws IOException {
+        Console processConsole = Console.current();
+        LoginThrottle throttle = service.getUserList().getLoginThrottle();
+        throttle.setEnabled( false );
+        long start = System.nanoTime(), lines;
+        try ( InputStream in = new FileInputStream( script ) ) {
+            Console replay = new Console( new BufferedInputStream( in, 1 << 16 ), OutputSink.NULL );
+            Console.bind( replay );
+            try {
+                menuLoop( service );
+            } catch ( Console.ClosedException e ) {
+                // Script ended without a final QUIT
+            } finally {
+                Console.unbind();
+                throttle.setEnabled( true );
+            }
+            lines = replay.getLinesRead();
+        }
+        double seconds = Math.max( 1e-9, ( System.nanoTime() - start ) / 1e9 );
+        processConsole.println( formatHelper.basicMessage( "SCRIPT", String.format(
+            "%d input lines replayed in %.2f seconds, %.0f operations per second.", lines, seconds, lines / seconds ) ) );
+    }
 
-        // Prints information about user and creates while loop that returns information unless "quit"
-        currUser.promptUser();
+    /**
+     * Prompts the user for input under a session that was just opened until they quit or the
+     * session expires, and then logs the session out
+     * @param service AccountService that opened the session
+     * @param session AccountSession of the user that logged in
+     */
+    private static void promptInSession( AccountService service, AccountSession session ) {
+        AccountSession.bind( session );
+        try {
+            session.getUser().promptUser();
+        } finally {
+            service.logOut( session );
+            AccountSession.unbind();
+        }
+    }
 
-        // Once logged out of first created user
+    /**
+     * Private helper method which prompts for one piece of information in the terminal
+     * @param message What the user is prompted to input (i.e. "username" or "new password")
+     * @param console Console of the session being prompted
+     * @return String, the user's input in the terminal
+     */
+    private static String enterInformation( String message, Console console ) {
+        console.println( formatHelper.basicMessage( "SYSTEM", String.format( "Please enter your %s.", message ) ) );
+        return console.readLine();
+    }
+
+    /**
+     * Private helper method which prompts for a new username and password until an account
+     * can be created with them, then welcomes the user and prompts them under a new session
+     * @param service AccountService that creates the account
+     */
+    private static void createAccountPrompt( AccountService service ) {
+        Console console = Console.current();
         while ( true ) {
-            System.out.println( LOG_OUT_MESSAGE );
-            Scanner input = new Scanner( System.in );
+            String userName = enterInformation( "new username", console );
+            String userPassword = enterInformation( "new password", console );
+            // If account creation was successful, the new account is logged into straight away
+            AccountSession session = service.register( userName, userPassword );
+            if ( session != null ) {
+                formatHelper.welcomeMessage( session.getUser() );
+                promptInSession( service, session );
+                return;
+            }
+            if ( service.isReadOnly() ) {
+                console.println( formatHelper.basicMessage( "SYSTEM: USER CREATION PROHIBITED", "Accounts cannot be created on a read-only replica." ) );
+                return;
+            }
+            console.println( formatHelper.basicMessage( "SYSTEM: USER CREATION PROHIBITED", "Username has already been taken.") );
+        }
+    }
+
+    /**
+     * Private helper method which handles a log in attempt.  Asks for a username and password,
+     * and if the password is wrong for an existing account, challenges the user with that
+     * account's security questions instead
+     * @param service AccountService that checks the attempt
+     * @return AccountSession if the log in succeeded, otherwise null
+     */
+    private static AccountSession logInPrompt( AccountService service ) {
+        Console console = Console.current();
+        String username = enterInformation( "username", console ), password = enterInformation( "password", console );
+        AccountSession session;
+        try {
+            session = service.authenticate( username, password, console );
+        } catch ( AccountService.ThrottledException e ) {
+            console.println( formatHelper.basicMessage( "SYSTEM", e.getMessage() ) );
+            return null;
+        }
+        console.println( formatHelper.basicMessage( "SYSTEM", ( session != null ) ? "Log in successful." : "Log in failed." ) );
+        if ( session == null && service.accountExists( username ) ) { session = securityChallengePrompt( service, username ); }
+        return session;
+    }
+
+    /**
+     * Private helper method which lets a user log in by answering one of their account's
+     * security questions, allowing a few attempts.  The questions are shuffled once for the
+     * challenge, and the next one is only taken when another attempt will be made
+     * @param service AccountService that checks the answers
+     * @param username String, account being logged into
+     * @return AccountSession if an answer was correct, otherwise null
+     */
+    private static AccountSession securityChallengePrompt( AccountService service, String username ) {
+        long start = Metrics.start();
+        Console console = Console.current();
+        AccountSession session = null;
+        SecurityChallenge challenge = service.securityChallenge( username );
+        if ( challenge == null ) {
+            console.println( formatHelper.basicMessage( "ACCOUNT ERROR", "No security questions found for this account. Login failed." ) ); }
+        try {
+            for ( int attempt = 0; challenge != null && session == null && attempt < MAX_SECURITY_ATTEMPTS; attempt++ ) {
+                String question = challenge.nextQuestion();
+                console.println( formatHelper.basicMessage( "SECURITY CHALLENGE", "Please answer the following question: " + question ) );
+                session = service.authenticateWithSecurityAnswer( username, question, console.readLine(), console );
+            }
+        } catch ( AccountService.ThrottledException e ) {
+            console.println( formatHelper.basicMessage( "SYSTEM", e.getMessage() ) );
+        }
+        Metrics.record( Metrics.SECURITY_CHALLENGE, start );
+        return session;
+    }
+
+    /**
+     * Runs the LOG IN / CREATE ACCOUNT menu for the session bound to the calling
+     * thread until that session enters QUIT.  Shared by the process console and
+     * every server session
+     * @param service AccountService that accounts are created in and logged into through
+     */
+    public static void menuLoop( AccountService service ) {
+        Console console = Console.current();
+        final String LOG_OUT_MESSAGE = 
+            formatHelper.basicMessage( "SYSTEM", 
+                "Logged out. Welcome to the System Handler. Would you like to LOG IN or CREATE ACCOUNT?" );
+
+        while ( true ) {
+            console.println( LOG_OUT_MESSAGE );
             String response;
 
             // Handling user input in terminal
-            response = input.nextLine().toUpperCase();
+            response = console.readLine().toUpperCase();
 
             // Handles a user log in
             if ( response.equals( "LOG IN" ) ) {
                 // Prompts the user for log-in information
-                currUser = userList.logInPrompt();
+                AccountSession session = logInPrompt( service );
                 // If user is not found/wrong password, returns null and prompts log in again
-                if ( currUser != null ) {
+                if ( session != null ) {
                     // Formats account information for the logged-in user
-                    formatHelper.menuInformation( currUser );
-                    // Records the time the user logged in
-                    currUser.getInformation().setBeginningTime();
-                    // Prompts user for input
-                    currUser.promptUser();
+                    formatHelper.menuInformation( session.getUser() );
+                    // Prompts user for input in the new session, which records the time the user logged in
+                    promptInSession( service, session );
                 }
             }
             // Hnadles if the user wants to create an account
             else if ( response.equals ( "CREATE ACCOUNT" ) ) {
-                while (true) {
-                    userName = userList.promptInput( "username" );
-                    userPassword = userList.promptInput( "password" );
-                    // If account creation was successful, then account was added to user list
-                    if ( userList.accountCreation( userName, userPassword ) ) {
-                        currUser = userList.retrieveUser( userName );
-                        formatHelper.welcomeMessage( currUser );
-                        break;
-                    }
-                }
-                // Prompts user once while loop is broken
-                currUser.promptUser();
+                createAccountPrompt( service );
+            }
+            // Ends the session
+            else if ( response.equals( "QUIT" ) ) {
+                return;
+            }
+            // Administrative commands are only taken from whoever started the process
+            else if ( console.isProcessConsole() && adminCommand( service, response, console ) ) {
+                continue;
             }
             else {
-                System.out.println( formatHelper.basicMessage( "ERROR", "Incorrect input." ) );
+                console.println( formatHelper.basicMessage( "ERROR", "Incorrect input." ) );
             }
         }
     }
+
+    /**
+     * Private helper method which runs an administrative command entered on the process console
+     * @param service AccountService whose accounts the command acts on
+     * @param response String, upper case input
+     * @param console Console the command was entered on
+     * @return True if the input was an administrative command, false if otherwise
+     */
+    private static boolean adminCommand( AccountService service, String response, Console console ) {
+        if ( response.equals( "SHOW METRICS" ) ) {
+            console.println( Metrics.summary() );
+            return true;
+        }
+        if ( response.matches( "REBALANCE \\d{1,4}" ) ) {
+            console.println( formatHelper.basicMessage( "SYSTEM", rebalance( service, Integer.parseInt( response.substring( 10 ) ) ) ) );
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Private helper method which changes the number of shards accounts are split across while
+     * sessions keep running, persisting the move when the shards are journaled
+     * @param service AccountService whose accounts are moved
+     * @param shards Integer new number of shards
+     * @return String describing the outcome
+     */
+    private static String rebalance( AccountService service, int shards ) {
+        if ( shards < 1 ) { return "There must be at least one shard."; }
+        try {
+            ShardedJournal journal = shardedJournal;
+            if ( journal == null ) { return "Accounts are not split into shards. Start with --data and --shards to rebalance."; }
+            int moved = journal.rebalance( shards );
+            return String.format( "Moved %d account(s), accounts are now split across %d shard(s).", moved, shards );
+        } catch ( IOException e ) {
+            return "Rebalance failed: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Private helper method which reads administrative commands from the process console on a
+     * thread of its own, while the process serves sessions over TCP
+     * @param service AccountService whose accounts the commands act on
+     */
+    private static void startAdminConsole( AccountService service ) {
+        Thread admin = new Thread( () -> {
+            Console console = Console.current();
+            try {
+                while ( true ) {
+                    String response = console.readLine().toUpperCase();
+                    if ( !adminCommand( service, response, console ) ) {
+                        console.println( formatHelper.basicMessage( "ERROR", "Incorrect input." ) ); }
+                    console.flush();
+                }
+            } catch ( Console.ClosedException e ) {
+                // No terminal attached, sessions are served regardless
+            } }, "admin-console" );
+        admin.setDaemon( true );
+        admin.start();
+    }
 }
@@ -1,25 +1,145 @@
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 
 /**
  * The SystemTime class, which handles all recording of time-related inquiries (length of log-in,
- * account creation date)
- * 
+ * account creation date).  Times are kept as primitive longs: wall-clock epoch milliseconds for
+ * when something happened, and monotonic milliseconds for measuring how long something took,
+ * which never jump when the system clock is adjusted.  Epoch times are only turned into readable
+ * text when displayed, through one shared formatter that remembers recently formatted seconds.
+ *
+ * Every part of the SystemHandler package that keeps time is handed the clock it reads in its
+ * constructor, the system clock unless told otherwise, so tests and benchmarks can hand a UserList
+ * a ManualClock to make time deterministic without affecting anything else in the process
+ *
  * Bugs: None
- * 
+ *
  * @author David Sanchez (@davchez on GitHub)
  */
 public class SystemTime {
-    
+
+    /**
+     * ManualClock subclass which only moves when told to, for deterministic tests and benchmarks
+     */
+    public static class ManualClock extends SystemTime {
+
+        private volatile long epochMillis;
+        private volatile long monotonicMillis;
+
+        /**
+         * ManualClock constructor method
+         * @param epochMillis Long wall-clock time the clock starts at
+         */
+        public ManualClock( long epochMillis ) {
+            this.epochMillis = epochMillis;
+        }
+
+        public long currentTimeMillis() {
+            return this.epochMillis;
+        }
+
+        public long monotonicMillis() {
+            return this.monotonicMillis;
+        }
+
+        /**
+         * Moves both of the clock's times forward
+         * @param millis Long number of milliseconds to advance by
+         */
+        public synchronized void advance( long millis ) {
+            this.epochMillis += millis;
+            this.monotonicMillis += millis;
+        }
+    }
+
+    /**
+     * Formatted subclass which pairs an epoch second with its readable text.  Immutable, so a
+     * cache slot can be read and replaced by any thread without locking
+     */
+    private static final class Formatted {
+
+        private final long second;
+        private final String text;
+
+        /**
+         * Formatted constructor method
+         * @param second Long epoch second
+         * @param text String, readable form of that second
+         */
+        private Formatted( long second, String text ) {
+            this.second = second;
+            this.text = text;
+        }
+    }
+
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern( "MM-dd-yyyy HH:mm:ss" );
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    // Direct-mapped by epoch second, so every account created within one second shares its text
+    private static final int CACHE_SLOTS = 64;
+    private static final Formatted[] cache = new Formatted[ CACHE_SLOTS ];
+
+    private static final SystemTime SYSTEM = new SystemTime();
+
+    /**
+     * Getter method which returns the system clock, used wherever no other clock was handed in
+     * @return SystemTime reading the system's wall-clock and monotonic time
+     */
+    public static SystemTime get() {
+        return SYSTEM;
+    }
+
+    /**
+     * Getter method which returns the current wall-clock time
+     * @return Long milliseconds since the epoch
+     */
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Getter method which returns the current monotonic time, only meaningful compared to
+     * another monotonic time
+     * @return Long milliseconds since an arbitrary origin
+     */
+    public long monotonicMillis() {
+        return System.nanoTime() / 1_000_000;
+    }
+
     /**
      * Method which returns the current time in month, day, year format with an
      * hour, minute, second format for time
      * @return returns a readable formatted String of the current time
      */
     public String getCurrentTime() {
-        LocalDateTime timer = LocalDateTime.now();
-        DateTimeFormatter timerFormat = DateTimeFormatter.ofPattern( "MM-dd-yyyy HH:mm:ss" );
-        String result = timer.format( timerFormat );
-        return result;
+        return format( currentTimeMillis() );
+    }
+
+    /**
+     * Formats an epoch time in month, day, year format with an hour, minute, second format for
+     * time.  Times within a recently formatted second reuse that second's String
+     * @param epochMillis Long milliseconds since the epoch
+     * @return Readable formatted String of the time
+     */
+    public static String format( long epochMillis ) {
+        long second = Math.floorDiv( epochMillis, 1000 );
+        int slot = (int)( second & ( CACHE_SLOTS - 1 ) );
+        Formatted cached = cache[ slot ];
+        if ( cached != null && cached.second == second ) { return cached.text; }
+        String text = FORMAT.format( Instant.ofEpochSecond( second ).atZone( ZONE ) );
+        cache[ slot ] = new Formatted( second, text );
+        return text;
+    }
+
+    /**
+     * Parses a time written by format() back into an epoch time, for records stored before
+     * times were kept as numbers
+     * @param text String in MM-dd-yyyy HH:mm:ss format
+     * @return Long milliseconds since the epoch
+     */
+    public static long parse( String text ) {
+        return LocalDateTime.parse( text, FORMAT ).atZone( ZONE ).toInstant().toEpochMilli();
     }
 }
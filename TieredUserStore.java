@@ -0,0 +1,441 @@
+import java.io.*;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * TieredUserStore class which keeps a bounded number of recently used accounts on the heap and
+ * pages the rest out to a ColdStore file, so that memory use stops growing with the number of
+ * dormant accounts.  A lookup of a resident account is a single lock-free map read; a paged out
+ * account is decoded from the file and brought back in transparently.
+ *
+ * Residents are evicted in CLOCK order, an approximation of least recently used: every lookup
+ * marks its account as referenced, and the clock hand gives a referenced account a second chance
+ * instead of evicting it.  An evicted account whose User object is still held somewhere (i.e. by
+ * a logged in session) is remembered through a weak reference, so bringing it back hands out
+ * that same object, and any change made to it while it is out is written back to the file.
+ * Moving accounts between the tiers happens under one lock.
+ *
+ * Visiting every account takes memory for at most the resident accounts, never for every
+ * account: residents without a copy in the file are visited from the heap, and everything else
+ * from the file, whose slots are marked as they are passed
+ *
+ * Bugs: The cap counts accounts, not bytes, as accounts are all of a similar size
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class TieredUserStore implements UserStore, Closeable {
+
+    private static final String COLD_FILE = "cold-accounts.dat";
+
+    // Paged out accounts are visited this many at a time, so the lock is never held for long
+    private static final int VISIT_BATCH = 1024;
+
+    /**
+     * Entry subclass which is one resident account and its CLOCK reference bit
+     */
+    private static final class Entry {
+
+        private final User user;
+        private volatile boolean referenced = true;
+
+        /**
+         * Entry constructor method
+         * @param user User held on the heap
+         */
+        private Entry( User user ) {
+            this.user = user;
+        }
+    }
+
+    /**
+     * Detached subclass which remembers an evicted User object for as long as something else
+     * still holds it
+     */
+    private static final class Detached extends WeakReference< User > {
+
+        private final String name;
+
+        /**
+         * Detached constructor method
+         * @param user User that was evicted
+         * @param queue ReferenceQueue told once user has been collected
+         */
+        private Detached( User user, ReferenceQueue< User > queue ) {
+            super( user, queue );
+            this.name = user.getName();
+        }
+    }
+
+    private final int capacity;
+    private final ConcurrentMap< String, Entry > resident = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    // Guards everything below, which only changes when accounts move between the tiers
+    private final Object lock = new Object();
+    private final ArrayDeque< Entry > clock = new ArrayDeque<>();
+    private final Map< String, Detached > detached = new HashMap<>();
+    private final ReferenceQueue< User > collected = new ReferenceQueue<>();
+    private final ColdStore cold;
+    private AccountListener listener;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder writeBacks = new LongAdder();
+
+    /**
+     * Private constructor method, tiered stores are created through open()
+     * @param capacity Integer largest number of accounts kept on the heap
+     * @param cold ColdStore that evicted accounts are written to
+     */
+    private TieredUserStore( int capacity, ColdStore cold ) {
+        this.capacity = capacity;
+        this.cold = cold;
+    }
+
+    /**
+     * Creates an empty tiered store that pages accounts out to a file in a directory
+     * @param directory Directory for the cold store file, created if missing
+     * @param capacity Integer largest number of accounts kept on the heap
+     * @return TieredUserStore holding no accounts
+     * @throws IOException if the cold store file cannot be created
+     */
+    public static TieredUserStore open( File directory, int capacity ) throws IOException {
+        if ( capacity < 1 ) { throw new IllegalArgumentException( "Capacity must be at least 1." ); }
+        if ( !directory.isDirectory() && !directory.mkdirs() ) { throw new IOException( "Cannot create " + directory ); }
+        return new TieredUserStore( capacity, ColdStore.create( new File( directory, COLD_FILE ) ) );
+    }
+
+    public User get( String name ) {
+        Entry entry = resident.get( name );
+        if ( entry != null ) {
+            // Only written when it changes, so hot accounts do not keep dirtying the cache line
+            if ( !entry.referenced ) { entry.referenced = true; }
+            hits.increment();
+            Metrics.increment( Metrics.USER_CACHE_HITS );
+            return entry.user;
+        }
+        synchronized ( lock ) { return load( name ); }
+    }
+
+    public User putIfAbsent( User user ) {
+        synchronized ( lock ) {
+            User existing = load( user.getName() );
+            if ( existing != null ) { return existing; }
+            size.incrementAndGet();
+            admit( user );
+            return null;
+        }
+    }
+
+    public boolean contains( String name ) {
+        if ( resident.containsKey( name ) ) { return true; }
+        synchronized ( lock ) {
+            try { return cold.contains( name ); }
+            catch ( IOException e ) { throw new UncheckedIOException( e ); }
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public Collection< User > getResidentUsers() {
+        List< User > users = new ArrayList<>( resident.size() );
+        for ( Entry entry : resident.values() ) users.add( entry.user );
+        return Collections.unmodifiableList( users );
+    }
+
+    public void forEach( Consumer< User > action ) {
+        int mark = startVisit();
+        try {
+            List< User > batch = new ArrayList<>( VISIT_BATCH );
+            Set< String > residentOnly = visitResidentOnly( entry -> batch.add( entry.user ), batch, action );
+            int slot = 0, tableSize = -1;
+            while ( slot >= 0 ) {
+                synchronized ( lock ) {
+                    // The table was renumbered since the last batch, so the visit starts over
+                    // and skips the slots it already marked
+                    if ( cold.getTableSize() != tableSize ) { tableSize = cold.getTableSize(); slot = 0; }
+                    try {
+                        slot = cold.forEach( slot, VISIT_BATCH, mark, user -> {
+                            if ( residentOnly.contains( user.getName() ) ) { return; }
+                            // An account brought back since it was written is visited as it is now
+                            Entry entry = resident.get( user.getName() );
+                            batch.add( ( entry == null ) ? user : entry.user ); } );
+                    } catch ( IOException e ) {
+                        throw new UncheckedIOException( e );
+                    }
+                }
+                batch.forEach( action );
+                batch.clear();
+            }
+        } finally {
+            endVisit( mark );
+        }
+    }
+
+    public void forEachName( Consumer< String > action ) {
+        int mark = startVisit();
+        try {
+            List< String > batch = new ArrayList<>( VISIT_BATCH );
+            Set< String > residentOnly = visitResidentOnly( entry -> batch.add( entry.user.getName() ), batch, action );
+            int slot = 0, tableSize = -1;
+            while ( slot >= 0 ) {
+                synchronized ( lock ) {
+                    if ( cold.getTableSize() != tableSize ) { tableSize = cold.getTableSize(); slot = 0; }
+                    try { slot = cold.forEachName( slot, VISIT_BATCH, mark, name -> { if ( !residentOnly.contains( name ) ) batch.add( name ); } ); }
+                    catch ( IOException e ) { throw new UncheckedIOException( e ); }
+                }
+                batch.forEach( action );
+                batch.clear();
+            }
+        } finally {
+            endVisit( mark );
+        }
+    }
+
+    /**
+     * Private helper method which visits the resident accounts that have no copy in the file.
+     * Residents that have one are left to the pass over the file, as are accounts evicted before
+     * this pass reached them
+     * @param collect Consumer that adds a resident Entry to batch
+     * @param batch List that collect fills, emptied after every batch
+     * @param action Consumer that every batch is handed to
+     * @return Set of the names visited, at most the capacity plus accounts created meanwhile, so
+     * the pass over the file can skip any of them that are evicted during the visit
+     */
+    private < T > Set< String > visitResidentOnly( Consumer< Entry > collect, List< T > batch, Consumer< T > action ) {
+        Set< String > residentOnly = new HashSet<>();
+        Iterator< Entry > entries = resident.values().iterator();
+        while ( entries.hasNext() ) {
+            synchronized ( lock ) {
+                try {
+                    for ( int i = 0; i < VISIT_BATCH && entries.hasNext(); i++ ) {
+                        Entry entry = entries.next();
+                        String name = entry.user.getName();
+                        if ( !cold.contains( name ) && residentOnly.add( name ) ) { collect.accept( entry ); }
+                    }
+                } catch ( IOException e ) {
+                    throw new UncheckedIOException( e );
+                }
+            }
+            batch.forEach( action );
+            batch.clear();
+        }
+        return residentOnly;
+    }
+
+    /**
+     * Private helper method which starts a visit of the file, waiting while eight are already
+     * in progress
+     * @return Integer mark of the visit
+     */
+    private int startVisit() {
+        synchronized ( lock ) {
+            boolean interrupted = false;
+            int mark;
+            while ( ( mark = cold.startVisit() ) < 0 ) {
+                try { lock.wait(); }
+                catch ( InterruptedException e ) { interrupted = true; }
+            }
+            if ( interrupted ) { Thread.currentThread().interrupt(); }
+            return mark;
+        }
+    }
+
+    /**
+     * Private helper method which ends a visit of the file and wakes one waiting to start
+     * @param mark Integer mark of the visit
+     */
+    private void endVisit( int mark ) {
+        synchronized ( lock ) {
+            cold.endVisit( mark );
+            lock.notifyAll();
+        }
+    }
+
+    public void setListener( AccountListener listener ) {
+        synchronized ( lock ) { this.listener = listener; }
+    }
+
+    public void changed( User user ) {
+        Entry entry = resident.get( user.getName() );
+        if ( entry != null && entry.user == user ) { return; }
+        synchronized ( lock ) {
+            entry = resident.get( user.getName() );
+            if ( entry != null && entry.user == user ) { return; }
+            // Changed after it was evicted, so the copy in the file is out of date
+            Detached reference = detached.get( user.getName() );
+            if ( reference != null && reference.get() == user ) {
+                write( user );
+                writeBacks.increment();
+            }
+        }
+    }
+
+    /**
+     * Private helper method which finds an account in any tier and makes it resident.  Must be
+     * called while holding the lock
+     * @param name String, upper case username
+     * @return User stored under that name, or null if there is none
+     */
+    private User load( String name ) {
+        Entry entry = resident.get( name );
+        if ( entry != null ) {
+            hits.increment();
+            Metrics.increment( Metrics.USER_CACHE_HITS );
+            return entry.user; }
+        Reference< User > reference = detached.get( name );
+        User user = ( reference == null ) ? null : reference.get();
+        if ( user == null ) {
+            try { user = cold.read( name ); }
+            catch ( IOException e ) { throw new UncheckedIOException( e ); }
+            if ( user == null ) { return null; }
+            user.getInformation().attach( user, listener );
+        }
+        misses.increment();
+        Metrics.increment( Metrics.USER_CACHE_MISSES );
+        admit( user );
+        return user;
+    }
+
+    /**
+     * Private helper method which makes an account resident, evicting others if the heap is
+     * over capacity.  Must be called while holding the lock
+     * @param user User to be held on the heap
+     */
+    private void admit( User user ) {
+        Entry entry = new Entry( user );
+        resident.put( user.getName(), entry );
+        clock.addLast( entry );
+        detached.remove( user.getName() );
+        evict();
+    }
+
+    /**
+     * Private helper method which moves the clock hand, writing unreferenced accounts to the
+     * file and dropping them from the heap until it is back within capacity.  Must be called
+     * while holding the lock
+     */
+    private void evict() {
+        for ( Reference< ? extends User > reference; ( reference = collected.poll() ) != null; ) {
+            Detached gone = (Detached)reference;
+            detached.remove( gone.name, gone );
+        }
+        while ( resident.size() > capacity ) {
+            Entry entry = clock.pollFirst();
+            if ( entry == null ) { return; }
+            String name = entry.user.getName();
+            if ( resident.get( name ) != entry ) { continue; }
+            if ( entry.referenced ) { entry.referenced = false; clock.addLast( entry ); continue; }
+            // Dropped from the map first, so a change racing with the write below is written back
+            resident.remove( name );
+            write( entry.user );
+            detached.put( name, new Detached( entry.user, collected ) );
+            evictions.increment();
+            Metrics.increment( Metrics.USER_CACHE_EVICTIONS );
+        }
+    }
+
+    /**
+     * Private helper method which writes the current state of an account to the file.  Must be
+     * called while holding the lock
+     * @param user User to be written
+     */
+    private void write( User user ) {
+        try { cold.put( user ); }
+        catch ( IOException e ) { throw new UncheckedIOException( e ); }
+    }
+
+    /**
+     * Getter method which returns the largest number of accounts kept on the heap
+     * @return Integer capacity
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Getter method which returns how many accounts are currently on the heap
+     * @return Integer number of resident accounts
+     */
+    public int getResidentCount() {
+        return resident.size();
+    }
+
+    /**
+     * Getter method which returns how many accounts have a copy in the file
+     * @return Integer number of paged out accounts, including ones since brought back
+     */
+    public int getColdCount() {
+        synchronized ( lock ) { return cold.size(); }
+    }
+
+    /**
+     * Getter method which returns the size of the cold store file
+     * @return Long number of bytes
+     */
+    public long getColdBytes() {
+        synchronized ( lock ) { return cold.getFileBytes(); }
+    }
+
+    /**
+     * Getter method which returns how many lookups found their account on the heap
+     * @return Long number of hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Getter method which returns how many lookups had to bring their account back
+     * @return Long number of misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Getter method which returns how many accounts were paged out
+     * @return Long number of evictions
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Getter method which returns how many paged out accounts were written again because they
+     * changed while out
+     * @return Long number of write backs
+     */
+    public long getWriteBacks() {
+        return writeBacks.sum();
+    }
+
+    /**
+     * Formats the store's statistics for the terminal
+     * @return String, one line of counts
+     */
+    public String getStats() {
+        long hits = getHits(), misses = getMisses();
+        return String.format( "resident=%d/%d cold=%d (%d bytes) hits=%d misses=%d hit_rate=%.3f evictions=%d write_backs=%d",
+            getResidentCount(), capacity, getColdCount(), getColdBytes(), hits, misses,
+            ( hits + misses == 0 ) ? 0.0 : (double)hits / ( hits + misses ), getEvictions(), getWriteBacks() );
+    }
+
+    /**
+     * Deletes the cold store file.  The store must not be used afterwards
+     * @throws IOException if the file cannot be closed
+     */
+    public void close() throws IOException {
+        synchronized ( lock ) { cold.close(); }
+    }
+}
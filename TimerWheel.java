@@ -0,0 +1,210 @@
+/**
+ * TimerWheel class which runs tasks after a delay using a hashed timer wheel.  Timeouts are
+ * kept in a ring of buckets, one per tick; scheduling and cancelling a timeout are O(1) and
+ * each tick only visits the timeouts hashed into its own bucket, no matter how many timeouts
+ * are pending in total.  Delays longer than one turn of the wheel wait extra rounds in their
+ * bucket.  Tasks are run on the wheel's own daemon thread and should be short.
+ *
+ * Ticks are counted on the clock the wheel is handed, so a wheel timed by a ManualClock only
+ * moves when that clock does: advance() runs whatever the clock has made due right away, and
+ * the thread catches up with the clock once per tick of real time
+ *
+ * Bugs: Timeouts fire up to one tick late
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class TimerWheel {
+
+    /**
+     * Timeout subclass which is a single scheduled task, linked into its bucket's list
+     */
+    public class Timeout {
+
+        private final Runnable task;
+        private long remainingRounds;
+        private int bucket;
+        private Timeout previous, next;
+        private boolean pending = true;
+
+        /**
+         * Private constructor method, timeouts are created through schedule()
+         * @param task Runnable to be run once the timeout fires
+         */
+        private Timeout( Runnable task ) {
+            this.task = task;
+        }
+
+        /**
+         * Cancels the timeout so that its task never runs, has no effect if it already fired
+         */
+        public void cancel() {
+            synchronized ( lock ) {
+                if ( pending ) { unlink( this ); pending = false; }
+            }
+        }
+    }
+
+    private final Object lock = new Object();
+    private final Timeout[] buckets;
+    private final int mask;
+    private final long tickMillis;
+    private final String name;
+    private final SystemTime clock;
+
+    // Monotonic time of tick 0 on the clock
+    private final long origin;
+    private long tick = 0;
+    private int size = 0;
+    private Thread worker;
+    private boolean closed = false;
+
+    /**
+     * TimerWheel constructor method, ticks by the system clock
+     * @param name String, name of the wheel's thread
+     * @param tickMillis Long length of one tick in milliseconds
+     * @param bucketCount Integer number of buckets, rounded up to a power of two
+     */
+    public TimerWheel( String name, long tickMillis, int bucketCount ) {
+        this( name, tickMillis, bucketCount, SystemTime.get() );
+    }
+
+    /**
+     * TimerWheel constructor method
+     * @param name String, name of the wheel's thread
+     * @param tickMillis Long length of one tick in milliseconds
+     * @param bucketCount Integer number of buckets, rounded up to a power of two
+     * @param clock SystemTime that ticks are counted on, i.e. a ManualClock in tests
+     */
+    public TimerWheel( String name, long tickMillis, int bucketCount, SystemTime clock ) {
+        int buckets = Integer.highestOneBit( Math.max( 1, bucketCount - 1 ) ) << 1;
+        this.buckets = new Timeout[ buckets ];
+        this.mask = buckets - 1;
+        this.tickMillis = tickMillis;
+        this.name = name;
+        this.clock = clock;
+        this.origin = clock.monotonicMillis();
+    }
+
+    /**
+     * Schedules a task to be run once a delay has passed
+     * @param task Runnable to be run on the wheel's thread
+     * @param delayMillis Long delay in milliseconds
+     * @return Timeout that can be used to cancel the task
+     */
+    public Timeout schedule( Runnable task, long delayMillis ) {
+        Timeout timeout = new Timeout( task );
+        // First tick that starts at or after the delay has passed on the clock, which the wheel
+        // itself may not have caught up with yet
+        long due = ( clock.monotonicMillis() - origin + Math.max( 0, delayMillis ) + tickMillis - 1 ) / tickMillis;
+        synchronized ( lock ) {
+            if ( worker == null && !closed ) { startWorker(); }
+            long ticks = Math.max( 1, due - tick );
+            timeout.remainingRounds = ( ticks - 1 ) / buckets.length;
+            timeout.bucket = (int)( ( tick + ticks ) & mask );
+            timeout.next = buckets[ timeout.bucket ];
+            if ( timeout.next != null ) { timeout.next.previous = timeout; }
+            buckets[ timeout.bucket ] = timeout;
+            size++;
+        }
+        return timeout;
+    }
+
+    /**
+     * Getter method which returns how many timeouts are waiting to fire
+     * @return Integer number of pending timeouts
+     */
+    public int size() {
+        synchronized ( lock ) { return size; }
+    }
+
+    /**
+     * Private helper method which removes a timeout from its bucket.  Caller holds lock
+     * @param timeout Timeout to be removed
+     */
+    private void unlink( Timeout timeout ) {
+        if ( timeout.previous != null ) { timeout.previous.next = timeout.next; }
+        else { buckets[ timeout.bucket ] = timeout.next; }
+        if ( timeout.next != null ) { timeout.next.previous = timeout.previous; }
+        timeout.previous = timeout.next = null;
+        size--;
+    }
+
+    /**
+     * Private helper method which starts the thread that advances the wheel.  Caller holds lock
+     */
+    private void startWorker() {
+        worker = new Thread( this::run, name );
+        worker.setDaemon( true );
+        worker.start();
+    }
+
+    /**
+     * Worker thread loop, sleeps until the next tick starts and then catches up with the clock,
+     * so the wheel never drifts from it
+     */
+    private void run() {
+        while ( true ) {
+            long sleep = tickMillis - Math.floorMod( clock.monotonicMillis() - origin, tickMillis );
+            try { Thread.sleep( sleep ); }
+            catch ( InterruptedException e ) { return; }
+            advance();
+        }
+    }
+
+    /**
+     * Moves the wheel through every tick that has started on its clock, running each timeout
+     * that falls due.  Called by the wheel's thread once per tick, and can be called directly to
+     * run due timeouts right away, i.e. after moving a ManualClock forward
+     */
+    public void advance() {
+        long now = ( clock.monotonicMillis() - origin ) / tickMillis;
+        while ( true ) {
+            Timeout due;
+            synchronized ( lock ) {
+                if ( tick >= now ) { return; }
+                due = nextTick();
+            }
+            // Tasks run outside of the lock so that they may schedule new timeouts
+            for ( Timeout timeout = due; timeout != null; ) {
+                Timeout next = timeout.next;
+                timeout.next = null;
+                try { timeout.task.run(); }
+                catch ( RuntimeException e ) { /* one failing task must not stop the wheel */ }
+                timeout = next;
+            }
+        }
+    }
+
+    /**
+     * Private helper method which moves to the next bucket and takes out every timeout in it
+     * that has no rounds left to wait.  Caller holds lock
+     * @return Timeout first of the timeouts now due, linked through next, or null if none are
+     */
+    private Timeout nextTick() {
+        Timeout due = null;
+        tick++;
+        Timeout timeout = buckets[ (int)( tick & mask ) ];
+        while ( timeout != null ) {
+            Timeout next = timeout.next;
+            if ( timeout.remainingRounds > 0 ) { timeout.remainingRounds--; }
+            else {
+                unlink( timeout );
+                timeout.pending = false;
+                timeout.next = due;
+                due = timeout;
+            }
+            timeout = next;
+        }
+        return due;
+    }
+
+    /**
+     * Stops the wheel's thread.  Pending timeouts only run if advance() is called
+     */
+    public void close() {
+        synchronized ( lock ) {
+            closed = true;
+            if ( worker != null ) { worker.interrupt(); }
+        }
+    }
+}
@@ -1,5 +1,3 @@
-import java.util.*;
-
 /**
  * User class which creates user objects for a SystemHandler object, so that accounts can be created and
  * recorded, logged into and logged out from, and edited based on user preference
@@ -10,12 +8,10 @@ import java.util.*;
  */
 public class User {
 
-    private String name, password, timeCreated;
-    private InformationHandler information;
-    private FormatHelper formatHelper = new FormatHelper();
+    private static final FormatHelper formatHelper = new FormatHelper();
 
-    // Unused variable, planned for future expansion of SystemHandler package
-    private SystemTime clock = new SystemTime();
+    private String name, password;
+    private InformationHandler information;
 
     /**
      * No-arg constructor method
@@ -24,7 +20,6 @@ public class User {
         this.name = null;
         this.password = null;
         this.information = new InformationHandler();
-        getInformation().setTimeCreated();
     }
     
     /**
@@ -34,10 +29,31 @@ public class User {
      * @param password String, password associated with account
      */
     public User( String name, String password ) {
-        this.name = name.toUpperCase();
+        this.name = UserKey.canonical( name );
         this.password = password;
         this.information = new InformationHandler();
-        getInformation().setTimeCreated();
+    }
+
+    /**
+     * User constructor method which accepts an already canonical username
+     * @param key UserKey, username
+     * @param password String, password associated with account
+     */
+    public User( UserKey key, String password ) {
+        this( key, password, SystemTime.get() );
+    }
+
+    /**
+     * User constructor method which accepts an already canonical username and the clock that
+     * times the account's creation
+     * @param key UserKey, username
+     * @param password String, password associated with account
+     * @param clock SystemTime of the UserList the account is created in
+     */
+    public User( UserKey key, String password, SystemTime clock ) {
+        this.name = key.value();
+        this.password = password;
+        this.information = new InformationHandler( clock );
     }
 
     /**
@@ -62,7 +78,7 @@ public class User {
      * @return String, formatted and readable time of account creation
      */
     public String getTimeCreated() {
-        return this.timeCreated;
+        return getInformation().getTimeCreated();
     }
 
     /**
@@ -76,33 +92,31 @@ public class User {
     /**
      * Extremely important User class method for processing terminal user input.
      * Handles execution of methods used to edit user profile
-     * @param key String to be matched to a list of processor key Strings
+     * @param key String to be matched to a processor command
      */
     public void executeProcessor( String key ) {
-        getInformation().getProcessor().getExecutableProcessor().get( key ).run();
-        System.out.println( getInformation().notificationNotice() );
+        if ( getInformation().executeProcessor( key ) ) {
+            Console.current().println( getInformation().notificationNotice() ); }
     }
 
     /**
      * Sends user input to user's information object's processor so that the 
-     * processor can match the inputted String to its own key values
-     * to execute a Runnable method
-     * @param string String to be compared to user's processor's key array
+     * processor can match the inputted String to one of its commands
+     * @param string String to be matched to a processor command
      */
     public void processUserInput( String string ) {
-        for ( String key : getInformation().getProcessor().getKeys() ) {
-            if ( key.equals( string ) ) { executeProcessor( key ); } }
+        executeProcessor( string );
     }
 
     /**
      * Private helper method which prompts the user for input in the terminal
-     * @param input String, user input collected from terminal
+     * @param console Console of the session the user is typing into
      * @return Null if user quits system, otherwise returns the 
      * user String input in the terminal
      */
-    private String promptUserInformation( Scanner input ) {
+    private String promptUserInformation( Console console ) {
         // Upper case conversion to simplify the processing of user input
-        String response = input.nextLine().toUpperCase();
+        String response = console.readLine().toUpperCase();
         if ( response.equals( "QUIT" ) ) return null;
         return response;
     }
@@ -110,12 +124,19 @@ public class User {
     /**
      * Reads all user input in the terminal.  All input will be sent through
      * the user's information object to be processed and this while loop
-     * will not break until user quits
+     * will not break until user quits or the session bound to this thread expires
      */
     public void promptUser() {
+        AccountSession session = AccountSession.current();
         while (true) {
-            String response = promptUserInformation( new Scanner( System.in ) );
+            String response = promptUserInformation( Console.current() );
             if ( response == null ) { break; }
+            if ( session != null ) {
+                if ( !session.isActive() ) {
+                    Console.current().println( formatHelper.basicMessage( "SESSION", "Session expired after inactivity. Please log in again." ) );
+                    break; }
+                session.touch( session.getClock().monotonicMillis() );
+            }
             processUserInput( response ); 
         }
     }
@@ -0,0 +1,259 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * UserIndex class which keeps usernames in a radix tree (a trie whose single-child chains are
+ * merged into one edge) so that accounts can be searched by prefix and listed in sorted order
+ * one page at a time.  Every node knows how many names lie below it, so counting the names under
+ * a prefix is a single walk down the tree, and a page that starts after a given name skips every
+ * subtree that lies entirely before that name instead of visiting it
+ *
+ * Bugs: Names are never removed, as accounts cannot be deleted
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class UserIndex {
+
+    /**
+     * Node subclass which is one node of the tree, reached through an edge labelled with one or
+     * more characters
+     */
+    private static final class Node {
+
+        private static final Node[] NO_CHILDREN = new Node[ 0 ];
+
+        private String edge;
+        private boolean terminal;
+        private int size;
+        private Node[] children = NO_CHILDREN;
+
+        /**
+         * Node constructor method
+         * @param edge String label of the edge leading into this node
+         */
+        private Node( String edge ) {
+            this.edge = edge;
+        }
+
+        /**
+         * Private helper method which finds the child whose edge starts with a character
+         * @param c Character the edge starts with
+         * @return Integer index of the child, or -(insertion point) - 1 if there is none
+         */
+        private int find( char c ) {
+            int low = 0, high = children.length - 1;
+            while ( low <= high ) {
+                int middle = ( low + high ) >>> 1;
+                char m = children[ middle ].edge.charAt( 0 );
+                if ( m < c ) { low = middle + 1; }
+                else if ( m > c ) { high = middle - 1; }
+                else { return middle; }
+            }
+            return -( low + 1 );
+        }
+    }
+
+    private final Node root = new Node( "" );
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Adds a name to the index
+     * @param name String, upper case username
+     * @return True if the name was added, false if it was already indexed
+     */
+    public boolean add( String name ) {
+        lock.writeLock().lock();
+        try {
+            if ( contains( name ) ) { return false; }
+            Node node = root;
+            int depth = 0;
+            while ( true ) {
+                node.size++;
+                if ( depth == name.length() ) { node.terminal = true; return true; }
+                int index = node.find( name.charAt( depth ) );
+                if ( index < 0 ) {
+                    Node leaf = new Node( name.substring( depth ) );
+                    leaf.terminal = true;
+                    leaf.size = 1;
+                    int at = -index - 1;
+                    Node[] children = Arrays.copyOf( node.children, node.children.length + 1 );
+                    System.arraycopy( children, at, children, at + 1, node.children.length - at );
+                    children[ at ] = leaf;
+                    node.children = children;
+                    return true;
+                }
+                Node child = node.children[ index ];
+                int common = commonLength( child.edge, name, depth );
+                if ( common < child.edge.length() ) {
+                    // The name leaves the edge part way along, so the edge is split where it does
+                    Node split = new Node( child.edge.substring( 0, common ) );
+                    split.size = child.size;
+                    split.children = new Node[]{ child };
+                    child.edge = child.edge.substring( common );
+                    node.children[ index ] = split;
+                    child = split;
+                }
+                node = child;
+                depth += common;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Private helper method which returns how many characters an edge shares with a name
+     * @param edge String label of an edge
+     * @param name String being looked up
+     * @param depth Integer position in name where the edge begins
+     * @return Integer length of the shared run
+     */
+    private static int commonLength( String edge, String name, int depth ) {
+        int length = Math.min( edge.length(), name.length() - depth ), i = 0;
+        while ( i < length && edge.charAt( i ) == name.charAt( depth + i ) ) i++;
+        return i;
+    }
+
+    /**
+     * Private helper method which returns whether a name is indexed.  Must be called while
+     * holding the lock
+     * @param name String, upper case username
+     * @return True if the name is indexed, false if otherwise
+     */
+    private boolean contains( String name ) {
+        Node node = root;
+        int depth = 0;
+        while ( depth < name.length() ) {
+            int index = node.find( name.charAt( depth ) );
+            if ( index < 0 ) { return false; }
+            node = node.children[ index ];
+            if ( !name.startsWith( node.edge, depth ) ) { return false; }
+            depth += node.edge.length();
+        }
+        return node.terminal;
+    }
+
+    /**
+     * Getter method which returns how many names are indexed
+     * @return Integer number of names
+     */
+    public int size() {
+        lock.readLock().lock();
+        try { return root.size; }
+        finally { lock.readLock().unlock(); }
+    }
+
+    /**
+     * Counts the names that start with a prefix without visiting them
+     * @param prefix String, upper case prefix, empty for every name
+     * @return Integer number of matching names
+     */
+    public int count( String prefix ) {
+        lock.readLock().lock();
+        try {
+            Node node = descend( prefix, new StringBuilder() );
+            return ( node == null ) ? 0 : node.size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns one page of the names that start with a prefix, in sorted order
+     * @param prefix String, upper case prefix, empty for every name
+     * @param after String, last name of the previous page, or null for the first page
+     * @param limit Integer largest number of names to return
+     * @return List of at most limit matching names that sort after the given name
+     */
+    public List< String > list( String prefix, String after, int limit ) {
+        List< String > page = new ArrayList<>( Math.min( Math.max( limit, 0 ), 1024 ) );
+        if ( limit <= 0 ) { return page; }
+        lock.readLock().lock();
+        try {
+            StringBuilder path = new StringBuilder();
+            Node node = descend( prefix, path );
+            if ( node != null ) { collect( node, path, after, limit, page ); }
+            return page;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Private helper method which finds the node holding every name that starts with a prefix.
+     * When the prefix ends part way along an edge, the node below that edge is returned
+     * @param prefix String, upper case prefix
+     * @param path StringBuilder that receives the full path to the returned node
+     * @return Node whose subtree holds exactly the matching names, or null if there are none
+     */
+    private Node descend( String prefix, StringBuilder path ) {
+        Node node = root;
+        int depth = 0;
+        while ( depth < prefix.length() ) {
+            int index = node.find( prefix.charAt( depth ) );
+            if ( index < 0 ) { return null; }
+            node = node.children[ index ];
+            int common = commonLength( node.edge, prefix, depth );
+            if ( common < node.edge.length() && depth + common < prefix.length() ) { return null; }
+            path.append( node.edge );
+            depth += node.edge.length();
+        }
+        return node;
+    }
+
+    /**
+     * Private helper method which appends the names in a subtree that sort after a given name,
+     * in order, until the page is full.  Subtrees that sort entirely before that name are skipped
+     * @param node Node whose subtree is visited
+     * @param path StringBuilder holding the full path to node, restored before returning
+     * @param after String, names up to and including this one are left out, or null
+     * @param limit Integer size of a full page
+     * @param page List of names collected so far
+     */
+    private static void collect( Node node, StringBuilder path, String after, int limit, List< String > page ) {
+        if ( node.terminal && ( after == null || compare( path, after ) > 0 ) ) { page.add( path.toString() ); }
+        for ( Node child : node.children ) {
+            if ( page.size() >= limit ) { return; }
+            int length = path.length();
+            path.append( child.edge );
+            // Every name below child starts with path, so if path sorts before after without
+            // being a prefix of it, the whole subtree does too
+            if ( after == null || compare( path, after ) > 0 || startsWith( after, path ) ) {
+                collect( child, path, after, limit, page );
+            }
+            path.setLength( length );
+        }
+    }
+
+    /**
+     * Private helper method which compares a path to a name the way String.compareTo does
+     * @param path StringBuilder holding a path
+     * @param name String compared against
+     * @return Negative, zero or positive as path sorts before, equal to or after name
+     */
+    private static int compare( StringBuilder path, String name ) {
+        int length = Math.min( path.length(), name.length() );
+        for ( int i = 0; i < length; i++ ) {
+            int difference = path.charAt( i ) - name.charAt( i );
+            if ( difference != 0 ) { return difference; }
+        }
+        return path.length() - name.length();
+    }
+
+    /**
+     * Private helper method which returns whether a name starts with a path
+     * @param name String being checked
+     * @param path StringBuilder holding the path
+     * @return True if path is a prefix of name, false if otherwise
+     */
+    private static boolean startsWith( String name, StringBuilder path ) {
+        if ( path.length() > name.length() ) { return false; }
+        for ( int i = 0; i < path.length(); i++ ) {
+            if ( path.charAt( i ) != name.charAt( i ) ) { return false; }
+        }
+        return true;
+    }
+}
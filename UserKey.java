@@ -0,0 +1,66 @@
+import java.util.Locale;
+
+/**
+ * UserKey class which is the canonical form of a username.  Usernames are matched without regard
+ * to case, so every name is normalized to upper case exactly once, when its key is made, and the
+ * key is then passed along instead of the raw name so that no later step normalizes it again.
+ * Normalization ignores the default locale, so the same name always has the same key
+ *
+ * Bugs: None
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public final class UserKey implements Comparable< UserKey > {
+
+    private final String value;
+
+    /**
+     * Private constructor method, keys are made through of()
+     * @param value String, already normalized username
+     */
+    private UserKey( String value ) {
+        this.value = value;
+    }
+
+    /**
+     * Makes the key of a username as it was entered
+     * @param name String, username in any case
+     * @return UserKey of the username
+     */
+    public static UserKey of( String name ) {
+        return new UserKey( canonical( name ) );
+    }
+
+    /**
+     * Normalizes a username, for callers that only need the text of the key
+     * @param name String, username in any case
+     * @return String, upper case username
+     */
+    public static String canonical( String name ) {
+        return name.toUpperCase( Locale.ROOT );
+    }
+
+    /**
+     * Getter method which returns the normalized username
+     * @return String, upper case username under which the account is stored
+     */
+    public String value() {
+        return this.value;
+    }
+
+    public int compareTo( UserKey other ) {
+        return value.compareTo( other.value );
+    }
+
+    public boolean equals( Object other ) {
+        return other instanceof UserKey && value.equals( ( (UserKey)other ).value );
+    }
+
+    public int hashCode() {
+        return value.hashCode();
+    }
+
+    public String toString() {
+        return value;
+    }
+}
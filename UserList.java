@@ -1,23 +1,245 @@
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
- * UserList class which records, stores, and instantiates user objects
+ * UserList class which records, stores, and instantiates user objects.  Safe to share
+ * between concurrent sessions: lookups never lock, and account creation is an atomic
+ * create-if-absent so two sessions racing on the same username cannot both succeed.
+ * Accounts restored from a snapshot stay encoded in the mapped snapshot until they are
+ * first looked up, and loaded accounts are kept in a UserStore, which may page them out
+ * of memory again.  A NameFilter over every username turns away lookups of names that do not
+ * exist before they reach the store or the snapshot.  Holds no terminal I/O; accounts are
+ * created and logged into through an AccountService
  * 
- * Bugs: No bugs, but should streamline uppercasing input more effectively
+ * Bugs: None
  * 
  * @author David Sanchez (@davchez on GitHub)
  */
 public class UserList {
 
-    private Map< String, User > userList;
-    private FormatHelper formatHelper = new FormatHelper();
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    // Smallest number of names a filter is sized for
+    private static final int MIN_FILTER_CAPACITY = 1024;
+
+    // Every account created or loaded so far, on the heap unless another store is set
+    private volatile UserStore store;
+
+    // Mapped snapshot of restored accounts, decoded into the store one account at a time
+    private volatile SnapshotFile baseline;
+    private final AtomicInteger baselineLoaded = new AtomicInteger();
+
+    // Every username, rebuilt twice as large whenever it fills up
+    private volatile NameFilter nameFilter;
+    private volatile double falsePositiveRate = DEFAULT_FALSE_POSITIVE_RATE;
+
+    // Filter being rebuilt, which names added during the rebuild are also added to
+    private volatile NameFilter pendingNameFilter;
+
+    // Clock that sessions, log in attempts and account creations are timed by
+    private final SystemTime clock;
+
+    // Sessions of the users currently logged in to accounts of this UserList
+    private final SessionManager sessionManager;
+
+    // Sorted index of every username, built the first time accounts are searched or listed
+    private volatile UserIndex index;
+
+    // Creation time and checklist indexes, built the first time they are queried
+    private volatile AccountIndex accountIndex;
+
+    // Rejects log in attempts made too often for one username or from one session
+    private final LoginThrottle loginThrottle;
+
+    // Systems that follow every change made to the stored accounts
+    private final List< AccountListener > listeners = new CopyOnWriteArrayList<>();
+
+    // Single listener handed to every stored account, forwards to all registered listeners
+    private final AccountListener events = new AccountListener() {
+        public void userCreated( User user ) {
+            for ( AccountListener listener : listeners ) listener.userCreated( user );
+        }
+        public void securityQuestionAdded( User user, String question, long salt, long hash ) {
+            store.changed( user );
+            for ( AccountListener listener : listeners ) listener.securityQuestionAdded( user, question, salt, hash );
+        }
+        public void checklistUpdated( User user, String key, boolean complete ) {
+            store.changed( user );
+            for ( AccountListener listener : listeners ) listener.checklistUpdated( user, key, complete );
+        }
+    };
 
     /**
-     * No-arg constructor
+     * No-arg constructor, times everything by the system clock
      */
     public UserList() {
-        // Names for users are kept in upper case
-        userList = new HashMap< String, User >();
+        this( SystemTime.get() );
+    }
+
+    /**
+     * UserList constructor method
+     * @param clock SystemTime that sessions, log in attempts and account creations are timed by,
+     * i.e. a ManualClock in tests and benchmarks
+     */
+    public UserList( SystemTime clock ) {
+        this.clock = clock;
+        this.sessionManager = new SessionManager( SessionManager.DEFAULT_IDLE_TIMEOUT_MILLIS, clock );
+        this.loginThrottle = new LoginThrottle( clock );
+        setStore( new HeapUserStore() );
+        this.nameFilter = new NameFilter( MIN_FILTER_CAPACITY, falsePositiveRate );
+    }
+
+    /**
+     * Setter method which replaces where this UserList keeps its accounts, i.e. with a
+     * TieredUserStore to cap how many stay in memory.  Must be called before any account is
+     * added or looked up
+     * @param store Empty UserStore to keep accounts in
+     */
+    public void setStore( UserStore store ) {
+        store.setListener( events );
+        this.store = store;
+    }
+
+    /**
+     * Getter method that returns where this UserList keeps its accounts
+     * @return UserStore of this UserList
+     */
+    public UserStore getStore() {
+        return this.store;
+    }
+
+    /**
+     * Registers a listener that will be notified of every account change made after this call
+     * @param listener AccountListener to be notified
+     */
+    public void addAccountListener( AccountListener listener ) {
+        listeners.add( listener );
+    }
+
+    /**
+     * Getter method that returns the clock this UserList is timed by
+     * @return SystemTime of this UserList
+     */
+    public SystemTime getClock() {
+        return this.clock;
+    }
+
+    /**
+     * Getter method that returns the manager of the sessions logged in to this UserList
+     * @return SessionManager of this UserList
+     */
+    public SessionManager getSessionManager() {
+        return this.sessionManager;
+    }
+
+    /**
+     * Getter method which returns the throttle applied to log in attempts
+     * @return LoginThrottle of this UserList
+     */
+    public LoginThrottle getLoginThrottle() {
+        return this.loginThrottle;
+    }
+
+    /**
+     * Releases what this UserList holds besides its accounts once it is no longer used, i.e.
+     * between benchmark runs.  The store, journal and snapshot are closed by whoever opened them
+     */
+    public void close() {
+        loginThrottle.close();
+        sessionManager.shutdown();
+    }
+
+    /**
+     * Setter method which backs this UserList with the accounts of a snapshot.  Must be
+     * called before any account is added
+     * @param baseline SnapshotFile whose accounts are loaded on first lookup
+     */
+    public void setBaseline( SnapshotFile baseline ) {
+        this.baseline = baseline;
+        rebuildNameFilter();
+    }
+
+    /**
+     * Getter method that returns the snapshot backing this UserList
+     * @return SnapshotFile, or null if the UserList did not start from a snapshot
+     */
+    public SnapshotFile getBaseline() {
+        return this.baseline;
+    }
+
+    /**
+     * Getter method that returns every User stored in this UserList.  Loads every account
+     * that is still only in the backing snapshot
+     * @return Read-only list of all stored Users
+     */
+    public Collection< User > getUsers() {
+        SnapshotFile snapshot = this.baseline;
+        if ( snapshot != null && baselineLoaded.get() < snapshot.size() ) {
+            for ( String name : snapshot.names() ) lookup( name );
+        }
+        List< User > users = new ArrayList<>( size() );
+        store.forEach( users::add );
+        return Collections.unmodifiableList( users );
+    }
+
+    /**
+     * Getter method that returns the Users that are currently in memory, leaving accounts
+     * that are only in the backing snapshot or paged out untouched
+     * @return Read-only collection of the loaded Users
+     */
+    public Collection< User > getLoadedUsers() {
+        return store.getResidentUsers();
+    }
+
+    /**
+     * Visits every User stored in this UserList without loading accounts that are only in the
+     * backing snapshot; those are decoded for the visit and then dropped again
+     * @param action Consumer that receives each User
+     */
+    public void forEachUser( Consumer< User > action ) {
+        UserStore current = this.store;
+        current.forEach( action );
+        SnapshotFile snapshot = this.baseline;
+        if ( snapshot == null ) { return; }
+        snapshot.forEach( user -> { if ( !current.contains( user.getName() ) ) action.accept( user ); } );
+    }
+
+    /**
+     * Getter method that returns how many Users are stored in this UserList
+     * @return Integer number of stored Users
+     */
+    public int size() {
+        SnapshotFile snapshot = this.baseline;
+        return store.size() + ( ( snapshot == null ) ? 0 : snapshot.size() - baselineLoaded.get() );
+    }
+
+    /**
+     * Private helper method which finds a User by its upper case name, loading it from
+     * the backing snapshot the first time it is asked for
+     * @param key String, upper case username
+     * @return User if one exists under that name, otherwise null
+     */
+    private User lookup( String key ) {
+        if ( !mightExist( key ) ) { return null; }
+        UserStore current = this.store;
+        User user = current.get( key );
+        if ( user != null ) { return user; }
+        SnapshotFile snapshot = this.baseline;
+        if ( snapshot != null ) { user = snapshot.read( key ); }
+        if ( user == null ) {
+            Metrics.increment( Metrics.NAME_FILTER_FALSE_POSITIVES );
+            return null;
+        }
+        user.getInformation().attach( user, events );
+        User raced = current.putIfAbsent( user );
+        if ( raced != null ) { return raced; }
+        baselineLoaded.incrementAndGet();
+        return user;
     }
 
     /**
@@ -27,8 +249,17 @@ public class UserList {
      * @return User if input matches a username; otherwise null
      */
     public User retrieveUser( String name ) {
-        if ( doesUserExist( name ) ) return userList.get( name.toUpperCase() );
-        return null;
+        // Single lock-free read for an account in memory; a missing user is simply null
+        return lookup( UserKey.canonical( name ) );
+    }
+
+    /**
+     * Getter method that returns the User stored under a canonical key
+     * @param key UserKey of the desired User
+     * @return User if one is stored under the key; otherwise null
+     */
+    public User retrieveUser( UserKey key ) {
+        return lookup( key.value() );
     }
 
     /**
@@ -37,89 +268,179 @@ public class UserList {
      * @return True if User exists in UserList; false otherwise
      */
     public boolean doesUserExist( String name ) {
-        if ( userList.containsKey( name.toUpperCase() ) ) return true;
+        return doesUserExist( UserKey.of( name ) );
+    }
+
+    /**
+     * Getter method that determines whether or not a User is stored under a canonical key
+     * @param key UserKey to be looked up
+     * @return True if User exists in UserList; false otherwise
+     */
+    public boolean doesUserExist( UserKey key ) {
+        if ( !mightExist( key.value() ) ) return false;
+        if ( store.contains( key.value() ) ) return true;
+        SnapshotFile snapshot = this.baseline;
+        if ( snapshot != null && snapshot.contains( key.value() ) ) return true;
+        Metrics.increment( Metrics.NAME_FILTER_FALSE_POSITIVES );
         return false;
     }
 
     /**
-     * Method that accepts user input in the terminal, has general usage throughout
-     * SystemHandler package
-     * @param message What the user is prompted to input (i.e. "username")
-     * @param input Scanner object
-     * @return String, the user's input in the terminal
+     * Private helper method which asks the name filter whether a username may be stored
+     * @param key String, upper case username
+     * @return False if the username is definitely not stored, true if it may be
      */
-    private String enterInformation( String message, Scanner input ) {
-        System.out.println( formatHelper.basicMessage( "SYSTEM", String.format( "Please enter your %s.", message.toLowerCase() ) ) );
-        return input.nextLine();
+    private boolean mightExist( String key ) {
+        if ( nameFilter.mightContain( key ) ) { return true; }
+        Metrics.increment( Metrics.NAME_FILTER_NEGATIVES );
+        return false;
     }
 
     /**
-     * Priavte helper method which sends a key to the InformationHandler of the User
-     * object to call upon the Runnable method that executes a security question
-     * challenge
-     * @param user Security questions will be fetched from this specific user's account
-     * @return If user passed security challenge, returns User; otherwise, null
+     * Private helper method which adds a username to the name filter, and to the one being
+     * rebuilt if there is one.  Called after the account is stored, so that a rebuild that
+     * started too early to find the account still learns its name
+     * @param key String, upper case username
+     * @param filter NameFilter the username was added to before it was stored
      */
-    private User promptSecurityQuestion( User user ) {
-        user.executeProcessor( "CHALLENGE SECURITY QUESTION" );
-        if ( user.getInformation().getPassedSecurityQuestions() ) { return user; }
-        return null;
+    private void addToNameFilter( String key, NameFilter filter ) {
+        NameFilter pending = this.pendingNameFilter;
+        if ( pending != null ) { pending.add( key ); }
+        NameFilter current = this.nameFilter;
+        if ( current != filter ) { current.add( key ); }
+        if ( current.isFull() ) {
+            synchronized ( listeners ) { if ( this.nameFilter == current ) rebuildNameFilter(); }
+        }
     }
-    
+
     /**
-     * Private helper method which accepts an attempted log in by having username
-     * and password as parameters, checks if user exists in this UserList and if
-     * the password matches the account if it exists
-     * @param name Username of desired User object
-     * @param password Password of desired User object
-     * @return Boolean, True if log-in is succesful, otherwise False
+     * Rebuilds the name filter from every stored username and every username in the backing
+     * snapshot, sized for twice as many names as there are now.  Lookups keep using the old
+     * filter until the new one is complete
      */
-    private boolean promptPassword( String name, String password ) {
-        if ( doesUserExist( name.toUpperCase() ) ) { 
-            return retrieveUser( name.toUpperCase() ).getPassword().equals( password ); }
-        return false;
+    public void rebuildNameFilter() {
+        synchronized ( listeners ) {
+            NameFilter rebuilt = new NameFilter( Math.max( MIN_FILTER_CAPACITY, size() * 2 ), falsePositiveRate );
+            this.pendingNameFilter = rebuilt;
+            store.forEachName( rebuilt::add );
+            SnapshotFile snapshot = this.baseline;
+            if ( snapshot != null ) { for ( String name : snapshot.names() ) rebuilt.add( name ); }
+            this.nameFilter = rebuilt;
+            this.pendingNameFilter = null;
+        }
     }
 
     /**
-     * Private helper method which is prompted when a user attempts to
-     * log into a User account.  Formats messages so that the terminal can
-     * notify the user if the log in was succesful or unsuccessful
-     * @param name Username of desired User object
-     * @param password Password of desired User object
-     * @return User if login is successful, otherwise null
+     * Setter method which changes the false positive rate the name filter is sized for,
+     * rebuilding it at the new rate
+     * @param rate Double rate between 0 and 1 exclusive, i.e. 0.01 for one in a hundred
      */
-    private User attemptLogIn( String name, String password ) {
-        if ( promptPassword( name.toUpperCase(), password ) ) { 
-            System.out.println( formatHelper.basicMessage( "SYSTEM", "Log in successful." ) );
-            return retrieveUser( name.toUpperCase() ); }
-        System.out.println( formatHelper.basicMessage( "SYSTEM", "Log in failed." ) );
-        return null;
+    public void setFalsePositiveRate( double rate ) {
+        if ( !( rate > 0 && rate < 1 ) ) { throw new IllegalArgumentException( "False positive rate must be between 0 and 1." ); }
+        this.falsePositiveRate = rate;
+        rebuildNameFilter();
     }
 
     /**
-     * Login primary method which handles all login attempts.  Collects user input
-     * and asks for their username and password.  Checks if username exists in UserList
-     * and if so, will check if their attempted password matches the User object's password
-     * @return User account if login is successful, otherwise null
+     * Getter method that returns the filter over every username, i.e. to read its expected
+     * false positive rate
+     * @return NameFilter of this UserList
      */
-    public User logInPrompt() {
-        Scanner input = new Scanner( System.in );
-        String username = enterInformation( "username", input ).toUpperCase(), password = enterInformation ( "password", input );
-        User user = attemptLogIn( username.toUpperCase(), password );
-        if ( doesUserExist( username.toUpperCase() ) && user == null ) { user = promptSecurityQuestion( retrieveUser( username.toUpperCase() ) ); }
-        return user;
+    public NameFilter getNameFilter() {
+        return this.nameFilter;
+    }
+
+    /**
+     * Private helper method which returns the username index, building it the first time it is
+     * needed so that UserLists that are never searched do not pay for it.  Accounts added while
+     * the index is being built are indexed either by addUser or by the build itself
+     * @return UserIndex holding every username of this UserList
+     */
+    private UserIndex index() {
+        UserIndex current = this.index;
+        if ( current != null ) { return current; }
+        synchronized ( listeners ) {
+            if ( this.index != null ) { return this.index; }
+            current = new UserIndex();
+            this.index = current;
+            store.forEachName( current::add );
+            SnapshotFile snapshot = this.baseline;
+            if ( snapshot != null ) { for ( String name : snapshot.names() ) current.add( name ); }
+            return current;
+        }
+    }
+
+    /**
+     * Private helper method which returns the secondary indexes, building them the first time
+     * they are needed by visiting every account once.  From then on they are kept current as
+     * a listener of this UserList
+     * @return AccountIndex over every account of this UserList
+     */
+    private AccountIndex accountIndex() {
+        AccountIndex current = this.accountIndex;
+        if ( current != null ) { return current; }
+        synchronized ( listeners ) {
+            if ( this.accountIndex != null ) { return this.accountIndex; }
+            current = new AccountIndex();
+            // Listening first means a change made during the scan below is never missed
+            addAccountListener( current );
+            forEachUser( current::index );
+            this.accountIndex = current;
+            return current;
+        }
+    }
+
+    /**
+     * Returns the usernames of the accounts created in a time range, oldest first
+     * @param fromMillis Long start of the range in epoch milliseconds, inclusive
+     * @param toMillis Long end of the range in epoch milliseconds, exclusive
+     * @param limit Integer largest number of usernames to return
+     * @return List of upper case usernames
+     */
+    public List< String > findUsersCreatedBetween( long fromMillis, long toMillis, int limit ) {
+        return accountIndex().createdBetween( fromMillis, toMillis, limit );
+    }
+
+    /**
+     * Returns the usernames of the accounts whose checklist item is complete or incomplete
+     * @param key String, checklist item
+     * @param complete True for accounts that completed the item, false for those that have not
+     * @param limit Integer largest number of usernames to return
+     * @return List of upper case usernames
+     */
+    public List< String > findUsersWithChecklistItem( String key, boolean complete, int limit ) {
+        return accountIndex().withChecklistItem( key, complete, limit );
+    }
+
+    /**
+     * Counts the accounts whose checklist item is complete or incomplete
+     * @param key String, checklist item
+     * @param complete True to count accounts that completed the item, false for those that have not
+     * @return Integer number of accounts
+     */
+    public int countUsersWithChecklistItem( String key, boolean complete ) {
+        return accountIndex().countWithChecklistItem( key, complete );
     }
 
     /**
-     * Method that prompts the user for any basic information.  Collects user input through terminal
-     * and is flexible to have wide utilization range through SystemHandler package for the UserList
-     * @param parameter Desired object/input to be wanted by System
-     * @return String, user terminal input
+     * Returns one page of the usernames that start with a prefix, in sorted order, without
+     * loading any account
+     * @param prefix String, prefix in any case, empty for every username
+     * @param after String, last username of the previous page, or null for the first page
+     * @param limit Integer largest number of usernames to return
+     * @return List of upper case usernames
      */
-    public String promptInput( String parameter ) {
-        System.out.println( formatHelper.basicMessage( "SYSTEM", String.format("Please enter your new %s.", parameter ) ) );
-        Scanner input = new Scanner( System.in );
-        return input.nextLine();
+    public List< String > findUsers( String prefix, String after, int limit ) {
+        return index().list( UserKey.canonical( prefix ), ( after == null ) ? null : UserKey.canonical( after ), limit );
+    }
+
+    /**
+     * Counts the usernames that start with a prefix
+     * @param prefix String, prefix in any case, empty for every username
+     * @return Integer number of matching usernames
+     */
+    public int countUsers( String prefix ) {
+        return index().count( UserKey.canonical( prefix ) );
     }
 
     /**
@@ -135,44 +456,24 @@ public class UserList {
     }
 
     /**
-     * Method that adds a new User object to the UserList HashMap.  Will NOT be added
+     * Method that adds a new User object to the UserList map.  Will NOT be added
      * if User object already has been added or if desired new name and new password
-     * are null
+     * are null.  The existence check and the insertion happen as one atomic step
      * @param user Desired User to be added
      * @return True if adding User was successful, False if otherwise
      */
     public boolean addUser( User user ) {
-        if ( doesUserExist( user.getName() ) ) { return false; }
-        else if ( validInput( user.getName(), user.getPassword() ) ) { userList.put( user.getName(), user ); }
+        if ( !validInput( user.getName(), user.getPassword() ) ) { return false; }
+        // Loads a same-named snapshot account first so that the insertion below sees it
+        if ( lookup( user.getName() ) != null ) { return false; }
+        user.getInformation().attach( user, events );
+        NameFilter filter = this.nameFilter;
+        filter.add( user.getName() );
+        if ( store.putIfAbsent( user ) != null ) { return false; }
+        addToNameFilter( user.getName(), filter );
+        UserIndex current = this.index;
+        if ( current != null ) { current.add( user.getName() ); }
+        events.userCreated( user );
         return true;
     }
-
-    /**
-     * Method that checks if a User has already been created or if the desired new
-     * username and new password are valid inputs.  Will create a new user if
-     * neither of these conditions are met
-     * @param name Desired name for new User object
-     * @param password Desired password for new User password
-     * @return True if conditions are met, False if otherwise
-     */
-    public boolean canCreateAccount( String name, String password ) {
-        if ( !validInput( name.toUpperCase(), password ) ) { return false; }
-        formatHelper.basicMessage( "SYSTEM", 
-            ( doesUserExist( name.toUpperCase() ) ) ? "User already exists." : "Username has not been taken, and account creation was successful." );
-        return !doesUserExist( name );
-    }
-
-    /**
-     * Account creation primary method that handles user creations.  If user neither already exists
-     * nor the desired name and password are null, then user will be created
-     * @param name Desired username for new User object
-     * @param password Desired password for new User object
-     * @return True if user account creation was successful, False if otherwise
-     */
-    public boolean accountCreation( String name, String password ) {
-        if ( canCreateAccount( name.toUpperCase(), password ) ) { 
-            return addUser( new User( name.toUpperCase(), password ) ); }
-        System.out.println( formatHelper.basicMessage( "SYSTEM: USER CREATION PROHIBITED", "Username has already been taken.") );
-        return false;
-    }
 }
\ No newline at end of file
@@ -0,0 +1,74 @@
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * UserStore interface which is where a UserList keeps the accounts it has created or loaded.
+ * A store decides where each account lives (i.e. all on the heap, or only the recently used
+ * ones with the rest paged out to disk), and hands back the same User object for as long as
+ * anyone still holds it, so that changes are never split between two copies of an account
+ *
+ * Bugs: None
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public interface UserStore {
+
+    /**
+     * Looks up an account, bringing it back into memory if it was paged out
+     * @param name String, upper case username
+     * @return User stored under that name, or null if there is none
+     */
+    User get( String name );
+
+    /**
+     * Stores an account unless one with the same name is already stored
+     * @param user User to be stored, already attached to the UserList's listener
+     * @return User that was already stored under that name, or null if user was stored
+     */
+    User putIfAbsent( User user );
+
+    /**
+     * Returns whether an account is stored, without bringing it back into memory
+     * @param name String, upper case username
+     * @return True if the account is stored, false if otherwise
+     */
+    boolean contains( String name );
+
+    /**
+     * Getter method which returns how many accounts are stored, in memory or not
+     * @return Integer number of accounts
+     */
+    int size();
+
+    /**
+     * Getter method which returns the accounts currently held in memory
+     * @return Read-only collection of the resident Users
+     */
+    Collection< User > getResidentUsers();
+
+    /**
+     * Visits every stored account once.  Accounts that are paged out are decoded for the visit
+     * and dropped again, and must not be changed by the action
+     * @param action Consumer that receives each User
+     */
+    void forEach( Consumer< User > action );
+
+    /**
+     * Visits the name of every stored account once, without decoding the accounts
+     * @param action Consumer that receives each upper case username
+     */
+    void forEachName( Consumer< String > action );
+
+    /**
+     * Setter method which gives the store the listener to attach to every account it decodes
+     * @param listener AccountListener of the owning UserList
+     */
+    void setListener( AccountListener listener );
+
+    /**
+     * Called after every change to a stored account, before the change is reported to anyone
+     * else, so that a store can write back an account that is no longer in memory
+     * @param user User that was changed
+     */
+    void changed( User user );
+}
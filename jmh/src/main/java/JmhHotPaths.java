@@ -0,0 +1,69 @@
+import java.io.InputStream;
+
+/**
+ * JmhHotPaths class which implements benchmark.HotPaths over the SystemHandler classes, so that
+ * the JMH benchmarks, which must live in a package, can reach code in the default package.  It
+ * sets up the same user base as the suite of the Benchmark class
+ *
+ * Bugs: None
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public class JmhHotPaths implements benchmark.HotPaths {
+
+    private static final FormatHelper formatHelper = new FormatHelper();
+
+    private UserList userList;
+    private AccountService service;
+    private User user;
+    private String[] mixedCase, passwords;
+
+    public void populate( int users ) {
+        userList = new UserList();
+        for ( int i = 0; i < users; i++ ) userList.addUser( new User( "user" + i, "password" + i ) );
+        userList.getLoginThrottle().setEnabled( false );
+        service = new AccountService( userList );
+        mixedCase = new String[ users ];
+        passwords = new String[ users ];
+        for ( int i = 0; i < users; i++ ) {
+            mixedCase[i] = ( i % 2 == 0 ) ? "User" + i : "uSeR" + i;
+            passwords[i] = "password" + i;
+        }
+        user = userList.retrieveUser( "user0" );
+    }
+
+    public void bindConsole() {
+        Console.bind( new Console( InputStream.nullInputStream(), OutputSink.NULL ) );
+    }
+
+    public boolean createAccount( String name ) {
+        return service.createAccount( name, "password" );
+    }
+
+    public Object authenticate( int n ) {
+        AccountSession session = service.authenticate( mixedCase[n], passwords[n], null );
+        service.logOut( session );
+        return session;
+    }
+
+    public Object retrieveUser( int n ) {
+        return userList.retrieveUser( mixedCase[n] );
+    }
+
+    public Object processUserInput() {
+        user.processUserInput( "SET BEGINNING TIME" );
+        return user;
+    }
+
+    public int getNumOfIncompleteItems() {
+        return user.getInformation().getNumOfIncompleteItems();
+    }
+
+    public String basicMessage() {
+        return formatHelper.basicMessage( "SYSTEM", "Log in successful." );
+    }
+
+    public void close() {
+        userList.close();
+    }
+}
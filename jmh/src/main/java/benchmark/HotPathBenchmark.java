@@ -0,0 +1,165 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * HotPathBenchmark class which holds the JMH benchmarks of the SystemHandler hot paths, the
+ * same operations the suite of the Benchmark class times.  Each runs against 1,000 and 100,000
+ * accounts; SingleThreaded runs them on one thread and Contended on four threads sharing the
+ * same UserList.
+ *
+ *   gradle :jmh:jmh [-Pjmh.include=Contended] [-Pjmh.args="-f 1 -wi 2 -i 3"]
+ *
+ * Results are written to jmh/build/results/jmh/results.json
+ *
+ * Bugs: None
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public abstract class HotPathBenchmark {
+
+    /**
+     * Accounts subclass which is the user base shared by every thread of a benchmark
+     */
+    @State( Scope.Benchmark )
+    public static class Accounts {
+
+        @Param( { "1000", "100000" } )
+        public int users;
+
+        HotPaths paths;
+
+        // Numbers the threads, so that the accounts each creates have names of their own
+        final AtomicInteger threads = new AtomicInteger();
+
+        /**
+         * Builds the user base once per run
+         */
+        @Setup( Level.Trial )
+        public void setUp() {
+            paths = HotPaths.create( users );
+        }
+
+        /**
+         * Releases the user base once the run is over
+         */
+        @TearDown( Level.Trial )
+        public void tearDown() {
+            paths.close();
+        }
+    }
+
+    /**
+     * Caller subclass which is the state of one benchmark thread
+     */
+    @State( Scope.Thread )
+    public static class Caller {
+
+        int thread;
+        long iteration;
+
+        /**
+         * Numbers the thread and discards the terminal output it causes
+         * @param accounts Accounts shared by the benchmark
+         */
+        @Setup( Level.Trial )
+        public void setUp( Accounts accounts ) {
+            thread = accounts.threads.getAndIncrement();
+            accounts.paths.bindConsole();
+        }
+
+        /**
+         * Returns the next account to use, spreading threads over the whole user base
+         * @param users Integer size of the user base
+         * @return Integer number of an existing account
+         */
+        int next( int users ) {
+            return (int)( ( iteration++ * 31 + thread ) % users );
+        }
+    }
+
+    /**
+     * Times AccountService.createAccount of a name not used before
+     * @param accounts Accounts shared by the benchmark
+     * @param caller Caller state of the calling thread
+     * @return True if the account was created
+     */
+    @Benchmark
+    public boolean createAccount( Accounts accounts, Caller caller ) {
+        return accounts.paths.createAccount( "new" + caller.thread + "-" + caller.iteration++ );
+    }
+
+    /**
+     * Times AccountService.authenticate by a mixed-case name, followed by logging out
+     * @param accounts Accounts shared by the benchmark
+     * @param caller Caller state of the calling thread
+     * @return Object, the AccountSession of the log in
+     */
+    @Benchmark
+    public Object authenticate( Accounts accounts, Caller caller ) {
+        return accounts.paths.authenticate( caller.next( accounts.users ) );
+    }
+
+    /**
+     * Times UserList.retrieveUser by a mixed-case name
+     * @param accounts Accounts shared by the benchmark
+     * @param caller Caller state of the calling thread
+     * @return Object, the User found
+     */
+    @Benchmark
+    public Object retrieveUser( Accounts accounts, Caller caller ) {
+        return accounts.paths.retrieveUser( caller.next( accounts.users ) );
+    }
+
+    /**
+     * Times User.processUserInput of a logged in command
+     * @param accounts Accounts shared by the benchmark
+     * @return Object, the User the command ran on
+     */
+    @Benchmark
+    public Object processUserInput( Accounts accounts ) {
+        return accounts.paths.processUserInput();
+    }
+
+    /**
+     * Times InformationHandler.getNumOfIncompleteItems
+     * @param accounts Accounts shared by the benchmark
+     * @return Integer number of incomplete items
+     */
+    @Benchmark
+    public int getNumOfIncompleteItems( Accounts accounts ) {
+        return accounts.paths.getNumOfIncompleteItems();
+    }
+
+    /**
+     * Times FormatHelper.basicMessage
+     * @param accounts Accounts shared by the benchmark
+     * @return String, the formatted message
+     */
+    @Benchmark
+    public String basicMessage( Accounts accounts ) {
+        return accounts.paths.basicMessage();
+    }
+
+    /**
+     * SingleThreaded subclass which runs every benchmark on one thread
+     */
+    @Threads( 1 )
+    public static class SingleThreaded extends HotPathBenchmark {
+    }
+
+    /**
+     * Contended subclass which runs every benchmark on four threads at once
+     */
+    @Threads( 4 )
+    public static class Contended extends HotPathBenchmark {
+    }
+}
@@ -0,0 +1,86 @@
+package benchmark;
+
+/**
+ * HotPaths interface which is the SystemHandler code measured by the JMH benchmarks.  The
+ * SystemHandler classes live in the default package, which classes in a package cannot name,
+ * and JMH refuses benchmarks in the default package; so the benchmarks call the measured code
+ * through this interface, implemented by the default package class JmhHotPaths.  With only the
+ * one implementation loaded, the JIT inlines every call through it
+ *
+ * Bugs: None
+ *
+ * @author David Sanchez (@davchez on GitHub)
+ */
+public interface HotPaths {
+
+    /**
+     * Loads the implementation and fills it with generated accounts
+     * @param users Integer number of accounts, named user0 onwards
+     * @return HotPaths over a new UserList of that many accounts
+     */
+    static HotPaths create( int users ) {
+        try {
+            HotPaths paths = (HotPaths)Class.forName( "JmhHotPaths" ).getDeclaredConstructor().newInstance();
+            paths.populate( users );
+            return paths;
+        } catch ( ReflectiveOperationException e ) {
+            throw new IllegalStateException( "JmhHotPaths is missing from the benchmark classpath.", e );
+        }
+    }
+
+    /**
+     * Fills a new UserList with generated accounts, with log in throttling turned off so that
+     * the log in path itself is measured
+     * @param users Integer number of accounts, named user0 onwards with passwords password0 onwards
+     */
+    void populate( int users );
+
+    /**
+     * Discards terminal output of the measured code written from the calling thread
+     */
+    void bindConsole();
+
+    /**
+     * Creates a new account through AccountService.createAccount
+     * @param name String, username not used before
+     * @return True if the account was created
+     */
+    boolean createAccount( String name );
+
+    /**
+     * Logs account n in by password through AccountService.authenticate and out again
+     * @param n Integer number of the account, looked up by a mixed-case name
+     * @return Object, the AccountSession of the log in
+     */
+    Object authenticate( int n );
+
+    /**
+     * Looks account n up through UserList.retrieveUser
+     * @param n Integer number of the account, looked up by a mixed-case name
+     * @return Object, the User found
+     */
+    Object retrieveUser( int n );
+
+    /**
+     * Dispatches a logged in command through User.processUserInput
+     * @return Object, the User the command ran on
+     */
+    Object processUserInput();
+
+    /**
+     * Counts checklist items through InformationHandler.getNumOfIncompleteItems
+     * @return Integer number of incomplete items
+     */
+    int getNumOfIncompleteItems();
+
+    /**
+     * Formats a terminal message through FormatHelper.basicMessage
+     * @return String, the formatted message
+     */
+    String basicMessage();
+
+    /**
+     * Closes the UserList once the benchmark is done with it
+     */
+    void close();
+}